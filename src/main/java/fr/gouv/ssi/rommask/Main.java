@@ -27,12 +27,23 @@ package fr.gouv.ssi.rommask;
  */
 
 import fr.gouv.ssi.rommask.jcaparser.*;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.DeadCodeEliminator;
 import fr.gouv.ssi.rommask.jcaparser.jcaconverter.JCAConverter;
 import fr.gouv.ssi.rommask.jcaparser.jcaconverter.JCAConverterException;
 import fr.gouv.ssi.rommask.jcaparser.jcaconverter.JCANativeMethod;
 import fr.gouv.ssi.rommask.jcaparser.jcaconverter.MethodComponentFromJCA;
 import fr.gouv.ssi.rommask.jcaparser.mask.JCNativeFunctions;
+import fr.gouv.ssi.rommask.jcaparser.mask.JCStaticFieldDecoder;
+import fr.gouv.ssi.rommask.jcaparser.mask.filesystem.CArrayFormat;
+import fr.gouv.ssi.rommask.jcaparser.mask.filesystem.CachedPackage;
+import fr.gouv.ssi.rommask.jcaparser.mask.filesystem.ElfObjectWriter;
 import fr.gouv.ssi.rommask.jcaparser.mask.filesystem.Filesystem;
+import fr.gouv.ssi.rommask.jcaparser.mask.filesystem.FlashDelta;
+import fr.gouv.ssi.rommask.jcaparser.mask.filesystem.FlashImage;
+import fr.gouv.ssi.rommask.jcaparser.mask.filesystem.FlashLayout;
+import fr.gouv.ssi.rommask.jcaparser.mask.filesystem.FlashSector;
+import fr.gouv.ssi.rommask.jcaparser.mask.filesystem.HexRecordWriter;
+import fr.gouv.ssi.rommask.jcaparser.mask.filesystem.PackageCache;
 import fr.gouv.ssi.rommask.jcaparser.util.Triplet;
 import fr.xlim.ssd.capmanipulator.library.CapFile;
 import fr.xlim.ssd.capmanipulator.library.ImportComponent;
@@ -41,11 +52,19 @@ import fr.xlim.ssd.capmanipulator.library.exceptions.UnableToReadCapFileExceptio
 import fr.xlim.ssd.capmanipulator.library.exceptions.UnableToWriteCapFileException;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class
@@ -114,11 +133,116 @@ public class Main {
      */
     private static int toCompactHexAdress = 0;
 
+    /**
+     * Is the target is a Motorola S-record file?
+     */
+    private static boolean toCompactSrec = false;
+
+    /**
+     * Amount of data bytes per record in Intel Hex and S-record files
+     */
+    private static int recordLength = HexRecordWriter.DEFAULT_RECORD_LENGTH;
+
     /**
      * Is the target is a C-header file?
      */
     private static boolean toCFile = false;
 
+    /**
+     * Previous binary image or sector manifest to compute a delta image, <code>null</code> if no delta is computed
+     */
+    private static String deltaPrevious = null;
+
+    /**
+     * In case of delta image or update bundle, which is the address where the flash begins?
+     */
+    private static int deltaBaseAddress = 0;
+
+    /**
+     * Previous binary image to compute an update bundle, <code>null</code> if no update bundle is computed
+     */
+    private static String updatePrevious = null;
+
+    /**
+     * Is the target is an ELF relocatable object?
+     */
+    private static boolean toElf = false;
+
+    /**
+     * In case of C-header file, which is the shape of the flash image?
+     */
+    private static CArrayFormat cFormat = CArrayFormat.ARRAY;
+
+    /**
+     * Flash layout where the RomMask is written
+     */
+    private static FlashLayout layout = FlashLayout.stm32();
+
+    /**
+     * Number of JCA files parsed and converted concurrently
+     */
+    private static int jobs = 1;
+
+    /**
+     * Directory of the package cache, <code>null</code> if the package cache is not used
+     */
+    private static String cacheDirectory = null;
+
+    /**
+     * Are the method bytecodes rewritten into their shorter forms?
+     */
+    private static boolean optimizing = false;
+
+    /**
+     * Are the methods unreachable from the starting method and the applets replaced by stubs?
+     */
+    private static boolean eliminatingDeadCode = false;
+
+    /**
+     * Are the constant pools resolved when the mask is built?
+     */
+    private static boolean preLinking = false;
+
+    /**
+     * Are the interface dispatch tables written in flash?
+     */
+    private static boolean generatingInterfaceTables = false;
+
+    /**
+     * Are the subtype tables written in flash?
+     */
+    private static boolean generatingSubtypeTables = false;
+
+    /**
+     * Package cache used to skip the conversion of unchanged JCA files
+     */
+    private static PackageCache packageCache = null;
+
+    /**
+     * Package cache key of each JCA file
+     */
+    private static ArrayList<String> cacheKeys = new ArrayList<>();
+
+    /**
+     * Packages loaded from the package cache, <code>null</code> for the converted packages
+     */
+    private static ArrayList<CachedPackage> cachedPackages = new ArrayList<>();
+
+    /**
+     * Number of the first native method of each package
+     */
+    private static ArrayList<Short> nativeMethodBases = new ArrayList<>();
+
+    /**
+     * Is the generator watching the JCA files to generate the RomMask on each change?
+     */
+    private static boolean watching = false;
+
+    /**
+     * Delay (in ms) without JCA file change before generating the RomMask in watch mode
+     */
+    private static final long WATCH_DELAY = 50;
+
     /**
      * Main process
      *
@@ -134,6 +258,76 @@ public class Main {
 
         short index = 0;
 
+        // Check if --jobs is there
+        if (args[index].equals("--jobs")) {
+            index++;
+
+            jobs = Integer.parseInt(args[index]);
+            index++;
+
+            if (jobs < 1) {
+                System.err.println(Main.printUsage());
+                System.exit(-1);
+            }
+        }
+
+        // Check if --watch is there
+        if (args[index].equals("--watch")) {
+            watching = true;
+            index++;
+        }
+
+        // Check if --cache is there
+        if (args[index].equals("--cache")) {
+            index++;
+
+            cacheDirectory = args[index];
+            index++;
+        }
+
+        // Check if --optimize is there
+        if (args[index].equals("--optimize")) {
+            optimizing = true;
+            index++;
+        }
+
+        // Check if --eliminateDeadCode is there
+        if (args[index].equals("--eliminateDeadCode")) {
+            eliminatingDeadCode = true;
+            index++;
+        }
+
+        // Check if --preLink is there
+        if (args[index].equals("--preLink")) {
+            preLinking = true;
+            index++;
+        }
+
+        // Check if --interfaceTables is there
+        if (args[index].equals("--interfaceTables")) {
+            generatingInterfaceTables = true;
+            index++;
+        }
+
+        // Check if --subtypeTables is there
+        if (args[index].equals("--subtypeTables")) {
+            generatingSubtypeTables = true;
+            index++;
+        }
+
+        // Check if --layout is there
+        if (args[index].equals("--layout")) {
+            index++;
+
+            try {
+                layout = FlashLayout.load(Paths.get(args[index]));
+            } catch (IOException e) {
+                System.err.println("[!] Unable to load the flash layout: " + e);
+                System.exit(-1);
+            }
+            index++;
+        }
+
         // Check if --compact is there
         if (args[index].equals("--compact")) {
             toCompact = true;
@@ -150,16 +344,102 @@ public class Main {
             toCompactHex = true;
             index++;
 
-            toCompactHexAdress = Integer.parseInt(args[index], 16);
+            toCompactHexAdress = Integer.parseUnsignedInt(args[index], 16);
+            index++;
+        }
+
+        // Check if --compactSrec is there
+        if (args[index].equals("--compactSrec")) {
+            if (toCompact || toCompactHex) {
+                printUsage();
+                return;
+            }
+
+            toCompactSrec = true;
+            index++;
+
+            toCompactHexAdress = Integer.parseUnsignedInt(args[index], 16);
+            index++;
+        }
+
+        // Check if --delta is there
+        if (args[index].equals("--delta")) {
+            if (toCompact || toCompactHex || toCompactSrec) {
+                printUsage();
+                return;
+            }
+            index++;
+
+            deltaPrevious = args[index];
+            index++;
+
+            deltaBaseAddress = Integer.parseUnsignedInt(args[index], 16);
+            index++;
+        }
+
+        // Check if --update is there
+        if (args[index].equals("--update")) {
+            if (toCompact || toCompactHex || toCompactSrec || (deltaPrevious != null)) {
+                printUsage();
+                return;
+            }
+            index++;
+
+            updatePrevious = args[index];
+            index++;
+
+            deltaBaseAddress = Integer.parseUnsignedInt(args[index], 16);
+            index++;
+        }
+
+        // Check if --recordLength is there
+        if (args[index].equals("--recordLength")) {
+            index++;
+
+            recordLength = Integer.parseInt(args[index]);
             index++;
+
+            if ((recordLength < 1) || (recordLength > HexRecordWriter.MAX_RECORD_LENGTH)) {
+                System.err.println(Main.printUsage());
+                System.exit(-1);
+            }
         }
 
         // Check if --compact is there
         if (args[index].equals("--toCFile")) {
+            if (toCompactSrec || (deltaPrevious != null) || (updatePrevious != null)) {
+                printUsage();
+                return;
+            }
+
             toCFile = true;
             index++;
         }
 
+        // Check if --toElf is there
+        if (args[index].equals("--toElf")) {
+            if (toCFile || toCompactSrec || (deltaPrevious != null) || (updatePrevious != null)) {
+                printUsage();
+                return;
+            }
+
+            toElf = true;
+            index++;
+        }
+
+        // Check if --cFormat is there
+        if (args[index].equals("--cFormat")) {
+            index++;
+
+            try {
+                cFormat = CArrayFormat.valueOf(args[index].toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println(Main.printUsage());
+                System.exit(-1);
+            }
+            index++;
+        }
+
         String dirName = args[index];
         index++;
         String binaryOut = args[index];
@@ -173,6 +453,53 @@ public class Main {
         Main.startingPackageName = String.join("/",
                 Arrays.copyOfRange(substrings, 0, substrings.length - 2));
 
+        boolean analyzingAllPackages = eliminatingDeadCode || preLinking || generatingInterfaceTables
+                || generatingSubtypeTables;
+
+        if (analyzingAllPackages && ((cacheDirectory != null) || watching)) {
+            // Reachable methods and resolved references depend on every package, so a package can't be reused on its own
+            System.err.println("[#] The package cache is not used when eliminating dead code or linking packages");
+        } else if (cacheDirectory != null) {
+            try {
+                packageCache = new PackageCache(cacheDirectory);
+            } catch (IOException e) {
+                System.err.println("[!] Unable to open the package cache: " + e);
+                System.exit(-1);
+            }
+        } else if (watching) {
+            try {
+                packageCache = new PackageCache();
+            } catch (IOException e) {
+                System.err.println("[!] Unable to open the package cache: " + e);
+                System.exit(-1);
+            }
+        }
+
+        if (watching) {
+            watch(dirName, binaryOut, headerOut);
+        } else {
+            generate(dirName, binaryOut, headerOut);
+        }
+    }
+
+    /**
+     * Generating the RomMask and the native functions C header from the JCA files
+     *
+     * @param dirName   directory which contains JCA files to parse
+     * @param binaryOut RomMask output file
+     * @param headerOut native functions C header output file
+     */
+    private static void generate(String dirName, String binaryOut, String headerOut) {
+        files = new ArrayList<>();
+        parsedFiles = new ArrayList<>();
+        packages = new ArrayList<>();
+        cacheKeys = new ArrayList<>();
+        cachedPackages = new ArrayList<>();
+        nativeMethodBases = new ArrayList<>();
+        startingPackageIndex = -1;
+        startingClassIndex = -1;
+        startingMethodIndex = -1;
+
         // TODO: Implement "exclude" parameters
         try {
             Files.walk(Paths.get(dirName))
@@ -184,56 +511,71 @@ public class Main {
                     });
         } catch (IOException e) {
             System.err.println("[!] IO Exception: " + e);
-            System.exit(-1);
+            abort();
         }
 
         if (files.size() == 0) {
             System.err.println("[!] No JCA file to parse ...");
-            System.exit(-1);
+            abort();
         } else {
             System.err.println("[#] " + files.size() + " JCA file to parse ...");
         }
 
-        for (String filename : files) {
-            parseJCAFile(filename);
-        }
+        loadPackages();
 
         if (Main.startingPackageIndex == -1) {
             System.err.println("[!] Starting method not found");
-            System.exit(-1);
+            abort();
         }
 
         System.out.print("[+] Checks CAP imported packages ...");
         if (!checkImport()) {
             System.out.println(" FAIL");
-            System.exit(-1);
+            abort();
         } else {
             System.out.println(" ok");
         }
 
         System.out.print("[+] Generating RomMask filesystem...");
         Filesystem fs = new Filesystem(packages);
+        fs.setLayout(Main.layout);
+        fs.setPreLinking(preLinking);
+        fs.setGeneratingInterfaceTables(generatingInterfaceTables);
+        fs.setGeneratingSubtypeTables(generatingSubtypeTables);
+        for (int idx = 0; idx < cachedPackages.size(); idx++) {
+            if (cachedPackages.get(idx) != null) {
+                fs.setCachedPackage(idx, cachedPackages.get(idx));
+            }
+        }
         try {
             fs.generating();
         } catch (UnableToWriteCapFileException e) {
             System.out.println(" FAIL");
             System.err.println("[!] Unable to convert CAP file: " + e);
-            System.exit(-1);
+            abort();
         } catch (IOException e) {
             System.out.println(" FAIL");
             System.err.println("[!] IO Exception: " + e);
-            System.exit(-1);
+            abort();
         } catch (CloneNotSupportedException e) {
             System.out.println(" FAIL");
             System.err.println("[!] CloneNotSupportedException: " + e);
-            System.exit(-1);
+            abort();
         } catch (JCAConverterException e) {
             System.out.println(" FAIL");
             System.err.println("[!] JCAConverterException: " + e);
-            System.exit(-1);
+            abort();
+        }
+        if (generatingSubtypeTables) {
+            System.out.print(" (" + fs.getSubtypeTablesSize() + " bytes of subtype tables) ");
         }
         System.out.println(" ok");
 
+        if (packageCache != null) {
+            storePackages(fs);
+            packageCache.retain(cacheKeys);
+        }
+
         /*
         System.out.print("[+] Writing CAP Files...");
         try {
@@ -246,50 +588,137 @@ public class Main {
         } catch (FileNotFoundException e) {
             System.out.println(" FAIL");
             System.err.println("[!] File not found: " + e);
-            System.exit(-1);
+            abort();
         } catch (IOException e) {
             System.out.println(" FAIL");
             System.err.println("[!] Writing error: " + e);
-            System.exit(-1);
+            abort();
         } catch (UnableToWriteCapFileException e) {
             System.out.println(" FAIL");
             System.err.println("[!] Writing error: " + e);
-            System.exit(-1);
+            abort();
         } */
         System.out.println(" ok");
 
         System.out.print("[+] Writing RomMask...");
         try {
-            FileOutputStream fout = new FileOutputStream(binaryOut);
-
             int size = 0;
-            if (Main.toCFile) {
-                PrintWriter pout = new PrintWriter(fout);
-                size = fs.writeInCFile(pout, true, true);
+            if (Main.toCFile || Main.toElf || Main.toCompactHex || Main.toCompactSrec || Main.toCompact) {
+                // Only the applet sector is written, the flash image is built in a temporary file
+                Path imagePath = Files.createTempFile("rommask", ".img");
+                FileChannel channel = FileChannel.open(imagePath, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                FlashImage image = new FlashImage(channel, fs.getLayout());
+                size = fs.buildImage(image, true, !Main.toCompact);
+
+                FileOutputStream fout = new FileOutputStream(binaryOut);
+                if (Main.toCFile) {
+                    PrintWriter pout = new PrintWriter(fout);
+                    // The raw binary file is written next to the C file
+                    String cFileName = Paths.get(binaryOut).getFileName().toString();
+                    String blobName = cFileName.contains(".")
+                            ? cFileName.substring(0, cFileName.lastIndexOf('.')) : cFileName;
+                    // A C file with the .bin extension keeps its whole name not to be overwritten
+                    if ((blobName + ".bin").equalsIgnoreCase(cFileName)) {
+                        blobName = cFileName;
+                    }
+                    Path blobPath = Paths.get(binaryOut).resolveSibling(blobName + ".bin");
+
+                    fs.writeInCFile(pout, image, Main.cFormat, blobPath);
+                    pout.close();
+                } else if (Main.toElf) {
+                    fs.writeInElfFile(fout.getChannel(), image, ElfObjectWriter.DEFAULT_SECTION_NAME);
+                } else if (Main.toCompactHex) {
+                    PrintWriter pout = new PrintWriter(fout);
+                    fs.writeInIntelHexFile(pout, image, Main.toCompactHexAdress, Main.recordLength);
+                    pout.close();
+                } else if (Main.toCompactSrec) {
+                    PrintWriter pout = new PrintWriter(fout);
+                    fs.writeInSRecordFile(pout, image, Main.toCompactHexAdress, Main.recordLength);
+                    pout.close();
+                } else {
+                    ByteBuffer data = fs.getWrittenArea(image);
+                    while (data.hasRemaining()) {
+                        fout.getChannel().write(data);
+                    }
+                }
+                fout.close();
+                channel.close();
+            } else if (Main.updatePrevious != null) {
+                // Only blocks changed since the previous mask are appended, static fields being left out as in the
+                // whole flash image
+                Path imagePath = Files.createTempFile("rommask", ".img");
+                FileChannel channel = FileChannel.open(imagePath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                FlashImage image = new FlashImage(channel, fs.getLayout());
+
+                PrintWriter pout = new PrintWriter(new FileOutputStream(binaryOut));
+                size = fs.writeUpdateBundleInIntelHexFile(pout, Paths.get(Main.updatePrevious), image, false,
+                        Main.deltaBaseAddress, Main.recordLength);
                 pout.close();
-            } else if (Main.toCompactHex) {
-                PrintWriter pout = new PrintWriter(fout);
-                size = fs.writeInIntelHexFile(pout, Main.toCompactHexAdress, true, true);
+
+                // The updated image is written next to the hex file, as the previous image of the next update
+                image.force();
+                channel.close();
+                Files.move(imagePath, Paths.get(binaryOut + ".img"), StandardCopyOption.REPLACE_EXISTING);
+            } else if (Main.deltaPrevious != null) {
+                // Only sectors changed since the previous mask are written
+                Path imagePath = Files.createTempFile("rommask", ".img");
+                FileChannel channel = FileChannel.open(imagePath, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                FlashImage image = new FlashImage(channel, fs.getLayout());
+                size = fs.buildImage(image, true, false);
+
+                FlashDelta delta = new FlashDelta(image);
+                ArrayList<FlashSector> changed = delta.getChangedSectors(Paths.get(Main.deltaPrevious));
+
+                PrintWriter pout = new PrintWriter(new FileOutputStream(binaryOut));
+                delta.writeInIntelHexFile(pout, changed, Main.deltaBaseAddress, Main.recordLength);
                 pout.close();
+
+                PrintWriter mout = new PrintWriter(new FileOutputStream(binaryOut + ".manifest"));
+                delta.writeManifest(mout);
+                mout.close();
+                channel.close();
+
+                System.out.print(" (" + changed.size() + " changed sectors)");
             } else {
-                DataOutputStream dout = new DataOutputStream(fout);
-                size = fs.writeBinary(dout, true, false, !Main.toCompact);
-                dout.close();
+                // The whole flash image is mapped from the output file
+                FileChannel channel = FileChannel.open(Paths.get(binaryOut), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                FlashImage image = new FlashImage(channel, fs.getLayout());
+                size = fs.buildImage(image, true, false);
+                image.force();
+                channel.close();
             }
-            fout.close();
-            System.out.print(" (" + size + " bytes) ");
+            System.out.print(" (" + size + " bytes in " + fs.getUsedSectors().size() + " sectors) ");
         } catch (FileNotFoundException e) {
             System.out.println(" FAIL");
             System.err.println("[!] File not found: " + e);
-            System.exit(-1);
+            abort();
         } catch (IOException e) {
             System.out.println(" FAIL");
             System.err.println("[!] Writing error: " + e);
-            System.exit(-1);
+            abort();
         }
         System.out.println(" ok");
 
-        ArrayList<JCANativeMethod> nativeMethods = MethodComponentFromJCA.getNativeMethods();
+        // The static field decoder is written next to the native functions header
+        try {
+            Path decoderOut = Paths.get(headerOut).resolveSibling("jc_static_field_decoder.hpp");
+            PrintWriter dout = new PrintWriter(new FileOutputStream(decoderOut.toFile()));
+
+            new JCStaticFieldDecoder(fs.getEncodedFieldType()).writeCHeader(dout);
+
+            dout.close();
+        } catch (FileNotFoundException e) {
+            System.err.println("[!] File not found: " + e);
+            abort();
+        }
+
+        ArrayList<JCANativeMethod> nativeMethods = new ArrayList<>();
+        for (int idx = 0; idx < packages.size(); idx++) {
+            nativeMethods.addAll(getPackageNativeMethods(idx));
+        }
         if (!nativeMethods.isEmpty()) {
             System.out.println("[#] " + nativeMethods.size() + " native methods must be implemented");
             /*
@@ -313,13 +742,98 @@ public class Main {
             } catch (FileNotFoundException e) {
                 System.out.println(" FAIL");
                 System.err.println("[!] File not found: " + e);
-                System.exit(-1);
+                abort();
             } catch (IOException e) {
                 System.out.println(" FAIL");
                 System.err.println("[!] Writing error: " + e);
-                System.exit(-1);
+                abort();
+            }
+        }
+    }
+
+    /**
+     * Watching the JCA files directory and generating the outputs on each change. Converted packages are kept in
+     * memory, so only the changed packages are converted again.
+     *
+     * @param dirName   directory which contains JCA files to parse
+     * @param binaryOut RomMask output file
+     * @param headerOut native functions C header output file
+     */
+    private static void watch(String dirName, String binaryOut, String headerOut) {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            registerDirectories(watcher, Paths.get(dirName));
+
+            boolean changed = true;
+            while (true) {
+                if (changed) {
+                    long start = System.currentTimeMillis();
+                    try {
+                        generate(dirName, binaryOut, headerOut);
+                        System.err.println("[#] Generated in " + (System.currentTimeMillis() - start) + " ms");
+                    } catch (GenerationAbortedException e) {
+                        System.err.println("[!] Generation failed");
+                    }
+                    System.err.println("[#] Watching " + dirName + " ...");
+                }
+
+                WatchKey key = watcher.take();
+                changed = false;
+
+                // A file is often written in several steps, waiting for the last one
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            changed = true;
+                            continue;
+                        }
+
+                        Path path = ((Path) key.watchable()).resolve((Path) event.context());
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                            registerDirectories(watcher, path);
+                            changed = true;
+                        } else if (path.toString().endsWith("jca")) {
+                            changed = true;
+                        }
+                    }
+                    key.reset();
+
+                    key = watcher.poll(WATCH_DELAY, TimeUnit.MILLISECONDS);
+                }
             }
+        } catch (IOException e) {
+            System.err.println("[!] IO Exception: " + e);
+            System.exit(-1);
+        } catch (InterruptedException e) {
+            System.err.println("[!] Watching interrupted: " + e);
+        }
+    }
+
+    /**
+     * Registering a directory and its sub-directories to a watch service
+     *
+     * @param watcher   watch service
+     * @param directory directory to watch
+     * @throws IOException Unable to watch the directory
+     */
+    private static void registerDirectories(WatchService watcher, Path directory) throws IOException {
+        ArrayList<Path> directories = new ArrayList<>();
+        Files.walk(directory).filter(Files::isDirectory).forEach(directories::add);
+
+        for (Path path : directories) {
+            path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+    }
+
+    /**
+     * Stopping the generation. The program exits, except in watch mode where the next change is waited.
+     */
+    private static void abort() {
+        if (!watching) {
+            System.exit(-1);
         }
+
+        throw new GenerationAbortedException();
     }
 
     /**
@@ -330,16 +844,48 @@ public class Main {
     public static String printUsage() {
         StringBuilder out = new StringBuilder();
 
-        out.append("Usage: java -jar target/rommask-1.0-jar-with-dependencies.jar [--compact|--toCfile] <directory which contains jca files to parse> <bin> <C header> <Starting Java Card method>");
+        out.append("Usage: java -jar target/rommask-1.0-jar-with-dependencies.jar [--jobs N] [--watch] [--cache DIR] [--optimize] [--eliminateDeadCode] [--preLink] [--interfaceTables] [--subtypeTables] [--layout FILE] [--compact|--compactHex ADDRESS|--compactSrec ADDRESS] [--delta PREVIOUS ADDRESS|--update PREVIOUS ADDRESS] [--recordLength N] [--toCfile [--cFormat array|string|incbin]|--toElf] <directory which contains jca files to parse> <bin> <C header> <Starting Java Card method>");
 
         out.append("\n\n");
+        out.append("  --jobs N: Parse and convert N JCA files concurrently (default: 1).\n");
+        out.append("  --watch: Keep running and generate again the outputs each time a JCA file changes.\n");
+        out.append("  --cache DIR: Store converted packages in DIR and reuse them while their JCA file is unchanged.\n");
+        out.append("  --optimize: Rewrite the method bytecodes into their shorter Java Card forms (sload_0, getfield_s_this, sinc...) and compact the constant pools.\n");
+        out.append("  --eliminateDeadCode: Replace by stubs the methods unreachable from the starting method and the applets.\n");
+        out.append("                       The package cache is not used since every package is analyzed.\n");
+        out.append("  --preLink: Write with each package a pre-linked constant pool, whose references are resolved to the package\n");
+        out.append("             indexes, class offsets and method offsets of the image. The package cache is not used.\n");
+        out.append("  --interfaceTables: Write with each package the interface dispatch tables of its classes, giving the method\n");
+        out.append("                     offset of each interface method token. The package cache is not used.\n");
+        out.append("  --subtypeTables: Write with each package the super types of its classes as bitsets of type identifiers,\n");
+        out.append("                   to check casts without walking the class hierarchy. The package cache is not used.\n");
+        out.append("  --layout FILE: Read the flash sectors and their role from FILE (default: STM32 layout).\n");
+        out.append("                 Each line is either 'erased VALUE' or 'sector ADDRESS SIZE reserved|apps|static|defrag'.\n");
         out.append("  --compact: Compute only the sector where data will be there and write as a binary file.\n");
         out.append("  --compactHex ADDRESS: Compute only the sector where data will be there and write as an intel hex file.\n");
         out.append("                        The address, must be encoded in hexadecimal, set the begin address of the data to write.\n");
+        out.append("  --compactSrec ADDRESS: Compute only the sector where data will be there and write as a Motorola S-record (S3) file.\n");
+        out.append("                         The address, must be encoded in hexadecimal, set the begin address of the data to write.\n");
+        out.append("  --delta PREVIOUS ADDRESS: Write only the sectors changed since PREVIOUS as a sparse intel hex file.\n");
+        out.append("                            PREVIOUS is the previous binary file or its sector manifest, written next to\n");
+        out.append("                            the hex file with the .manifest extension. The address, must be encoded in\n");
+        out.append("                            hexadecimal, set the address where the flash begins.\n");
+        out.append("  --update PREVIOUS ADDRESS: Write as an intel hex file the blocks of packages changed since\n");
+        out.append("                             the PREVIOUS binary file, to append after its filesystem. The address,\n");
+        out.append("                             must be encoded in hexadecimal, set the address where the flash begins.\n");
+        out.append("                             The updated binary file is written next to the hex file with the .img\n");
+        out.append("                             extension.\n");
+        out.append("  --recordLength N: Write N data bytes per Intel hex or S-record record (default: 16).\n");
         out.append("  --toCFile: Generate de C file with the sector to initialize.\n");
+        out.append("  --cFormat FORMAT: Shape of the C file data: 'array' initializer list (default), 'string' literal\n");
+        out.append("                   or 'incbin' assembler stub including a raw binary file written next to the C file\n");
+        out.append("                   with the .bin extension, and defining the flash_init_size symbol.\n");
+        out.append("  --toElf: Generate an ARM ELF relocatable object with the sector to initialize in the .jcvm_flash section,\n");
+        out.append("           defining the flash_init and flash_init_size symbols.\n");
         out.append("  out: C/C++ file where the parsed JCA files will be stored as a C-array.\n");
         out.append("  bin: Parsed JCA files will be stored in a binary file.\n");
         out.append("  C header: C header file to implement Java Card native functions.\n");
+        out.append("            The static field decoder is written next to it in jc_static_field_decoder.hpp.\n");
         out.append("  Starting Java Card method: The first Java Card method run when the JCVM starts.\n");
         out.append("                             This value should be as com.package.Class.method.\n");
 
@@ -350,85 +896,317 @@ public class Main {
      * Parsing a JCA file
      *
      * @param filename path to the JCA file to parse
+     * @return parsed JCA file
+     */
+    private static JCAFile parseJCAFile(String filename) {
+        JCAFile jcaFile = null;
+
+        try {
+            jcaFile = JCAParser.parseFile(filename);
+        } catch (ParseException pe) {
+            System.err.println("[!] Parsing error: " + pe);
+            abort();
+        } catch (FileNotFoundException fe) {
+            System.err.println("[!] The file " + filename + " does not exist.");
+            abort();
+        }
+
+        return jcaFile;
+    }
+
+    /**
+     * Converting a parsed JCA file to a CAP file
+     *
+     * @param jcaFile          parsed JCA file to convert
+     * @param nativeMethodBase number of the first native method defined in the JCA file
+     * @return converted CAP file
      */
-    private static void parseJCAFile(String filename) {
+    private static CapFile convertJCAFile(JCAFile jcaFile, short nativeMethodBase) {
+        CapFile cap = null;
+
         try {
-            JCAFile jcaFile = JCAParser.parseFile(filename);
-            parsedFiles.add(jcaFile);
+            cap = JCAConverter.converter(jcaFile, nativeMethodBase, optimizing);
+        } catch (ParseException pe) {
+            System.err.println("[!] Parsing error: " + pe);
+            abort();
+        } catch (JCAConverterException e) {
+            System.err.println("[!] Conversion error: " + e);
+            abort();
+        } catch (UnableToReadCapFileException e) {
+            System.err.println("[!] Reading error: " + e);
+            abort();
+        }
 
-            CapFile cap = JCAConverter.converter(jcaFile);
+        return cap;
+    }
 
-            // Looking for the triplet (starting package, starting class, starting method)
-            if (jcaFile.getName().equals(Main.startingPackageName)) {
-                Main.startingPackageIndex = (short) (Main.parsedFiles.size() - 1);
+    /**
+     * Loading packages from the JCA files. Unchanged packages are taken from the package cache, the other ones are
+     * parsed and converted concurrently.
+     */
+    private static void loadPackages() {
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        ArrayList<CapFile> caps = new ArrayList<>();
 
-                // Looking for the class index
-                for (short idx = 0; idx < jcaFile.getClaz().getClasses().size(); idx++) {
-                    JCAObject object = jcaFile.getClaz().getClasses().get(idx);
+        try {
+            // Looking for packages converted during a previous run
+            ArrayList<Future<String>> hashing = new ArrayList<>();
+            for (String filename : files) {
+                hashing.add(executor.submit(() -> computeCacheKey(filename)));
+            }
+            ArrayList<Future<CachedPackage>> loading = new ArrayList<>();
+            for (Future<String> key : hashing) {
+                String cacheKey = key.get();
+                cacheKeys.add(cacheKey);
+                loading.add(executor.submit(() -> (cacheKey == null) ? null : packageCache.load(cacheKey)));
+            }
+            for (Future<CachedPackage> cachedPackage : loading) {
+                cachedPackages.add(cachedPackage.get());
+                parsedFiles.add(null);
+                caps.add(null);
+            }
 
-                    if (object instanceof JCAInterface) {
-                        continue;
-                    }
+            parseJCAFiles(executor);
 
-                    JCAClass claz = (JCAClass) object;
+            // Native methods are numbered following the JCA files order, whatever the conversion order is
+            short nativeMethodBase = 0;
+            for (int idx = 0; idx < files.size(); idx++) {
+                CachedPackage cachedPackage = cachedPackages.get(idx);
+                nativeMethodBases.add(nativeMethodBase);
 
-                    if (claz.getName().equals(Main.startingClassName)) {
-                        Main.startingClassIndex = idx;
-                        break;
-                    }
+                if (cachedPackage == null) {
+                    nativeMethodBase += MethodComponentFromJCA.countNativeMethods(parsedFiles.get(idx));
+                    continue;
                 }
 
-                if (Main.startingClassIndex == -1) {
-                    System.err.println("[!] Starting class not found");
-                    System.exit(-1);
+                nativeMethodBase += cachedPackage.getNativeMethods().size();
+
+                // Native method numbers are written in the cached CAP file
+                if (cachedPackage.getNativeMethodBase() != nativeMethodBases.get(idx)) {
+                    cachedPackages.set(idx, null);
                 }
+            }
 
-                // Looking for the method index
-                short static_methods = 0;
-                for (short idx = 0; idx <
-                        jcaFile.getClaz().getClasses().get(Main.startingClassIndex).getMethods().size(); idx++) {
-                    JCAClassMethod method =
-                            jcaFile.getClaz().getClasses().get(Main.startingClassIndex).getMethods().get(idx);
-
-                    if (method.getMethodSignature().getName().equals(Main.startingClassName + "/" + Main.startingMethodName)) {
-                        // NOTE: TODO
-                        Main.startingMethodIndex = static_methods;
-                        break;
-                    }
+            parseJCAFiles(executor);
 
-                    if (method.isStatic()) {
-                        static_methods++;
-                    }
+            if (eliminatingDeadCode) {
+                eliminateDeadCode();
+            }
+
+            Map<Integer, Future<CapFile>> converting = new TreeMap<>();
+            for (int idx = 0; idx < files.size(); idx++) {
+                if (cachedPackages.get(idx) == null) {
+                    JCAFile jcaFile = parsedFiles.get(idx);
+                    short base = nativeMethodBases.get(idx);
+                    converting.put(idx, executor.submit(() -> convertJCAFile(jcaFile, base)));
+                }
+            }
+            for (Map.Entry<Integer, Future<CapFile>> cap : converting.entrySet()) {
+                caps.set(cap.getKey(), cap.getValue().get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("[!] Converting error: " + e);
+            abort();
+        } finally {
+            executor.shutdown();
+        }
+
+        if (packageCache != null) {
+            System.err.println("[#] " + cachedPackages.stream().filter(x -> x != null).count()
+                    + " packages loaded from the package cache");
+        }
+
+        for (int idx = 0; idx < files.size(); idx++) {
+            registerPackage(idx, caps.get(idx));
+        }
+    }
+
+    /**
+     * Replacing by stubs the methods which are unreachable from the starting method and the applets
+     */
+    private static void eliminateDeadCode() {
+        DeadCodeEliminator eliminator = new DeadCodeEliminator(parsedFiles);
+
+        eliminator.addRoot(Main.startingPackageName, Main.startingClassName, Main.startingMethodName);
+        eliminator.addApplets();
+        eliminator.computeReachableMethods();
+
+        int stubbed = eliminator.eliminate();
+        System.err.println("[#] " + eliminator.getReachableMethodsCount() + " reachable methods, "
+                + stubbed + " unreachable methods replaced by stubs");
+    }
+
+    /**
+     * Parsing concurrently the JCA files which are neither parsed nor loaded from the package cache
+     *
+     * @param executor executor used to parse JCA files
+     * @throws InterruptedException Parsing interrupted
+     * @throws ExecutionException   Parsing error
+     */
+    private static void parseJCAFiles(ExecutorService executor) throws InterruptedException, ExecutionException {
+        Map<Integer, Future<JCAFile>> parsing = new TreeMap<>();
+
+        for (int idx = 0; idx < files.size(); idx++) {
+            if (cachedPackages.get(idx) == null && parsedFiles.get(idx) == null) {
+                String filename = files.get(idx);
+                parsing.put(idx, executor.submit(() -> parseJCAFile(filename)));
+            }
+        }
+
+        for (Map.Entry<Integer, Future<JCAFile>> jcaFile : parsing.entrySet()) {
+            parsedFiles.set(jcaFile.getKey(), jcaFile.getValue().get());
+        }
+    }
+
+    /**
+     * Computing the package cache key of a JCA file
+     *
+     * @param filename path to the JCA file
+     * @return package cache key, <code>null</code> if the package cache is not used
+     */
+    private static String computeCacheKey(String filename) {
+        if (packageCache == null) {
+            return null;
+        }
+
+        try {
+            return packageCache.computeKey(filename, optimizing ? "optimize" : "");
+        } catch (IOException e) {
+            System.err.println("[!] The file " + filename + " cannot be read: " + e);
+            abort();
+        }
+
+        return null;
+    }
+
+    /**
+     * Adding a package to the packages pool. Packages must be added in the JCA files order.
+     *
+     * @param index index of the package JCA file
+     * @param cap   CAP file converted from the JCA file, <code>null</code> if the package is loaded from the cache
+     */
+    private static void registerPackage(int index, CapFile cap) {
+        JCAFile jcaFile = parsedFiles.get(index);
+        CachedPackage cachedPackage = cachedPackages.get(index);
+        String name = (cachedPackage != null) ? cachedPackage.getName() : jcaFile.getName();
+
+        // Looking for the triplet (starting package, starting class, starting method)
+        if (name.equals(Main.startingPackageName)) {
+            Main.startingPackageIndex = (short) Main.packages.size();
+
+            // A cached starting package is only parsed to look for the starting method
+            if (jcaFile == null) {
+                jcaFile = parseJCAFile(files.get(index));
+            }
+
+            // Looking for the class index
+            JCASymbolIndex symbols = jcaFile.getSymbolIndex();
+            if (symbols.getObject(Main.startingClassName) instanceof JCAClass) {
+                Main.startingClassIndex = symbols.getClassIndex(Main.startingClassName);
+            }
+
+            if (Main.startingClassIndex == -1) {
+                System.err.println("[!] Starting class not found");
+                abort();
+            }
+
+            // Looking for the method index
+            short static_methods = 0;
+            for (short idx = 0; idx <
+                    jcaFile.getClaz().getClasses().get(Main.startingClassIndex).getMethods().size(); idx++) {
+                JCAClassMethod method =
+                        jcaFile.getClaz().getClasses().get(Main.startingClassIndex).getMethods().get(idx);
+
+                if (method.getMethodSignature().getName().equals(Main.startingClassName + "/" + Main.startingMethodName)) {
+                    // NOTE: TODO
+                    Main.startingMethodIndex = static_methods;
+                    break;
                 }
 
-                if (Main.startingMethodIndex == -1) {
-                    System.err.println("[!] Starting method not found");
-                    System.exit(-1);
+                if (method.isStatic()) {
+                    static_methods++;
                 }
+            }
 
+            if (Main.startingMethodIndex == -1) {
+                System.err.println("[!] Starting method not found");
+                abort();
             }
 
-            PackageInfo packageInfo = new PackageInfo();
+        }
+
+        PackageInfo packageInfo;
+        if (cachedPackage != null) {
+            packageInfo = cachedPackage.getPackageInfo();
+        } else {
+            packageInfo = new PackageInfo();
             packageInfo.setAID(cap.getHeaderComponent().getThePackage().getAID());
             packageInfo.setAIDLength((byte) cap.getHeaderComponent().getThePackage().getAID().size());
             packageInfo.setMajorVersion(cap.getHeaderComponent().getThePackage().getMajorVersion());
             packageInfo.setMinorVersion(cap.getHeaderComponent().getThePackage().getMinorVersion());
+        }
 
-            Triplet<String, PackageInfo, CapFile> data = new Triplet<>(jcaFile.getName(), packageInfo, cap);
-            packages.add(data);
+        Triplet<String, PackageInfo, CapFile> data = new Triplet<>(name, packageInfo, cap);
+        packages.add(data);
+    }
 
-        } catch (ParseException pe) {
-            System.err.println("[!] Parsing error: " + pe);
-            System.exit(-1);
-        } catch (FileNotFoundException fe) {
-            System.err.println("[!] The file " + filename + " does not exist.");
-            System.exit(-1);
-        } catch (JCAConverterException e) {
-            System.err.println("[!] Conversion error: " + e);
-            System.exit(-1);
-        } catch (UnableToReadCapFileException e) {
-            System.err.println("[!] Reading error: " + e);
-            System.exit(-1);
+    /**
+     * Gets the packages imported by a package
+     *
+     * @param index package index
+     * @return packages imported by the package
+     */
+    private static ArrayList<PackageInfo> getImportedPackages(int index) {
+        if (cachedPackages.get(index) != null) {
+            return cachedPackages.get(index).getImportedPackages();
+        }
+
+        ArrayList<PackageInfo> importedPackages = new ArrayList<>();
+        ImportComponent importComponent = packages.get(index).getThird().getImportComponent();
+
+        if (importComponent != null) {
+            importedPackages.addAll(importComponent.getPackages());
+        }
+
+        return importedPackages;
+    }
+
+    /**
+     * Gets the native methods defined in a package
+     *
+     * @param index package index
+     * @return native methods defined in the package
+     */
+    private static ArrayList<JCANativeMethod> getPackageNativeMethods(int index) {
+        if (cachedPackages.get(index) != null) {
+            return cachedPackages.get(index).getNativeMethods();
+        }
+
+        return ((MethodComponentFromJCA) packages.get(index).getThird().getMethodComponent()).getNativeMethods();
+    }
+
+    /**
+     * Storing the converted packages in the package cache
+     *
+     * @param fs generated filesystem
+     */
+    private static void storePackages(Filesystem fs) {
+        for (int idx = 0; idx < packages.size(); idx++) {
+            if (cachedPackages.get(idx) != null) {
+                continue;
+            }
+
+            Triplet<String, PackageInfo, CapFile> entry = packages.get(idx);
+            CachedPackage cachedPackage = new CachedPackage(entry.getFirst(), entry.getSecond(),
+                    getImportedPackages(idx), nativeMethodBases.get(idx), getPackageNativeMethods(idx),
+                    fs.getFlashPackage(idx), fs.getFlashStaticFields(idx));
+
+            try {
+                packageCache.store(cacheKeys.get(idx), cachedPackage);
+            } catch (IOException e) {
+                // The package will be converted again during the next run
+                System.err.println("[!] Unable to store " + entry.getFirst() + " in the package cache: " + e);
+            }
         }
     }
 
@@ -439,14 +1217,8 @@ public class Main {
      */
     private static boolean checkImport() {
         boolean allPackagesFound = true;
-        for (Triplet<String, PackageInfo, CapFile> entry : packages) {
-            ImportComponent importComponent = entry.getThird().getImportComponent();
-
-            if (importComponent == null) {
-                continue;
-            }
-
-            for (PackageInfo packageInfo : importComponent.getPackages()) {
+        for (int idx = 0; idx < packages.size(); idx++) {
+            for (PackageInfo packageInfo : getImportedPackages(idx)) {
 
                 if (packages.stream().anyMatch(x -> x.getSecond().equals(packageInfo)) == false) {
                     allPackagesFound = false;
@@ -81,7 +81,7 @@ public enum Bytecode {
     /**
      * ANEWARRAY bytecode opcode value
      */
-    ANEWARRAY((byte) 0x91),
+    ANEWARRAY((byte) 0x91, Relocation.BYTE2_INDEX),
 
     /**
      * ARETURN bytecode opcode value
@@ -136,7 +136,7 @@ public enum Bytecode {
     /**
      * BIPUSH bytecode opcode value
      */
-    BIPUSH((byte) 0x12),
+    BIPUSH((byte) 0x12, true),
 
     /**
      * BSPUSH bytecode opcode value
@@ -146,7 +146,7 @@ public enum Bytecode {
     /**
      * CHECKCAST bytecode opcode value
      */
-    CHECKCAST((byte) 0x94),
+    CHECKCAST((byte) 0x94, Relocation.BYTE2_INDEX, 2),
 
     /**
      * DUP bytecode opcode value
@@ -166,82 +166,82 @@ public enum Bytecode {
     /**
      * GETFIELD_A bytecode opcode value
      */
-    GETFIELD_A((byte) 0x83),
+    GETFIELD_A((byte) 0x83, Relocation.BYTE_INDEX),
 
     /**
      * GETFIELD_B bytecode opcode value
      */
-    GETFIELD_B((byte) 0x84),
+    GETFIELD_B((byte) 0x84, Relocation.BYTE_INDEX),
 
     /**
      * GETFIELD_S bytecode opcode value
      */
-    GETFIELD_S((byte) 0x85),
+    GETFIELD_S((byte) 0x85, Relocation.BYTE_INDEX),
 
     /**
      * GETFIELD_I bytecode opcode value
      */
-    GETFIELD_I((byte) 0x86),
+    GETFIELD_I((byte) 0x86, true, Relocation.BYTE_INDEX),
 
     /**
      * GETFIELD_A_THIS bytecode opcode value
      */
-    GETFIELD_A_THIS((byte) 0xad),
+    GETFIELD_A_THIS((byte) 0xad, Relocation.BYTE_INDEX),
 
     /**
      * GETFIELD_B_THIS bytecode opcode value
      */
-    GETFIELD_B_THIS((byte) 0xae),
+    GETFIELD_B_THIS((byte) 0xae, Relocation.BYTE_INDEX),
 
     /**
      * GETFIELD_S_THIS bytecode opcode value
      */
-    GETFIELD_S_THIS((byte) 0xaf),
+    GETFIELD_S_THIS((byte) 0xaf, Relocation.BYTE_INDEX),
 
     /**
      * GETFIELD_I_THIS bytecode opcode value
      */
-    GETFIELD_I_THIS((byte) 0xb0),
+    GETFIELD_I_THIS((byte) 0xb0, true, Relocation.BYTE_INDEX),
 
     /**
      * GETFIELD_A_W bytecode opcode value
      */
-    GETFIELD_A_W((byte) 0xa9),
+    GETFIELD_A_W((byte) 0xa9, Relocation.BYTE2_INDEX),
 
     /**
      * GETFIELD_B_W bytecode opcode value
      */
-    GETFIELD_B_W((byte) 0xaa),
+    GETFIELD_B_W((byte) 0xaa, Relocation.BYTE2_INDEX),
 
     /**
      * GETFIELD_S_W bytecode opcode value
      */
-    GETFIELD_S_W((byte) 0xab),
+    GETFIELD_S_W((byte) 0xab, Relocation.BYTE2_INDEX),
 
     /**
      * GETFIELD_I_W bytecode opcode value
      */
-    GETFIELD_I_W((byte) 0xac),
+    GETFIELD_I_W((byte) 0xac, true, Relocation.BYTE2_INDEX),
 
     /**
      * GETSTATIC_A bytecode opcode value
      */
-    GETSTATIC_A((byte) 0x7b),
+    GETSTATIC_A((byte) 0x7b, Relocation.BYTE2_INDEX),
 
     /**
      * GETSTATIC_B bytecode opcode value
      */
-    GETSTATIC_B((byte) 0x7c),
+    GETSTATIC_B((byte) 0x7c, Relocation.BYTE2_INDEX),
 
     /**
      * GETSTATIC_S bytecode opcode value
      */
-    GETSTATIC_S((byte) 0x7d),
+    GETSTATIC_S((byte) 0x7d, Relocation.BYTE2_INDEX),
 
     /**
      * GETSTATIC_I bytecode opcode value
      */
-    GETSTATIC_I((byte) 0x7e),
+    GETSTATIC_I((byte) 0x7e, true, Relocation.BYTE2_INDEX),
 
     /**
      * GOTO bytecode opcode value
@@ -256,77 +256,77 @@ public enum Bytecode {
     /**
      * I2B bytecode opcode value
      */
-    I2B((byte) 0x5d),
+    I2B((byte) 0x5d, true),
 
     /**
      * I2S bytecode opcode value
      */
-    I2S((byte) 0x5e),
+    I2S((byte) 0x5e, true),
 
     /**
      * IADD bytecode opcode value
      */
-    IADD((byte) 0x42),
+    IADD((byte) 0x42, true),
 
     /**
      * IALOAD bytecode opcode value
      */
-    IALOAD((byte) 0x27),
+    IALOAD((byte) 0x27, true),
 
     /**
      * IAND bytecode opcode value
      */
-    IAND((byte) 0x54),
+    IAND((byte) 0x54, true),
 
     /**
      * IASTORE bytecode opcode value
      */
-    IASTORE((byte) 0x3a),
+    IASTORE((byte) 0x3a, true),
 
     /**
      * ICMP bytecode opcode value
      */
-    ICMP((byte) 0x5f),
+    ICMP((byte) 0x5f, true),
 
     /**
      * ICONST_M1 bytecode opcode value
      */
-    ICONST_M1((byte) 0x09),
+    ICONST_M1((byte) 0x09, true),
 
     /**
      * ICONST_0 bytecode opcode value
      */
-    ICONST_0((byte) 0x0a),
+    ICONST_0((byte) 0x0a, true),
 
     /**
      * ICONST_1 bytecode opcode value
      */
-    ICONST_1((byte) 0x0b),
+    ICONST_1((byte) 0x0b, true),
 
     /**
      * ICONST_2 bytecode opcode value
      */
-    ICONST_2((byte) 0x0c),
+    ICONST_2((byte) 0x0c, true),
 
     /**
      * ICONST_3 bytecode opcode value
      */
-    ICONST_3((byte) 0x0d),
+    ICONST_3((byte) 0x0d, true),
 
     /**
      * ICONST_4 bytecode opcode value
      */
-    ICONST_4((byte) 0x0e),
+    ICONST_4((byte) 0x0e, true),
 
     /**
      * ICONST_5 bytecode opcode value
      */
-    ICONST_5((byte) 0x0f),
+    ICONST_5((byte) 0x0f, true),
 
     /**
      * IDIV bytecode opcode value
      */
-    IDIV((byte) 0x48),
+    IDIV((byte) 0x48, true),
 
     /**
      * IF_ACMPEQ bytecode opcode value
@@ -491,152 +491,152 @@ public enum Bytecode {
     /**
      * IINC bytecode opcode value
      */
-    IINC((byte) 0x5a),
+    IINC((byte) 0x5a, true),
 
     /**
      * IINC_W bytecode opcode value
      */
-    IINC_W((byte) 0x97),
+    IINC_W((byte) 0x97, true),
 
     /**
      * IIPUSH bytecode opcode value
      */
-    IIPUSH((byte) 0x14),
+    IIPUSH((byte) 0x14, true),
 
     /**
      * ILOAD bytecode opcode value
      */
-    ILOAD((byte) 0x17),
+    ILOAD((byte) 0x17, true),
 
     /**
      * ILOAD_0 bytecode opcode value
      */
-    ILOAD_0((byte) 0x20),
+    ILOAD_0((byte) 0x20, true),
 
     /**
      * ILOAD_1 bytecode opcode value
      */
-    ILOAD_1((byte) 0x21),
+    ILOAD_1((byte) 0x21, true),
 
     /**
      * ILOAD_2 bytecode opcode value
      */
-    ILOAD_2((byte) 0x22),
+    ILOAD_2((byte) 0x22, true),
 
     /**
      * ILOAD_3 bytecode opcode value
      */
-    ILOAD_3((byte) 0x23),
+    ILOAD_3((byte) 0x23, true),
 
     /**
      * ILOOKUPSWITCH bytecode opcode value
      */
-    ILOOKUPSWITCH((byte) 0x76),
+    ILOOKUPSWITCH((byte) 0x76, true),
 
     /**
      * INEG bytecode opcode value
      */
-    INEG((byte) 0x4c),
+    INEG((byte) 0x4c, true),
 
     /**
      * INSTANCEOF bytecode opcode value
      */
-    INSTANCEOF((byte) 0x95),
+    INSTANCEOF((byte) 0x95, Relocation.BYTE2_INDEX, 2),
 
     /**
      * INVOKEINTERFACE bytecode opcode value
      */
-    INVOKEINTERFACE((byte) 0x8e),
+    INVOKEINTERFACE((byte) 0x8e, Relocation.BYTE2_INDEX, 2),
 
     /**
      * INVOKESPECIAL bytecode opcode value
      */
-    INVOKESPECIAL((byte) 0x8c),
+    INVOKESPECIAL((byte) 0x8c, Relocation.BYTE2_INDEX),
 
     /**
      * INVOKESTATIC bytecode opcode value
      */
-    INVOKESTATIC((byte) 0x8d),
+    INVOKESTATIC((byte) 0x8d, Relocation.BYTE2_INDEX),
 
     /**
      * INVOKEVIRTUAL bytecode opcode value
      */
-    INVOKEVIRTUAL((byte) 0x8b),
+    INVOKEVIRTUAL((byte) 0x8b, Relocation.BYTE2_INDEX),
 
     /**
      * IOR bytecode opcode value
      */
-    IOR((byte) 0x56),
+    IOR((byte) 0x56, true),
 
     /**
      * IREM bytecode opcode value
      */
-    IREM((byte) 0x4a),
+    IREM((byte) 0x4a, true),
 
     /**
      * IRETURN bytecode opcode value
      */
-    IRETURN((byte) 0x79),
+    IRETURN((byte) 0x79, true),
 
     /**
      * ISHL bytecode opcode value
      */
-    ISHL((byte) 0x4e),
+    ISHL((byte) 0x4e, true),
 
     /**
      * IMUL bytecode opcode value
      */
-    IMUL((byte) 0x46),
+    IMUL((byte) 0x46, true),
 
     /**
      * ISHR bytecode opcode value
      */
-    ISHR((byte) 0x50),
+    ISHR((byte) 0x50, true),
 
     /**
      * ISTORE bytecode opcode value
      */
-    ISTORE((byte) 0x2a),
+    ISTORE((byte) 0x2a, true),
 
     /**
      * ISTORE_0 bytecode opcode value
      */
-    ISTORE_0((byte) 0x33),
+    ISTORE_0((byte) 0x33, true),
 
     /**
      * ISTORE_1 bytecode opcode value
      */
-    ISTORE_1((byte) 0x34),
+    ISTORE_1((byte) 0x34, true),
 
     /**
      * ISTORE_2 bytecode opcode value
      */
-    ISTORE_2((byte) 0x35),
+    ISTORE_2((byte) 0x35, true),
 
     /**
      * ISTORE_3 bytecode opcode value
      */
-    ISTORE_3((byte) 0x36),
+    ISTORE_3((byte) 0x36, true),
 
     /**
      * ISUB bytecode opcode value
      */
-    ISUB((byte) 0x44),
+    ISUB((byte) 0x44, true),
 
     /**
      * ITABLESWITCH bytecode opcode value
      */
-    ITABLESWITCH((byte) 0x74),
+    ITABLESWITCH((byte) 0x74, true),
 
     /**
      * IUSHR bytecode opcode value
      */
-    IUSHR((byte) 0x52),
+    IUSHR((byte) 0x52, true),
 
     /**
      * IXOR bytecode opcode value
      */
-    IXOR((byte) 0x58),
+    IXOR((byte) 0x58, true),
 
     /**
      * JSR bytecode opcode value
@@ -646,7 +646,7 @@ public enum Bytecode {
     /**
      * NEW bytecode opcode value
      */
-    NEW((byte) 0x8f),
+    NEW((byte) 0x8f, Relocation.BYTE2_INDEX),
 
     /**
      * NEWARRAY bytecode opcode value
@@ -666,82 +666,82 @@ public enum Bytecode {
     /**
      * PUTFIELD_A bytecode opcode value
      */
-    PUTFIELD_A((byte) 0x87),
+    PUTFIELD_A((byte) 0x87, Relocation.BYTE_INDEX),
 
     /**
      * PUTFIELD_B bytecode opcode value
      */
-    PUTFIELD_B((byte) 0x88),
+    PUTFIELD_B((byte) 0x88, Relocation.BYTE_INDEX),
 
     /**
      * PUTFIELD_S bytecode opcode value
      */
-    PUTFIELD_S((byte) 0x89),
+    PUTFIELD_S((byte) 0x89, Relocation.BYTE_INDEX),
 
     /**
      * PUTFIELD_I bytecode opcode value
      */
-    PUTFIELD_I((byte) 0x8a),
+    PUTFIELD_I((byte) 0x8a, true, Relocation.BYTE_INDEX),
 
     /**
      * PUTFIELD_A_THIS bytecode opcode value
      */
-    PUTFIELD_A_THIS((byte) 0xb5),
+    PUTFIELD_A_THIS((byte) 0xb5, Relocation.BYTE_INDEX),
 
     /**
      * PUTFIELD_B_THIS bytecode opcode value
      */
-    PUTFIELD_B_THIS((byte) 0xb6),
+    PUTFIELD_B_THIS((byte) 0xb6, Relocation.BYTE_INDEX),
 
     /**
      * PUTFIELD_S_THIS bytecode opcode value
      */
-    PUTFIELD_S_THIS((byte) 0xb7),
+    PUTFIELD_S_THIS((byte) 0xb7, Relocation.BYTE_INDEX),
 
     /**
      * PUTFIELD_I_THIS bytecode opcode value
      */
-    PUTFIELD_I_THIS((byte) 0xb8),
+    PUTFIELD_I_THIS((byte) 0xb8, true, Relocation.BYTE_INDEX),
 
     /**
      * PUTFIELD_A_W bytecode opcode value
      */
-    PUTFIELD_A_W((byte) 0xb1),
+    PUTFIELD_A_W((byte) 0xb1, Relocation.BYTE2_INDEX),
 
     /**
      * PUTFIELD_B_W bytecode opcode value
      */
-    PUTFIELD_B_W((byte) 0xb2),
+    PUTFIELD_B_W((byte) 0xb2, Relocation.BYTE2_INDEX),
 
     /**
      * PUTFIELD_S_W bytecode opcode value
      */
-    PUTFIELD_S_W((byte) 0xb3),
+    PUTFIELD_S_W((byte) 0xb3, Relocation.BYTE2_INDEX),
 
     /**
      * PUTFIELD_I_W bytecode opcode value
      */
-    PUTFIELD_I_W((byte) 0xb4),
+    PUTFIELD_I_W((byte) 0xb4, true, Relocation.BYTE2_INDEX),
 
     /**
      * PUTSTATIC_A bytecode opcode value
      */
-    PUTSTATIC_A((byte) 0x7f),
+    PUTSTATIC_A((byte) 0x7f, Relocation.BYTE2_INDEX),
 
     /**
      * PUTSTATIC_B bytecode opcode value
      */
-    PUTSTATIC_B((byte) 0x80),
+    PUTSTATIC_B((byte) 0x80, Relocation.BYTE2_INDEX),
 
     /**
      * PUTSTATIC_S bytecode opcode value
      */
-    PUTSTATIC_S((byte) 0x81),
+    PUTSTATIC_S((byte) 0x81, Relocation.BYTE2_INDEX),
 
     /**
      * PUTSTATIC_I bytecode opcode value
      */
-    PUTSTATIC_I((byte) 0x82),
+    PUTSTATIC_I((byte) 0x82, true, Relocation.BYTE2_INDEX),
 
     /**
      * RET bytecode opcode value
@@ -761,7 +761,7 @@ public enum Bytecode {
     /**
      * S2I bytecode opcode value
      */
-    S2I((byte) 0x5c),
+    S2I((byte) 0x5c, true),
 
     /**
      * SADD bytecode opcode value
@@ -836,7 +836,7 @@ public enum Bytecode {
     /**
      * SIPUSH bytecode opcode value
      */
-    SIPUSH((byte) 0x13),
+    SIPUSH((byte) 0x13, true),
 
     /**
      * SLOAD bytecode opcode value
@@ -973,13 +973,85 @@ public enum Bytecode {
      */
     private byte value;
 
+    /**
+     * Is this bytecode handling int values?
+     */
+    private boolean intInstruction;
+
+    /**
+     * Kind of constant pool index carried by this bytecode
+     */
+    private Relocation relocation;
+
+    /**
+     * Offset of the constant pool index from the opcode
+     */
+    private int relocationOffset;
+
     /**
      * Enum constructor
      *
      * @param value bytecode value to construct enum type
      */
     Bytecode(byte value) {
+        this(value, false, Relocation.NONE, 0);
+    }
+
+    /**
+     * Enum constructor
+     *
+     * @param value          bytecode value to construct enum type
+     * @param intInstruction is this bytecode handling int values?
+     */
+    Bytecode(byte value, boolean intInstruction) {
+        this(value, intInstruction, Relocation.NONE, 0);
+    }
+
+    /**
+     * Enum constructor for bytecode with a constant pool index following the opcode
+     *
+     * @param value      bytecode value to construct enum type
+     * @param relocation kind of constant pool index
+     */
+    Bytecode(byte value, Relocation relocation) {
+        this(value, false, relocation, Byte.BYTES);
+    }
+
+    /**
+     * Enum constructor for int bytecode with a constant pool index following the opcode
+     *
+     * @param value          bytecode value to construct enum type
+     * @param intInstruction is this bytecode handling int values?
+     * @param relocation     kind of constant pool index
+     */
+    Bytecode(byte value, boolean intInstruction, Relocation relocation) {
+        this(value, intInstruction, relocation, Byte.BYTES);
+    }
+
+    /**
+     * Enum constructor
+     *
+     * @param value            bytecode value to construct enum type
+     * @param relocation       kind of constant pool index
+     * @param relocationOffset offset of the constant pool index from the opcode
+     */
+    Bytecode(byte value, Relocation relocation, int relocationOffset) {
+        this(value, false, relocation, relocationOffset);
+    }
+
+    /**
+     * Enum constructor
+     *
+     * @param value            bytecode value to construct enum type
+     * @param intInstruction   is this bytecode handling int values?
+     * @param relocation       kind of constant pool index
+     * @param relocationOffset offset of the constant pool index from the opcode
+     */
+    Bytecode(byte value, boolean intInstruction, Relocation relocation, int relocationOffset) {
         this.value = value;
+        this.intInstruction = intInstruction;
+        this.relocation = relocation;
+        this.relocationOffset = relocationOffset;
     }
 
     /**
@@ -990,4 +1062,179 @@ public enum Bytecode {
     public byte getValue() {
         return value;
     }
+
+    /**
+     * Is this bytecode handling int values?
+     *
+     * @return true if this bytecode requires the int support
+     */
+    public boolean isIntInstruction() {
+        return intInstruction;
+    }
+
+    /**
+     * Get the kind of constant pool index carried by this bytecode
+     *
+     * @return kind of constant pool index
+     */
+    public Relocation getRelocation() {
+        return relocation;
+    }
+
+    /**
+     * Get the offset of the constant pool index from the opcode
+     *
+     * @return offset of the constant pool index from the opcode
+     */
+    public int getRelocationOffset() {
+        return relocationOffset;
+    }
+
+    /**
+     * Get the wide form of a 1-byte offset branch bytecode
+     *
+     * @return wide branch bytecode, <code>null</code> if this bytecode is not a 1-byte offset branch
+     */
+    public Bytecode getWideBranch() {
+        switch (this) {
+            case GOTO:
+                return GOTO_W;
+            case IFEQ:
+                return IFEQ_W;
+            case IFNE:
+                return IFNE_W;
+            case IFLT:
+                return IFLT_W;
+            case IFGE:
+                return IFGE_W;
+            case IFGT:
+                return IFGT_W;
+            case IFLE:
+                return IFLE_W;
+            case IFNULL:
+                return IFNULL_W;
+            case IFNONNULL:
+                return IFNONNULL_W;
+            case IF_ACMPEQ:
+                return IF_ACMPEQ_W;
+            case IF_ACMPNE:
+                return IF_ACMPNE_W;
+            case IF_SCMPEQ:
+                return IF_SCMPEQ_W;
+            case IF_SCMPNE:
+                return IF_SCMPNE_W;
+            case IF_SCMPLT:
+                return IF_SCMPLT_W;
+            case IF_SCMPGE:
+                return IF_SCMPGE_W;
+            case IF_SCMPGT:
+                return IF_SCMPGT_W;
+            case IF_SCMPLE:
+                return IF_SCMPLE_W;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the 1-byte offset form of a wide branch bytecode
+     *
+     * @return 1-byte offset branch bytecode, <code>null</code> if this bytecode is not a wide branch
+     */
+    public Bytecode getShortBranch() {
+        switch (this) {
+            case GOTO_W:
+                return GOTO;
+            case IFEQ_W:
+                return IFEQ;
+            case IFNE_W:
+                return IFNE;
+            case IFLT_W:
+                return IFLT;
+            case IFGE_W:
+                return IFGE;
+            case IFGT_W:
+                return IFGT;
+            case IFLE_W:
+                return IFLE;
+            case IFNULL_W:
+                return IFNULL;
+            case IFNONNULL_W:
+                return IFNONNULL;
+            case IF_ACMPEQ_W:
+                return IF_ACMPEQ;
+            case IF_ACMPNE_W:
+                return IF_ACMPNE;
+            case IF_SCMPEQ_W:
+                return IF_SCMPEQ;
+            case IF_SCMPNE_W:
+                return IF_SCMPNE;
+            case IF_SCMPLT_W:
+                return IF_SCMPLT;
+            case IF_SCMPGE_W:
+                return IF_SCMPGE;
+            case IF_SCMPGT_W:
+                return IF_SCMPGT;
+            case IF_SCMPLE_W:
+                return IF_SCMPLE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the 2-byte constant pool index form of a field access bytecode
+     *
+     * @return wide field access bytecode, <code>null</code> if this bytecode is not a 1-byte index field access
+     */
+    public Bytecode getWideFieldAccess() {
+        switch (this) {
+            case GETFIELD_A:
+                return GETFIELD_A_W;
+            case GETFIELD_B:
+                return GETFIELD_B_W;
+            case GETFIELD_S:
+                return GETFIELD_S_W;
+            case GETFIELD_I:
+                return GETFIELD_I_W;
+            case PUTFIELD_A:
+                return PUTFIELD_A_W;
+            case PUTFIELD_B:
+                return PUTFIELD_B_W;
+            case PUTFIELD_S:
+                return PUTFIELD_S_W;
+            case PUTFIELD_I:
+                return PUTFIELD_I_W;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the 1-byte constant pool index form of a wide field access bytecode
+     *
+     * @return 1-byte index field access bytecode, <code>null</code> if this bytecode is not a wide field access
+     */
+    public Bytecode getShortFieldAccess() {
+        switch (this) {
+            case GETFIELD_A_W:
+                return GETFIELD_A;
+            case GETFIELD_B_W:
+                return GETFIELD_B;
+            case GETFIELD_S_W:
+                return GETFIELD_S;
+            case GETFIELD_I_W:
+                return GETFIELD_I;
+            case PUTFIELD_A_W:
+                return PUTFIELD_A;
+            case PUTFIELD_B_W:
+                return PUTFIELD_B;
+            case PUTFIELD_S_W:
+                return PUTFIELD_S;
+            case PUTFIELD_I_W:
+                return PUTFIELD_I;
+            default:
+                return null;
+        }
+    }
 }
@@ -26,6 +26,8 @@ package fr.gouv.ssi.rommask.jcaparser;
  * #L%
  */
 
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
+
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 
@@ -38,7 +40,7 @@ import java.util.ArrayList;
  */
 public abstract class Instruction {
     private Bytecode opcode;
-    private ArrayList<Byte> parameters;
+    private ByteArray parameters;
 
     /**
      * Class constructor
@@ -74,7 +76,7 @@ public abstract class Instruction {
      *
      * @return instruction parameters
      */
-    public ArrayList<Byte> getParameters() {
+    public ByteArray getParameters() {
         return parameters;
     }
 
@@ -83,7 +85,7 @@ public abstract class Instruction {
      *
      * @param parameters instruction parameters
      */
-    public void setParameters(ArrayList<Byte> parameters) {
+    public void setParameters(ByteArray parameters) {
         this.parameters = parameters;
     }
 
@@ -94,7 +96,7 @@ public abstract class Instruction {
      * @return byte parameters list
      * @throws InvalidParameterException Incorrect parameters value/size
      */
-    protected abstract ArrayList<Byte> generateParametersList(ArrayList<String> parameters) throws InvalidParameterException;
+    protected abstract ByteArray generateParametersList(ArrayList<String> parameters) throws InvalidParameterException;
 
     /**
      * Get the size in byte of the current instruction
@@ -27,6 +27,7 @@ package fr.gouv.ssi.rommask.jcaparser;
  */
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * JCA file class' method
@@ -308,7 +309,7 @@ public class JCAClassMethod {
 
         if (bytecodes != null) {
             ArrayList<Short> labels = bytecodes.getLabels();
-            ArrayList<Instruction> instructions = bytecodes.getInstructions();
+            List<Instruction> instructions = bytecodes.getInstructions();
 
             for (short foo = 0; foo < instructions.size(); foo++) {
                 Instruction instruction = instructions.get(foo);
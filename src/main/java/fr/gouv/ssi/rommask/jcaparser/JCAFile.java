@@ -35,6 +35,7 @@ public class JCAFile {
     private JCAAppletComponent applets;
     private JCAConstantPoolComponent constantPool;
     private JCAClassComponent classes;
+    private JCASymbolIndex symbolIndex;
 
     /**
      * Default constructor
@@ -191,6 +192,20 @@ public class JCAFile {
      */
     public void setClasses(JCAClassComponent classes) {
         this.classes = classes;
+        this.symbolIndex = null;
+    }
+
+    /**
+     * Get the index of the classes, fields and methods defined in this package. The index is built on first use.
+     *
+     * @return package symbol index
+     */
+    public JCASymbolIndex getSymbolIndex() {
+        if (this.symbolIndex == null) {
+            this.symbolIndex = new JCASymbolIndex(this.classes);
+        }
+
+        return this.symbolIndex;
     }
 
     @Override
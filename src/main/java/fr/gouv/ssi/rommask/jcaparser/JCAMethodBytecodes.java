@@ -26,7 +26,13 @@ package fr.gouv.ssi.rommask.jcaparser;
  * #L%
  */
 
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.InstructionWith1ByteLabelParameter;
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.InstructionWith2BytesLabelParameter;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.JCAConverterException;
+
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * JCA method bytecode definition
@@ -60,6 +66,12 @@ public class JCAMethodBytecodes {
      */
     private ArrayList<JCAExceptionHandler> exceptionsHandlers;
 
+    /**
+     * Instruction offsets from the method bytecode start (prefix sums of the instruction sizes).
+     * The last entry is the method bytecode size. It is reset by each instruction update.
+     */
+    private int[] instructionOffsets;
+
     /**
      * Default constructor
      *
@@ -113,12 +125,33 @@ public class JCAMethodBytecodes {
     }
 
     /**
-     * Get method instructions
+     * Get method instructions. Instructions are updated through this class only, to keep the offsets up to date.
+     *
+     * @return read-only method instructions
+     */
+    public List<Instruction> getInstructions() {
+        return Collections.unmodifiableList(this.instructions);
+    }
+
+    /**
+     * Add an instruction at the end of the method
+     *
+     * @param instruction instruction to add
+     */
+    public void addInstruction(Instruction instruction) {
+        this.instructions.add(instruction);
+        this.instructionOffsets = null;
+    }
+
+    /**
+     * Replace a method instruction
      *
-     * @return method instructions
+     * @param instructionIndex instruction index in the method
+     * @param instruction      new instruction
      */
-    public ArrayList<Instruction> getInstructions() {
-        return instructions;
+    public void setInstruction(int instructionIndex, Instruction instruction) {
+        this.instructions.set(instructionIndex, instruction);
+        this.instructionOffsets = null;
     }
 
     /**
@@ -127,7 +160,8 @@ public class JCAMethodBytecodes {
      * @param instructions method instructions
      */
     public void setInstructions(ArrayList<Instruction> instructions) {
-        this.instructions = instructions;
+        this.instructions = new ArrayList<>(instructions);
+        this.instructionOffsets = null;
     }
 
     /**
@@ -166,4 +200,102 @@ public class JCAMethodBytecodes {
         this.labels = labels;
     }
 
+    /**
+     * Computes the instruction offsets table
+     */
+    private void updateInstructionOffsets() {
+        int[] offsets = new int[this.instructions.size() + 1];
+
+        for (int index = 0; index < this.instructions.size(); index++) {
+            offsets[index + 1] = offsets[index] + this.instructions.get(index).getInstructionSize();
+        }
+
+        this.instructionOffsets = offsets;
+    }
+
+    /**
+     * Get the offset of an instruction from the method bytecode start
+     *
+     * @param instructionIndex instruction index in the method
+     * @return instruction offset
+     */
+    public int getInstructionOffset(int instructionIndex) {
+        if (this.instructionOffsets == null) {
+            this.updateInstructionOffsets();
+        }
+
+        return this.instructionOffsets[instructionIndex];
+    }
+
+    /**
+     * Get the offset of a label from the method bytecode start
+     *
+     * @param label label number
+     * @return label offset
+     */
+    public int getLabelOffset(short label) {
+        return this.getInstructionOffset(this.labels.get(label));
+    }
+
+    /**
+     * Relaxes the method branches: each branch uses its 1-byte offset form when the pointed out label is in range and
+     * its wide form otherwise. All the branches are first shortened, then the out of range ones are widened until the
+     * instruction offsets do not change anymore. Label offsets, and thus exception handler ranges, follow the new
+     * instruction sizes.
+     *
+     * @throws JCAConverterException Unable to build a branch instruction
+     */
+    public void relaxBranches() throws JCAConverterException {
+        for (int index = 0; index < this.instructions.size(); index++) {
+            Instruction instruction = this.instructions.get(index);
+            Bytecode shortBranch = instruction.getOpcode().getShortBranch();
+
+            if (shortBranch != null) {
+                short label = ((InstructionWith2BytesLabelParameter) instruction).getLabel();
+                this.setInstruction(index, this.getBranchInstruction(shortBranch, label));
+            }
+        }
+
+        boolean widened = true;
+        while (widened) {
+            widened = false;
+
+            for (int index = 0; index < this.instructions.size(); index++) {
+                Instruction instruction = this.instructions.get(index);
+                Bytecode wideBranch = instruction.getOpcode().getWideBranch();
+
+                if (wideBranch == null) {
+                    continue;
+                }
+
+                short label = ((InstructionWith1ByteLabelParameter) instruction).getLabel();
+                int offset = this.getLabelOffset(label) - this.getInstructionOffset(index);
+
+                if ((offset < Byte.MIN_VALUE) || (offset > Byte.MAX_VALUE)) {
+                    this.setInstruction(index, this.getBranchInstruction(wideBranch, label));
+                    widened = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds a branch instruction
+     *
+     * @param opcode branch opcode
+     * @param label  label pointed out by the branch
+     * @return branch instruction
+     * @throws JCAConverterException Unable to build the branch instruction
+     */
+    private Instruction getBranchInstruction(Bytecode opcode, short label) throws JCAConverterException {
+        ArrayList<String> parameters = new ArrayList<>();
+        parameters.add("L" + label);
+
+        try {
+            return InstructionsFactory.getInstruction(opcode, parameters);
+        } catch (ParseException e) {
+            throw new JCAConverterException("Unable to build the " + opcode + " branch: " + e.getMessage());
+        }
+    }
+
 }
@@ -0,0 +1,172 @@
+package fr.gouv.ssi.rommask.jcaparser;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Set of JCA files linked together, which resolves the class and virtual method references across their packages
+ *
+ * @author Guillaume Bouffard
+ */
+public class JCAPackageSet {
+
+    /**
+     * JCA files of the set
+     */
+    private final ArrayList<JCAFile> packages;
+
+    /**
+     * JCA file where each class is defined
+     */
+    private final Map<JCAObject, JCAFile> classPackages;
+
+    /**
+     * Class constructor
+     *
+     * @param packages JCA files of the set
+     */
+    public JCAPackageSet(ArrayList<JCAFile> packages) {
+        this.packages = packages;
+        this.classPackages = new IdentityHashMap<>();
+
+        for (JCAFile jca : packages) {
+            for (JCAObject object : jca.getClaz().getClasses()) {
+                this.classPackages.put(object, jca);
+            }
+        }
+    }
+
+    /**
+     * Get the JCA file where a class is defined
+     *
+     * @param object class
+     * @return the JCA file, null if the class is not in the set
+     */
+    public JCAFile getPackage(JCAObject object) {
+        return this.classPackages.get(object);
+    }
+
+    /**
+     * Look for the class of a class reference
+     *
+     * @param jca JCA file where the reference is used
+     * @param ref class reference
+     * @return the referenced class, null if the class is not in the set
+     */
+    public JCAObject findClass(JCAFile jca, JCACPClassRef ref) {
+        if (!ref.hasToken()) {
+            return jca.getSymbolIndex().getObject(ref.getName());
+        }
+
+        if ((jca.getImportedPackages() == null)
+                || (ref.getPackageToken() >= jca.getImportedPackages().getEntries().size())) {
+            return null;
+        }
+
+        AID aid = jca.getImportedPackages().getEntries().get(ref.getPackageToken()).getAID();
+
+        for (JCAFile imported : this.packages) {
+            if (!Arrays.equals(imported.getAID().getAID(), aid.getAID())) {
+                continue;
+            }
+
+            for (JCAObject object : imported.getClaz().getClasses()) {
+                if (imported.getSymbolIndex().getClassToken(object.getName()) == ref.getClassToken()) {
+                    return object;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the super class of a class
+     *
+     * @param object class
+     * @return the super class, null if the class does not extend a class of the set
+     */
+    public JCAObject getSuperClass(JCAObject object) {
+        if (!(object instanceof JCAClass) || (((JCAClass) object).getExtended() == null)) {
+            return null;
+        }
+
+        return this.findClass(this.getPackage(object), ((JCAClass) object).getExtended());
+    }
+
+    /**
+     * Get the method which implements a virtual method token in a class
+     *
+     * @param object class
+     * @param token  virtual method token
+     * @return the method defined in the class, null if the method is inherited
+     */
+    public JCAClassMethod getVirtualMethod(JCAObject object, int token) {
+        if (!(object instanceof JCAClass)) {
+            return null;
+        }
+
+        ArrayList<JCACPMethodSignature> table = ((token & 0x80) == 0)
+                ? ((JCAClass) object).getPublicMethodsTable()
+                : ((JCAClass) object).getPackageMethodsTable();
+        int index = token & 0x7F;
+
+        if (index >= table.size()) {
+            return null;
+        }
+
+        return this.getPackage(object).getSymbolIndex()
+                .getMethod(object.getName(), table.get(index).getMethodSignature());
+    }
+
+    /**
+     * Get the virtual method token of a method from the method tables of a class
+     *
+     * @param object    class
+     * @param signature full method signature
+     * @return virtual method token, -1 if the method is not in the method tables
+     */
+    public static int getVirtualToken(JCAClass object, String signature) {
+        for (int index = 0; index < object.getPublicMethodsTable().size(); index++) {
+            if (object.getPublicMethodsTable().get(index).getMethodSignature().equals(signature)) {
+                return index;
+            }
+        }
+
+        for (int index = 0; index < object.getPackageMethodsTable().size(); index++) {
+            if (object.getPackageMethodsTable().get(index).getMethodSignature().equals(signature)) {
+                return index | 0x80;
+            }
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,184 @@
+package fr.gouv.ssi.rommask.jcaparser;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of the classes, fields and methods defined in a JCA file, built once to resolve the internal references
+ *
+ * @author Guillaume Bouffard
+ */
+public class JCASymbolIndex {
+
+    /**
+     * Classes and interfaces by name
+     */
+    private Map<String, JCAObject> objects;
+
+    /**
+     * Internal class references (offset in the class component) by class name
+     */
+    private Map<String, Short> internalClassRefs;
+
+    /**
+     * Indexes in the class component list by class name
+     */
+    private Map<String, Short> classIndexes;
+
+    /**
+     * Class tokens by class name. Package visible classes have no token.
+     */
+    private Map<String, Byte> classTokens;
+
+    /**
+     * Fields by class name and field name
+     */
+    private Map<String, JCAClassField> fields;
+
+    /**
+     * Methods by class name and method full name
+     */
+    private Map<String, JCAClassMethod> methods;
+
+    /**
+     * Size of all the classes and interfaces in the class component
+     */
+    private short classesSize;
+
+    /**
+     * Class constructor
+     *
+     * @param classComponent classes and interfaces to index
+     */
+    public JCASymbolIndex(JCAClassComponent classComponent) {
+        this.objects = new HashMap<>();
+        this.internalClassRefs = new HashMap<>();
+        this.classIndexes = new HashMap<>();
+        this.classTokens = new HashMap<>();
+        this.fields = new HashMap<>();
+        this.methods = new HashMap<>();
+
+        short offset = 0;
+        byte token = 0;
+
+        for (short index = 0; index < classComponent.getClasses().size(); index++) {
+            JCAObject object = classComponent.getClasses().get(index);
+            String classname = object.getName();
+
+            // the first definition wins, as with a linear lookup
+            if (!this.objects.containsKey(classname)) {
+                this.objects.put(classname, object);
+                this.internalClassRefs.put(classname, offset);
+                this.classIndexes.put(classname, index);
+
+                if (object.getAccessor() != JCAAccessor.PACKAGE) {
+                    this.classTokens.put(classname, token);
+                }
+
+                for (JCAClassField field : object.getFields()) {
+                    this.fields.putIfAbsent(classname + "/" + field.getName(), field);
+                }
+
+                for (JCAClassMethod method : object.getMethods()) {
+                    this.methods.putIfAbsent(classname + "/" + method.getMethodSignature().getFullName(), method);
+                }
+            }
+
+            if (object.getAccessor() != JCAAccessor.PACKAGE) {
+                token++;
+            }
+
+            offset += object.classSize();
+        }
+
+        this.classesSize = offset;
+    }
+
+    /**
+     * Get a class or an interface defined in this package
+     *
+     * @param classname class name
+     * @return the class or the interface, null if it is not defined in this package
+     */
+    public JCAObject getObject(String classname) {
+        return this.objects.get(classname);
+    }
+
+    /**
+     * Get the internal class reference of a class, i.e. its offset in the class component
+     *
+     * @param classname class name
+     * @return class offset in the class component, the class component size if the class is not defined
+     */
+    public short getInternalClassRef(String classname) {
+        return this.internalClassRefs.getOrDefault(classname, this.classesSize);
+    }
+
+    /**
+     * Get the index of a class in the class component list
+     *
+     * @param classname class name
+     * @return class index, -1 if the class is not defined
+     */
+    public short getClassIndex(String classname) {
+        return this.classIndexes.getOrDefault(classname, (short) -1);
+    }
+
+    /**
+     * Get the token of a class which is not package visible
+     *
+     * @param classname class name
+     * @return class token, 0xFF if the class has no token
+     */
+    public byte getClassToken(String classname) {
+        return this.classTokens.getOrDefault(classname, (byte) 0xFF);
+    }
+
+    /**
+     * Get a field defined in this package
+     *
+     * @param classname class name
+     * @param fieldName field name
+     * @return the field, null if it is not defined
+     */
+    public JCAClassField getField(String classname, String fieldName) {
+        return this.fields.get(classname + "/" + fieldName);
+    }
+
+    /**
+     * Get a method defined in this package
+     *
+     * @param classname      class name
+     * @param methodFullName method name with parameter and return type
+     * @return the method, null if it is not defined
+     */
+    public JCAClassMethod getMethod(String classname, String methodFullName) {
+        return this.methods.get(classname + "/" + methodFullName);
+    }
+}
@@ -28,6 +28,7 @@ package fr.gouv.ssi.rommask.jcaparser.bytecodes;
 
 import fr.gouv.ssi.rommask.jcaparser.Bytecode;
 import fr.gouv.ssi.rommask.jcaparser.Instruction;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
 
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
@@ -48,9 +49,9 @@ public class CHECKCAST extends Instruction {
     }
 
     @Override
-    protected ArrayList<Byte> generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
+    protected ByteArray generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
 
-        ArrayList<Byte> params = new ArrayList<>();
+        ByteArray params = new ByteArray();
 
         /**
          * Allow values:
@@ -82,7 +83,7 @@ public class CHECKCAST extends Instruction {
 
         out.append(super.toString() + " ");
 
-        ArrayList<Byte> params = this.getParameters();
+        ByteArray params = this.getParameters();
 
         switch (params.get(0)) {
             case 10:
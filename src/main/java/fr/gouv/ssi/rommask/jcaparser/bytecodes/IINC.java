@@ -28,6 +28,7 @@ package fr.gouv.ssi.rommask.jcaparser.bytecodes;
 
 import fr.gouv.ssi.rommask.jcaparser.Bytecode;
 import fr.gouv.ssi.rommask.jcaparser.Instruction;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
 
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
@@ -49,8 +50,8 @@ public class IINC extends Instruction {
     }
 
     @Override
-    protected ArrayList<Byte> generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
-        ArrayList<Byte> params = new ArrayList<>();
+    protected ByteArray generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
+        ByteArray params = new ByteArray();
 
         if (parameters.size() != 2) {
             throw new InvalidParameterException
@@ -69,7 +70,7 @@ public class IINC extends Instruction {
     @Override
     public String toString() {
         StringBuilder out = new StringBuilder();
-        ArrayList<Byte> params = this.getParameters();
+        ByteArray params = this.getParameters();
 
         out.append(super.toString() + " ");
 
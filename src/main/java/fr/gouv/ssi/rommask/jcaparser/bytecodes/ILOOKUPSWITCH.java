@@ -27,7 +27,8 @@ package fr.gouv.ssi.rommask.jcaparser.bytecodes;
  */
 
 import fr.gouv.ssi.rommask.jcaparser.Bytecode;
-import fr.gouv.ssi.rommask.jcaparser.Instruction;
+import fr.gouv.ssi.rommask.jcaparser.JCAMethodBytecodes;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
 
 import java.security.InvalidParameterException;
 import java.util.*;
@@ -62,8 +63,8 @@ public class ILOOKUPSWITCH extends InstructionSwitch {
     }
 
     @Override
-    protected ArrayList<Byte> generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
-        ArrayList<Byte> params = this.getParameters();
+    protected ByteArray generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
+        ByteArray params = this.getParameters();
 
         /**
          * Value allows:
@@ -104,18 +105,12 @@ public class ILOOKUPSWITCH extends InstructionSwitch {
     }
 
     @Override
-    public void updateLabels(ArrayList<Short> methodsLabels, ArrayList<Instruction> methodBytecodes, short methodOffset) {
-        ArrayList<Byte> params = new ArrayList<>();
+    public void updateLabels(JCAMethodBytecodes method, short methodOffset) {
+        ByteArray params = this.getParameters();
 
         int index = 2 * Short.BYTES; // defaultLabel & npair
 
-        int labelValue = 0;
-
-        for (short foo = 0; foo < methodsLabels.get(this.defaultLabel); foo++) {
-            labelValue += methodBytecodes.get(foo).getInstructionSize();
-        }
-
-        labelValue = labelValue - methodOffset;
+        int labelValue = method.getLabelOffset(this.defaultLabel) - methodOffset;
         params.set(0, (byte) ((labelValue >> 8) & 0x00FF));
         params.set(1, (byte) labelValue);
 
@@ -126,15 +121,9 @@ public class ILOOKUPSWITCH extends InstructionSwitch {
             Map.Entry entry = (Map.Entry) iterator.next();
             // int matchValue = (int) entry.getKey();
             short offsetLabel = (short) entry.getValue();
-            labelValue = 0;
-
             index += Integer.BYTES; // matchValue
 
-            for (short foo = 0; foo < methodsLabels.get(offsetLabel); foo++) {
-                labelValue += methodBytecodes.get(foo).getInstructionSize();
-            }
-
-            labelValue = labelValue - methodOffset;
+            labelValue = method.getLabelOffset(offsetLabel) - methodOffset;
 
             params.set(index, (byte) ((labelValue >> 8) & 0x00FF));
             index++;
@@ -28,6 +28,7 @@ package fr.gouv.ssi.rommask.jcaparser.bytecodes;
 
 import fr.gouv.ssi.rommask.jcaparser.Bytecode;
 import fr.gouv.ssi.rommask.jcaparser.Instruction;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
 
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
@@ -49,8 +50,8 @@ public class INSTANCEOF extends Instruction {
     }
 
     @Override
-    protected ArrayList<Byte> generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
-        ArrayList<Byte> params = new ArrayList<>();
+    protected ByteArray generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
+        ByteArray params = new ByteArray();
 
 
         /**
@@ -85,7 +86,7 @@ public class INSTANCEOF extends Instruction {
     @Override
     public String toString() {
         StringBuilder out = new StringBuilder();
-        ArrayList<Byte> params = this.getParameters();
+        ByteArray params = this.getParameters();
 
         out.append(super.toString() + " ");
 
@@ -28,6 +28,8 @@ package fr.gouv.ssi.rommask.jcaparser.bytecodes;
 
 import fr.gouv.ssi.rommask.jcaparser.Bytecode;
 
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
+
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 
@@ -49,8 +51,8 @@ public class InstructionWith1ByteParameter extends InstructionWithBytesParameter
     }
 
     @Override
-    protected ArrayList<Byte> generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
-        ArrayList<Byte> params = new ArrayList<>();
+    protected ByteArray generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
+        ByteArray params = new ByteArray();
 
         params.add((byte) (Integer.parseInt(parameters.get(0)) & 0x0000FF));
 
@@ -27,7 +27,8 @@ package fr.gouv.ssi.rommask.jcaparser.bytecodes;
  */
 
 import fr.gouv.ssi.rommask.jcaparser.Bytecode;
-import fr.gouv.ssi.rommask.jcaparser.Instruction;
+import fr.gouv.ssi.rommask.jcaparser.JCAMethodBytecodes;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
 
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
@@ -56,25 +57,28 @@ public class InstructionWith2BytesLabelParameter extends InstructionWithLabelPar
         this.label = (short) Integer.parseInt(labels.get(0).substring(1));
     }
 
-    @Override
-    public void updateLabels(ArrayList<Short> methodsLabels, ArrayList<Instruction> methodBytecodes, short methodOffset) {
-        ArrayList<Byte> params = this.getParameters();
-
-        int value = 0;
+    /**
+     * Get the label pointed out by the instruction
+     *
+     * @return label number
+     */
+    public short getLabel() {
+        return this.label;
+    }
 
-        for (short foo = 0; foo < methodsLabels.get(this.label); foo++) {
-            value += methodBytecodes.get(foo).getInstructionSize();
-        }
+    @Override
+    public void updateLabels(JCAMethodBytecodes method, short methodOffset) {
+        ByteArray params = this.getParameters();
 
-        value = value - methodOffset;
+        int value = method.getLabelOffset(this.label) - methodOffset;
 
         params.set(0, (byte) (value >> 8));
         params.set(1, (byte) value);
     }
 
     @Override
-    protected ArrayList<Byte> generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
-        ArrayList<Byte> params = new ArrayList<>();
+    protected ByteArray generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
+        ByteArray params = new ByteArray();
 
         params.add((byte) 0);
         params.add((byte) 0);
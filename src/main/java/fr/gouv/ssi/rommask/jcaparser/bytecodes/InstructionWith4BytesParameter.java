@@ -28,6 +28,8 @@ package fr.gouv.ssi.rommask.jcaparser.bytecodes;
 
 import fr.gouv.ssi.rommask.jcaparser.Bytecode;
 
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
+
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 
@@ -49,9 +51,9 @@ public class InstructionWith4BytesParameter extends InstructionWithBytesParamete
     }
 
     @Override
-    protected ArrayList<Byte> generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
+    protected ByteArray generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
 
-        ArrayList<Byte> params = new ArrayList<>();
+        ByteArray params = new ByteArray();
 
         int value = Integer.parseInt(parameters.get(0));
 
@@ -28,6 +28,7 @@ package fr.gouv.ssi.rommask.jcaparser.bytecodes;
 
 import fr.gouv.ssi.rommask.jcaparser.Bytecode;
 import fr.gouv.ssi.rommask.jcaparser.Instruction;
+import fr.gouv.ssi.rommask.jcaparser.JCAMethodBytecodes;
 
 import java.util.ArrayList;
 
@@ -51,9 +52,8 @@ public abstract class InstructionWithLabelParameter extends Instruction {
     /**
      * Updates instruction labels
      *
-     * @param methodLabels    method labels
-     * @param methodBytecodes method bytecodes
-     * @param methodOffset    instruction offset in the current method
+     * @param method       method bytecodes where labels are resolved
+     * @param methodOffset instruction offset in the current method
      */
-    public abstract void updateLabels(ArrayList<Short> methodLabels, ArrayList<Instruction> methodBytecodes, short methodOffset);
+    public abstract void updateLabels(JCAMethodBytecodes method, short methodOffset);
 }
@@ -28,6 +28,7 @@ package fr.gouv.ssi.rommask.jcaparser.bytecodes;
 
 import fr.gouv.ssi.rommask.jcaparser.Bytecode;
 import fr.gouv.ssi.rommask.jcaparser.Instruction;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
 
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
@@ -52,11 +53,11 @@ public class InstructionWithoutParameter extends Instruction {
     }
 
     @Override
-    protected ArrayList<Byte> generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
+    protected ByteArray generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
         if (parameters.size() != 0) {
             throw new InvalidParameterException("Parameters list must be empty");
         }
 
-        return new ArrayList<>();
+        return new ByteArray();
     }
 }
@@ -27,7 +27,8 @@ package fr.gouv.ssi.rommask.jcaparser.bytecodes;
  */
 
 import fr.gouv.ssi.rommask.jcaparser.Bytecode;
-import fr.gouv.ssi.rommask.jcaparser.Instruction;
+import fr.gouv.ssi.rommask.jcaparser.JCAMethodBytecodes;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
 
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
@@ -62,9 +63,9 @@ public class STABLESWITCH extends InstructionSwitch {
     }
 
     @Override
-    protected ArrayList<Byte> generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
+    protected ByteArray generateParametersList(ArrayList<String> parameters) throws InvalidParameterException {
 
-        ArrayList<Byte> params = new ArrayList<>();
+        ByteArray params = new ByteArray();
 
         /**
          * value allows:
@@ -103,17 +104,12 @@ public class STABLESWITCH extends InstructionSwitch {
     }
 
     @Override
-    public void updateLabels(ArrayList<Short> methodsLabels, ArrayList<Instruction> methodBytecodes, short methodOffset) {
+    public void updateLabels(JCAMethodBytecodes method, short methodOffset) {
 
-        ArrayList<Byte> params = this.getParameters();
-        int labelValue = 0;
+        ByteArray params = this.getParameters();
 
         // update defaultLabel value
-        for (short foo = 0; foo < methodsLabels.get(this.defaultLabel); foo++) {
-            labelValue += methodBytecodes.get(foo).getInstructionSize();
-        }
-
-        labelValue = labelValue - methodOffset;
+        int labelValue = method.getLabelOffset(this.defaultLabel) - methodOffset;
         params.set(0, (byte) (labelValue >> 8));
         params.set(1, (byte) (labelValue & 0x00FF));
 
@@ -123,13 +119,7 @@ public class STABLESWITCH extends InstructionSwitch {
                 ;
 
         for (Short label : this.labels) {
-            labelValue = 0;
-
-            for (short foo = 0; foo < methodsLabels.get(label); foo++) {
-                labelValue += methodBytecodes.get(foo).getInstructionSize();
-            }
-
-            labelValue = labelValue - methodOffset;
+            labelValue = method.getLabelOffset(label) - methodOffset;
 
             params.set(index, (byte) (labelValue >> 8));
             index++;
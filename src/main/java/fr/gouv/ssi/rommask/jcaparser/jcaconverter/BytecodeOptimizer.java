@@ -0,0 +1,484 @@
+package fr.gouv.ssi.rommask.jcaparser.jcaconverter;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.*;
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Peephole optimizer which rewrites the JCA method instructions into their shorter Java Card equivalents:
+ * - local variable accesses use the <code>_0</code> to <code>_3</code> forms,
+ * - short constants are pushed with <code>sconst_*</code> or <code>bspush</code>,
+ * - <code>aload_0; getfield_*</code> becomes <code>getfield_*_this</code>,
+ * - <code>sload; push; sadd|ssub; sstore</code> on the same local becomes <code>sinc</code> or <code>sinc_w</code>.
+ * <p>
+ * Patterns are never fused across a label, so branch targets and exception handler ranges stay on instruction
+ * boundaries. None of these rewrites needs more operand stack than the original code, so max_stack is kept.
+ *
+ * @author Guillaume Bouffard
+ */
+public class BytecodeOptimizer {
+
+    /**
+     * Optimizes the bytecode of all the methods of a JCA file
+     *
+     * @param jca JCA file to optimize
+     */
+    public static void optimize(JCAFile jca) {
+        for (JCAObject object : jca.getClaz().getClasses()) {
+            if (object instanceof JCAClass) {
+                for (JCAClassMethod method : object.getMethods()) {
+                    if (method.getMethodBytecodes() != null) {
+                        optimize(method);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Optimizes a method bytecode. The method instructions are replaced and its labels are moved to the new
+     * instruction indexes.
+     *
+     * @param method method whose bytecode is optimized
+     */
+    public static void optimize(JCAClassMethod method) {
+        JCAMethodBytecodes bytecodes = method.getMethodBytecodes();
+        List<Instruction> instructions = bytecodes.getInstructions();
+        ArrayList<Short> labels = bytecodes.getLabels();
+        boolean thisInLocal0 = !method.isStatic() && !storesLocal0(instructions);
+
+        boolean[] labelTargets = new boolean[instructions.size() + 1];
+        for (short label : labels) {
+            labelTargets[label] = true;
+        }
+
+        ArrayList<Instruction> optimized = new ArrayList<>();
+        int[] newIndexes = new int[instructions.size() + 1];
+
+        int index = 0;
+        while (index < instructions.size()) {
+            int length = 4;
+            Instruction instruction = matchIncrement(instructions, index, labelTargets);
+
+            if (instruction == null) {
+                length = 2;
+                instruction = matchGetFieldThis(instructions, index, labelTargets, thisInLocal0);
+            }
+
+            if (instruction == null) {
+                length = 1;
+                instruction = shorten(instructions.get(index));
+            }
+
+            for (int fused = 0; fused < length; fused++) {
+                newIndexes[index + fused] = optimized.size();
+            }
+            optimized.add(instruction);
+            index += length;
+        }
+        newIndexes[instructions.size()] = optimized.size();
+
+        for (int label = 0; label < labels.size(); label++) {
+            labels.set(label, (short) newIndexes[labels.get(label)]);
+        }
+
+        bytecodes.setInstructions(optimized);
+    }
+
+    /**
+     * Checks if instructions can be fused: they must all exist and only the first one may be a label target
+     *
+     * @param instructions method instructions
+     * @param index        index of the first instruction
+     * @param length       number of instructions to fuse
+     * @param labelTargets label targets by instruction index
+     * @return <code>true</code> if the instructions can be fused
+     */
+    private static boolean isFusable(List<Instruction> instructions, int index, int length,
+                                     boolean[] labelTargets) {
+        if (index + length > instructions.size()) {
+            return false;
+        }
+
+        for (int fused = 1; fused < length; fused++) {
+            if (labelTargets[index + fused]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Matches a short local increment: <code>sload n; push v; sadd; sstore n</code>,
+     * <code>push v; sload n; sadd; sstore n</code> or <code>sload n; push v; ssub; sstore n</code>
+     *
+     * @param instructions method instructions
+     * @param index        index of the first instruction
+     * @param labelTargets label targets by instruction index
+     * @return the <code>sinc</code> or <code>sinc_w</code> instruction, <code>null</code> if there is no match
+     */
+    private static Instruction matchIncrement(List<Instruction> instructions, int index,
+                                              boolean[] labelTargets) {
+        if (!isFusable(instructions, index, 4, labelTargets)) {
+            return null;
+        }
+
+        Instruction first = instructions.get(index);
+        Instruction second = instructions.get(index + 1);
+        int local = getLoadedShort(first);
+        Integer value = getShortConstant(second);
+
+        switch (instructions.get(index + 2).getOpcode()) {
+            case SADD:
+                if ((local < 0) || (value == null)) {
+                    local = getLoadedShort(second);
+                    value = getShortConstant(first);
+                }
+                break;
+            case SSUB:
+                if (value != null) {
+                    value = (int) (short) -value;
+                }
+                break;
+            default:
+                return null;
+        }
+
+        if ((local < 0) || (value == null) || (getStoredShort(instructions.get(index + 3)) != local)) {
+            return null;
+        }
+
+        if ((value >= Byte.MIN_VALUE) && (value <= Byte.MAX_VALUE)) {
+            return new SINC(parameters(local, value));
+        }
+
+        return new SINC_W(parameters(local, value));
+    }
+
+    /**
+     * Matches a field read on this: <code>aload_0; getfield_* index</code>
+     *
+     * @param instructions method instructions
+     * @param index        index of the first instruction
+     * @param labelTargets label targets by instruction index
+     * @param thisInLocal0 <code>true</code> if the local variable 0 always holds this
+     * @return the <code>getfield_*_this</code> instruction, <code>null</code> if there is no match
+     */
+    private static Instruction matchGetFieldThis(List<Instruction> instructions, int index,
+                                                 boolean[] labelTargets, boolean thisInLocal0) {
+        if (!thisInLocal0 || !isFusable(instructions, index, 2, labelTargets)
+                || (getLoadedReference(instructions.get(index)) != 0)) {
+            return null;
+        }
+
+        Instruction getfield = instructions.get(index + 1);
+
+        switch (getfield.getOpcode()) {
+            case GETFIELD_A:
+                return new GETFIELD_A_THIS(parameters(getParameter(getfield)));
+            case GETFIELD_B:
+                return new GETFIELD_B_THIS(parameters(getParameter(getfield)));
+            case GETFIELD_S:
+                return new GETFIELD_S_THIS(parameters(getParameter(getfield)));
+            case GETFIELD_I:
+                return new GETFIELD_I_THIS(parameters(getParameter(getfield)));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Rewrites a single instruction into its shorter form
+     *
+     * @param instruction instruction to rewrite
+     * @return the shorter instruction, or the instruction itself if it has no shorter form
+     */
+    private static Instruction shorten(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case SLOAD:
+                switch (getParameter(instruction)) {
+                    case 0:
+                        return new SLOAD_0(parameters());
+                    case 1:
+                        return new SLOAD_1(parameters());
+                    case 2:
+                        return new SLOAD_2(parameters());
+                    case 3:
+                        return new SLOAD_3(parameters());
+                }
+                break;
+            case ALOAD:
+                switch (getParameter(instruction)) {
+                    case 0:
+                        return new ALOAD_0(parameters());
+                    case 1:
+                        return new ALOAD_1(parameters());
+                    case 2:
+                        return new ALOAD_2(parameters());
+                    case 3:
+                        return new ALOAD_3(parameters());
+                }
+                break;
+            case ILOAD:
+                switch (getParameter(instruction)) {
+                    case 0:
+                        return new ILOAD_0(parameters());
+                    case 1:
+                        return new ILOAD_1(parameters());
+                    case 2:
+                        return new ILOAD_2(parameters());
+                    case 3:
+                        return new ILOAD_3(parameters());
+                }
+                break;
+            case SSTORE:
+                switch (getParameter(instruction)) {
+                    case 0:
+                        return new SSTORE_0(parameters());
+                    case 1:
+                        return new SSTORE_1(parameters());
+                    case 2:
+                        return new SSTORE_2(parameters());
+                    case 3:
+                        return new SSTORE_3(parameters());
+                }
+                break;
+            case ASTORE:
+                switch (getParameter(instruction)) {
+                    case 0:
+                        return new ASTORE_0(parameters());
+                    case 1:
+                        return new ASTORE_1(parameters());
+                    case 2:
+                        return new ASTORE_2(parameters());
+                    case 3:
+                        return new ASTORE_3(parameters());
+                }
+                break;
+            case ISTORE:
+                switch (getParameter(instruction)) {
+                    case 0:
+                        return new ISTORE_0(parameters());
+                    case 1:
+                        return new ISTORE_1(parameters());
+                    case 2:
+                        return new ISTORE_2(parameters());
+                    case 3:
+                        return new ISTORE_3(parameters());
+                }
+                break;
+            case BSPUSH:
+            case SSPUSH:
+                int value = getShortConstant(instruction);
+                switch (value) {
+                    case -1:
+                        return new SCONST_M1(parameters());
+                    case 0:
+                        return new SCONST_0(parameters());
+                    case 1:
+                        return new SCONST_1(parameters());
+                    case 2:
+                        return new SCONST_2(parameters());
+                    case 3:
+                        return new SCONST_3(parameters());
+                    case 4:
+                        return new SCONST_4(parameters());
+                    case 5:
+                        return new SCONST_5(parameters());
+                }
+
+                if ((value >= Byte.MIN_VALUE) && (value <= Byte.MAX_VALUE)) {
+                    return new BSPUSH(parameters(value));
+                }
+                break;
+            default:
+                break;
+        }
+
+        return instruction;
+    }
+
+    /**
+     * Gets the local variable index loaded by a <code>sload</code> instruction
+     *
+     * @param instruction instruction to analyze
+     * @return the local variable index, -1 if the instruction does not load a short
+     */
+    private static int getLoadedShort(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case SLOAD:
+                return getParameter(instruction);
+            case SLOAD_0:
+                return 0;
+            case SLOAD_1:
+                return 1;
+            case SLOAD_2:
+                return 2;
+            case SLOAD_3:
+                return 3;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Gets the local variable index stored by a <code>sstore</code> instruction
+     *
+     * @param instruction instruction to analyze
+     * @return the local variable index, -1 if the instruction does not store a short
+     */
+    private static int getStoredShort(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case SSTORE:
+                return getParameter(instruction);
+            case SSTORE_0:
+                return 0;
+            case SSTORE_1:
+                return 1;
+            case SSTORE_2:
+                return 2;
+            case SSTORE_3:
+                return 3;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Checks if a method writes its local variable 0, which then no longer holds this
+     *
+     * @param instructions method instructions
+     * @return <code>true</code> if an instruction stores into the local variable 0
+     */
+    private static boolean storesLocal0(List<Instruction> instructions) {
+        for (Instruction instruction : instructions) {
+            switch (instruction.getOpcode()) {
+                case ASTORE_0:
+                case SSTORE_0:
+                case ISTORE_0:
+                    return true;
+                case ASTORE:
+                case SSTORE:
+                case ISTORE:
+                    if (getParameter(instruction) == 0) {
+                        return true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the local variable index loaded by an <code>aload</code> instruction
+     *
+     * @param instruction instruction to analyze
+     * @return the local variable index, -1 if the instruction does not load a reference
+     */
+    private static int getLoadedReference(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case ALOAD:
+                return getParameter(instruction);
+            case ALOAD_0:
+                return 0;
+            case ALOAD_1:
+                return 1;
+            case ALOAD_2:
+                return 2;
+            case ALOAD_3:
+                return 3;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Gets the short constant pushed by an instruction
+     *
+     * @param instruction instruction to analyze
+     * @return the pushed value, <code>null</code> if the instruction does not push a short constant
+     */
+    private static Integer getShortConstant(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case SCONST_M1:
+                return -1;
+            case SCONST_0:
+                return 0;
+            case SCONST_1:
+                return 1;
+            case SCONST_2:
+                return 2;
+            case SCONST_3:
+                return 3;
+            case SCONST_4:
+                return 4;
+            case SCONST_5:
+                return 5;
+            case BSPUSH:
+                return (int) instruction.getParameters().get(0);
+            case SSPUSH:
+                return (int) (short) (((instruction.getParameters().get(0) & 0x00FF) << 8)
+                        | (instruction.getParameters().get(1) & 0x00FF));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets the unsigned 1-byte parameter of an instruction
+     *
+     * @param instruction instruction with a 1-byte parameter
+     * @return the parameter value
+     */
+    private static int getParameter(Instruction instruction) {
+        return instruction.getParameters().get(0) & 0x00FF;
+    }
+
+    /**
+     * Builds the string parameters list used by the instruction constructors
+     *
+     * @param values parameter values
+     * @return string parameters list
+     */
+    private static ArrayList<String> parameters(int... values) {
+        ArrayList<String> parameters = new ArrayList<>();
+
+        for (int value : values) {
+            parameters.add(Integer.toString(value));
+        }
+
+        return parameters;
+    }
+}
@@ -78,18 +78,8 @@ public class ClassInfoFromJCA extends ClassInfo implements ComponentUtils, Clone
             this.setSuperClassRef(classRef);
 
         } else { // internal classref
-            short internal_class_ref_value = 0;
-
-            for (JCAObject object : jca.getClaz().getClasses()) {
-                if (object.getName().equals(super_class_ref.getName())) {
-                    break;
-                }
-
-                internal_class_ref_value += object.classSize();
-            }
-
             InternalClassRef classRef = new InternalClassRef();
-            classRef.setInternalClassRef(internal_class_ref_value);
+            classRef.setInternalClassRef(jca.getSymbolIndex().getInternalClassRef(super_class_ref.getName()));
             this.setSuperClassRef(classRef);
         }
 
@@ -197,18 +187,12 @@ public class ClassInfoFromJCA extends ClassInfo implements ComponentUtils, Clone
                 implementedInterface.setTheInterface(classRef);
             } else {
                 InternalClassRef classRef = new InternalClassRef();
-                short internal_class_ref_value = 0;
+                JCASymbolIndex symbols = jca.getSymbolIndex();
 
                 String super_interface_name = jcaCPInterfaceRef.getName();
-                for (JCAObject object : jca.getClaz().getClasses()) {
-
-                    if (super_interface_name.equals(object.getName())) {
-                        classRef.setInternalClassRef(internal_class_ref_value);
-                        implementedInterface.setTheInterface(classRef);
-                        break;
-                    }
-
-                    internal_class_ref_value += object.classSize();
+                if (symbols.getObject(super_interface_name) != null) {
+                    classRef.setInternalClassRef(symbols.getInternalClassRef(super_interface_name));
+                    implementedInterface.setTheInterface(classRef);
                 }
             }
 
@@ -0,0 +1,302 @@
+package fr.gouv.ssi.rommask.jcaparser.jcaconverter;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.*;
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.*;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Constant pool compaction of a JCA file. The constant pool entries no bytecode nor exception handler refers to are
+ * dropped and the other ones are renumbered:
+ * - first the entries used by the 1-byte index only instructions (<code>getfield_*_this</code> and
+ * <code>putfield_*_this</code>),
+ * - then the entries used by the other field accesses, so that they fit in a 1-byte index,
+ * - then the remaining entries.
+ * In each group, the most referenced entries come first. The instructions and the exception handlers are rewritten
+ * with the new indices and the field accesses use their 1-byte index form whenever the new index allows it. Since the
+ * other components are generated from the JCA file, the descriptor types and the reference locations follow.
+ *
+ * @author Guillaume Bouffard
+ */
+public class ConstantPoolCompactor {
+
+    /**
+     * Group of the entries used by the 1-byte index only instructions
+     */
+    private static final int THIS_FIELD_ACCESS = 0;
+
+    /**
+     * Group of the entries used by field accesses with a wide form
+     */
+    private static final int FIELD_ACCESS = 1;
+
+    /**
+     * Group of the other entries
+     */
+    private static final int OTHER = 2;
+
+    /**
+     * Compacts the constant pool of a JCA file
+     *
+     * @param jca JCA file to compact
+     * @throws JCAConverterException Too many entries are used by 1-byte index only instructions
+     */
+    public static void compact(JCAFile jca) throws JCAConverterException {
+        if (jca.getConstantPool() == null) {
+            return;
+        }
+
+        ArrayList<JCAConstantPoolEntry> entries = jca.getConstantPool().getEntries();
+        int[] references = new int[entries.size()];
+        int[] groups = new int[entries.size()];
+        boolean[] catchTypes = new boolean[entries.size()];
+
+        for (int index = 0; index < entries.size(); index++) {
+            groups[index] = OTHER;
+        }
+
+        // Counting the references of each entry
+        for (JCAMethodBytecodes bytecodes : getMethodBytecodes(jca)) {
+            for (Instruction instruction : bytecodes.getInstructions()) {
+                Bytecode opcode = instruction.getOpcode();
+                if (!referencesConstantPool(instruction)) {
+                    continue;
+                }
+
+                int index = getIndex(instruction);
+                references[index]++;
+
+                if ((opcode.getRelocation() == Relocation.BYTE_INDEX) && (opcode.getWideFieldAccess() == null)) {
+                    groups[index] = THIS_FIELD_ACCESS;
+                } else if ((opcode.getWideFieldAccess() != null) || (opcode.getShortFieldAccess() != null)) {
+                    groups[index] = Math.min(groups[index], FIELD_ACCESS);
+                }
+            }
+
+            // A null catch type index catches all the exceptions
+            for (JCAExceptionHandler handler : bytecodes.getExceptionsHandlers()) {
+                if (handler.getCatchTypeIndex() != 0) {
+                    references[handler.getCatchTypeIndex()]++;
+                    catchTypes[handler.getCatchTypeIndex()] = true;
+                }
+            }
+        }
+
+        // Ordering the referenced entries
+        ArrayList<Integer> order = new ArrayList<>();
+        for (int index = 0; index < entries.size(); index++) {
+            if (references[index] != 0) {
+                order.add(index);
+            }
+        }
+        order.sort(Comparator.<Integer>comparingInt(index -> groups[index])
+                .thenComparingInt(index -> -references[index])
+                .thenComparingInt(index -> index));
+
+        // The index 0 can't be used as catch type
+        if (!order.isEmpty() && catchTypes[order.get(0)]) {
+            int first = 0;
+            while ((first < order.size()) && catchTypes[order.get(first)]) {
+                first++;
+            }
+
+            order.add(0, (first < order.size()) ? order.remove(first) : 0);
+        }
+
+        int[] newIndices = new int[entries.size()];
+        ArrayList<JCAConstantPoolEntry> compacted = new ArrayList<>();
+
+        for (int index : order) {
+            newIndices[index] = compacted.size();
+            compacted.add(entries.get(index));
+
+            if ((groups[index] == THIS_FIELD_ACCESS) && (newIndices[index] > 0xFF)) {
+                throw new JCAConverterException("Too many constant pool entries used by the getfield_*_this and "
+                        + "putfield_*_this instructions.");
+            }
+        }
+
+        // Rewriting the references
+        for (JCAMethodBytecodes bytecodes : getMethodBytecodes(jca)) {
+            List<Instruction> instructions = bytecodes.getInstructions();
+
+            for (int position = 0; position < instructions.size(); position++) {
+                Instruction instruction = instructions.get(position);
+                Bytecode opcode = instruction.getOpcode();
+                if (!referencesConstantPool(instruction)) {
+                    continue;
+                }
+
+                int index = newIndices[getIndex(instruction)];
+
+                if ((opcode.getWideFieldAccess() != null) && (index > 0xFF)) {
+                    bytecodes.setInstruction(position, getFieldAccess(opcode.getWideFieldAccess(), index));
+                } else if ((opcode.getShortFieldAccess() != null) && (index <= 0xFF)) {
+                    bytecodes.setInstruction(position, getFieldAccess(opcode.getShortFieldAccess(), index));
+                } else {
+                    setIndex(instruction, index);
+                }
+            }
+
+            for (JCAExceptionHandler handler : bytecodes.getExceptionsHandlers()) {
+                if (handler.getCatchTypeIndex() != 0) {
+                    handler.setCatchTypeIndex((short) newIndices[handler.getCatchTypeIndex()]);
+                }
+            }
+        }
+
+        jca.getConstantPool().setEntries(compacted);
+    }
+
+    /**
+     * Gets the bytecodes of all the methods of a JCA file
+     *
+     * @param jca JCA file
+     * @return methods bytecodes
+     */
+    private static ArrayList<JCAMethodBytecodes> getMethodBytecodes(JCAFile jca) {
+        ArrayList<JCAMethodBytecodes> bytecodes = new ArrayList<>();
+
+        for (JCAObject object : jca.getClaz().getClasses()) {
+            if (object instanceof JCAClass) {
+                for (JCAClassMethod method : object.getMethods()) {
+                    if (method.getMethodBytecodes() != null) {
+                        bytecodes.add(method.getMethodBytecodes());
+                    }
+                }
+            }
+        }
+
+        return bytecodes;
+    }
+
+    /**
+     * Checks if an instruction references the constant pool. A <code>checkcast</code> or <code>instanceof</code>
+     * on a primitive array type keeps a null index.
+     *
+     * @param instruction instruction to check
+     * @return <code>true</code> if the instruction has a constant pool index
+     */
+    private static boolean referencesConstantPool(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case CHECKCAST:
+            case INSTANCEOF:
+                return instruction.getParameters().get(0) == 0;
+            default:
+                return instruction.getOpcode().getRelocation() != Relocation.NONE;
+        }
+    }
+
+    /**
+     * Gets the constant pool index of an instruction
+     *
+     * @param instruction instruction referencing the constant pool
+     * @return constant pool index
+     */
+    private static int getIndex(Instruction instruction) {
+        ByteArray params = instruction.getParameters();
+        int offset = instruction.getOpcode().getRelocationOffset() - 1;
+
+        if (instruction.getOpcode().getRelocation() == Relocation.BYTE_INDEX) {
+            return params.get(offset) & 0x00FF;
+        }
+
+        return ((params.get(offset) & 0x00FF) << 8) | (params.get(offset + 1) & 0x00FF);
+    }
+
+    /**
+     * Sets the constant pool index of an instruction
+     *
+     * @param instruction instruction referencing the constant pool
+     * @param index       new constant pool index
+     */
+    private static void setIndex(Instruction instruction, int index) {
+        ByteArray params = instruction.getParameters();
+        int offset = instruction.getOpcode().getRelocationOffset() - 1;
+
+        if (instruction.getOpcode().getRelocation() == Relocation.BYTE_INDEX) {
+            params.set(offset, (byte) index);
+        } else {
+            params.set(offset, (byte) (index >> 8));
+            params.set(offset + 1, (byte) index);
+        }
+    }
+
+    /**
+     * Builds a field access instruction
+     *
+     * @param opcode field access opcode
+     * @param index  constant pool index of the field
+     * @return field access instruction
+     */
+    private static Instruction getFieldAccess(Bytecode opcode, int index) {
+        ArrayList<String> parameters = new ArrayList<>();
+        parameters.add(Integer.toString(index));
+
+        switch (opcode) {
+            case GETFIELD_A:
+                return new GETFIELD_A(parameters);
+            case GETFIELD_B:
+                return new GETFIELD_B(parameters);
+            case GETFIELD_S:
+                return new GETFIELD_S(parameters);
+            case GETFIELD_I:
+                return new GETFIELD_I(parameters);
+            case GETFIELD_A_W:
+                return new GETFIELD_A_W(parameters);
+            case GETFIELD_B_W:
+                return new GETFIELD_B_W(parameters);
+            case GETFIELD_S_W:
+                return new GETFIELD_S_W(parameters);
+            case GETFIELD_I_W:
+                return new GETFIELD_I_W(parameters);
+            case PUTFIELD_A:
+                return new PUTFIELD_A(parameters);
+            case PUTFIELD_B:
+                return new PUTFIELD_B(parameters);
+            case PUTFIELD_S:
+                return new PUTFIELD_S(parameters);
+            case PUTFIELD_I:
+                return new PUTFIELD_I(parameters);
+            case PUTFIELD_A_W:
+                return new PUTFIELD_A_W(parameters);
+            case PUTFIELD_B_W:
+                return new PUTFIELD_B_W(parameters);
+            case PUTFIELD_S_W:
+                return new PUTFIELD_S_W(parameters);
+            case PUTFIELD_I_W:
+                return new PUTFIELD_I_W(parameters);
+            default:
+                throw new IllegalArgumentException(opcode + " is not a field access");
+        }
+    }
+}
@@ -140,6 +140,15 @@ public class ConstantPoolComponentFromJCA extends ConstantPoolComponent implemen
     private ConstantPoolComponentFromJCA() {
     }
 
+    /**
+     * Gets the JCA file used to generate Constant Pool component
+     *
+     * @return JCA file used to generate Constant Pool component
+     */
+    public JCAFile getJCAFile() {
+        return this.jca;
+    }
+
     /**
      * Adding field in description component
      *
@@ -178,30 +187,22 @@ public class ConstantPoolComponentFromJCA extends ConstantPoolComponent implemen
             classRef.setPackageToken((byte) (jcaField.getPackageToken() | 0x80));
             classRef.setClassToken(jcaField.getClassToken());
         } else {
-            short internal_class_ref_value = 0;
+            JCASymbolIndex symbols = jca.getSymbolIndex();
 
             String fieldFullName = jcaField.getName();
             int lastSlash = fieldFullName.lastIndexOf("/");
             String classname = fieldFullName.substring(0, lastSlash);
             String fieldName = fieldFullName.substring(lastSlash + 1);
 
-            for (JCAObject object : jca.getClaz().getClasses()) {
-
-                if (classname.equals(object.getName())) {
-                    InternalClassRef classRef = new InternalClassRef();
-                    classRef.setInternalClassRef(internal_class_ref_value);
-                    instanceField.setAssociatedClass(classRef);
+            if (symbols.getObject(classname) != null) {
+                InternalClassRef classRef = new InternalClassRef();
+                classRef.setInternalClassRef(symbols.getInternalClassRef(classname));
+                instanceField.setAssociatedClass(classRef);
 
-                    for (JCAClassField classField : object.getFields()) {
-                        if (fieldName.equals(classField.getName())) {
-                            instanceField.setToken((byte) classField.getFieldToken());
-                            break;
-                        }
-                    }
-                    break;
+                JCAClassField classField = symbols.getField(classname, fieldName);
+                if (classField != null) {
+                    instanceField.setToken((byte) classField.getFieldToken());
                 }
-
-                internal_class_ref_value += object.classSize();
             }
         }
         return instanceField;
@@ -223,19 +224,13 @@ public class ConstantPoolComponentFromJCA extends ConstantPoolComponent implemen
             cpClassRef.setClassRef(classRef);
         } else { // internal class ref
             InternalClassRef classRef = new InternalClassRef();
-            short internal_class_ref_value = 0;
-
-            for (JCAObject object : jca.getClaz().getClasses()) {
-                String classname = jcaField.getName();
+            JCASymbolIndex symbols = jca.getSymbolIndex();
+            String classname = jcaField.getName();
 
-                if (classname.equals(object.getName())) {
-                    classRef.setInternalClassRef(internal_class_ref_value);
+            if (symbols.getObject(classname) != null) {
+                classRef.setInternalClassRef(symbols.getInternalClassRef(classname));
 
-                    cpClassRef.setClassRef(classRef);
-                    break;
-                }
-
-                internal_class_ref_value += object.classSize();
+                cpClassRef.setClassRef(classRef);
             }
         }
 
@@ -332,29 +327,22 @@ public class ConstantPoolComponentFromJCA extends ConstantPoolComponent implemen
             superMethodRef.setToken(methodSignature.getMethodToken());
         } else { // internal method signature
 
-            short internal_class_ref_value = 0;
+            JCASymbolIndex symbols = jca.getSymbolIndex();
 
             String methodFullName = methodSignature.getMethodSignature();
             int lastSlash = methodSignature.getMethodName().lastIndexOf("/");
             String classname = methodSignature.getMethodName().substring(0, lastSlash);
             String method_name = methodFullName.replace(classname + "/", "");
 
-            for (JCAObject object : jca.getClaz().getClasses()) {
-                if (classname.equals(object.getName())) {
-                    InternalClassRef classRef = new InternalClassRef();
-                    classRef.setInternalClassRef(internal_class_ref_value);
-                    superMethodRef.setAssociatedClass(classRef);
-
-                    for (JCAClassMethod method : object.getMethods()) {
-                        if (method_name.equals(method.getMethodSignature().getFullName())) {
-                            superMethodRef.setToken((byte) method.getMethodToken());
-                            break;
-                        }
-                    }
-                    break;
-                }
+            if (symbols.getObject(classname) != null) {
+                InternalClassRef classRef = new InternalClassRef();
+                classRef.setInternalClassRef(symbols.getInternalClassRef(classname));
+                superMethodRef.setAssociatedClass(classRef);
 
-                internal_class_ref_value += object.classSize();
+                JCAClassMethod method = symbols.getMethod(classname, method_name);
+                if (method != null) {
+                    superMethodRef.setToken((byte) method.getMethodToken());
+                }
             }
         }
 
@@ -379,31 +367,22 @@ public class ConstantPoolComponentFromJCA extends ConstantPoolComponent implemen
             virtualMethodRef.setToken(methodSignature.getMethodToken());
 
         } else { // internal method signature
-            short internal_class_ref_value = 0;
+            JCASymbolIndex symbols = jca.getSymbolIndex();
 
             String methodFullName = methodSignature.getMethodSignature();
             int lastSlash = methodSignature.getMethodName().lastIndexOf("/");
             String classname = methodSignature.getMethodName().substring(0, lastSlash);
             String method_name = methodFullName.replace(classname + "/", "");
 
-            for (JCAObject object : jca.getClaz().getClasses()) {
-                if (classname.equals(object.getName())) {
-                    InternalClassRef classRef = new InternalClassRef();
+            if (symbols.getObject(classname) != null) {
+                InternalClassRef classRef = new InternalClassRef();
+                classRef.setInternalClassRef(symbols.getInternalClassRef(classname));
+                virtualMethodRef.setAssociatedClass(classRef);
 
-                    classRef.setInternalClassRef(internal_class_ref_value);
-                    virtualMethodRef.setAssociatedClass(classRef);
-
-                    for (JCAClassMethod method : object.getMethods()) {
-                        if (method_name.equals(method.getMethodSignature().getFullName())) {
-                            virtualMethodRef.setToken((byte) method.getMethodToken());
-                            break;
-                        }
-                    }
-
-                    break;
+                JCAClassMethod method = symbols.getMethod(classname, method_name);
+                if (method != null) {
+                    virtualMethodRef.setToken((byte) method.getMethodToken());
                 }
-
-                internal_class_ref_value += object.classSize();
             }
         }
 
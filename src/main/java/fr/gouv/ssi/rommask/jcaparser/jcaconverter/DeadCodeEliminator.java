@@ -0,0 +1,480 @@
+package fr.gouv.ssi.rommask.jcaparser.jcaconverter;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.*;
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.ACONST_NULL;
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.ATHROW;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Whole-program dead code elimination over the JCA files of the mask. Starting from the root methods (starting
+ * method, applets entry points), the reachable methods are found by following the method references of the
+ * <code>invoke*</code> instructions across packages:
+ * - static references resolve to a single method, super references to the method implementing the token in the
+ * nearest super class of the calling class,
+ * - virtual references resolve, through the public and package method tables, to the method implementing the
+ * token in the referenced class or its nearest super class and to the overriding methods of all its sub classes,
+ * - interface references resolve, through the interface tables, to the virtual methods of all the implementing
+ * classes.
+ * <p>
+ * The body of each unreachable method is replaced by a stub throwing an exception. Methods, tokens and export
+ * tables are kept unchanged, so packages outside the mask can still be linked against the stubbed ones.
+ *
+ * @author Guillaume Bouffard
+ */
+public class DeadCodeEliminator {
+
+    /**
+     * Packages of the mask
+     */
+    private final ArrayList<JCAFile> packages;
+
+    /**
+     * Packages of the mask, resolving the references across them
+     */
+    private final JCAPackageSet packageSet;
+
+    /**
+     * Package where each class is defined
+     */
+    private final Map<JCAObject, JCAFile> classPackages;
+
+    /**
+     * Class where each method is defined
+     */
+    private final Map<JCAClassMethod, JCAObject> methodClasses;
+
+    /**
+     * Super class of each class which extends a class of the mask
+     */
+    private final Map<JCAObject, JCAObject> superClasses;
+
+    /**
+     * Reachable methods
+     */
+    private final Set<JCAClassMethod> reachableMethods;
+
+    /**
+     * Reachable methods whose bytecodes are not analyzed yet
+     */
+    private final ArrayDeque<JCAClassMethod> pendingMethods;
+
+    /**
+     * Virtual calls already resolved, as class and method token
+     */
+    private final Set<Map.Entry<JCAObject, Integer>> virtualCalls;
+
+    /**
+     * Class constructor
+     *
+     * @param packages packages of the mask
+     */
+    public DeadCodeEliminator(ArrayList<JCAFile> packages) {
+        this.packages = packages;
+        this.packageSet = new JCAPackageSet(packages);
+        this.classPackages = new IdentityHashMap<>();
+        this.methodClasses = new IdentityHashMap<>();
+        this.superClasses = new IdentityHashMap<>();
+        this.reachableMethods = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.pendingMethods = new ArrayDeque<>();
+        this.virtualCalls = new HashSet<>();
+
+        for (JCAFile jca : packages) {
+            for (JCAObject object : jca.getClaz().getClasses()) {
+                this.classPackages.put(object, jca);
+
+                for (JCAClassMethod method : object.getMethods()) {
+                    this.methodClasses.put(method, object);
+                }
+            }
+        }
+
+        for (JCAFile jca : packages) {
+            for (JCAObject object : jca.getClaz().getClasses()) {
+                JCAObject superClass = this.packageSet.getSuperClass(object);
+
+                if (superClass != null) {
+                    this.superClasses.put(object, superClass);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a root method: the methods of a class with this name are reachable
+     *
+     * @param packageName package name
+     * @param className   class name
+     * @param methodName  method name, without signature
+     */
+    public void addRoot(String packageName, String className, String methodName) {
+        for (JCAFile jca : this.packages) {
+            if (!jca.getName().equals(packageName)) {
+                continue;
+            }
+
+            JCAObject object = jca.getSymbolIndex().getObject(className);
+            if (object == null) {
+                continue;
+            }
+
+            for (JCAClassMethod method : object.getMethods()) {
+                if (method.getMethodSignature().getName().equals(className + "/" + methodName)) {
+                    this.markReachable(method);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the applets entry points as root methods: their static <code>install</code> method and, since they are
+     * called by the runtime environment, the methods of their public method table, inherited ones included
+     */
+    public void addApplets() {
+        for (JCAFile jca : this.packages) {
+            if (jca.getApplets() == null) {
+                continue;
+            }
+
+            for (JCAAppletEntry applet : jca.getApplets().getAppletEntries()) {
+                JCAObject object = jca.getSymbolIndex().getObject(applet.getClassname());
+                if (!(object instanceof JCAClass)) {
+                    continue;
+                }
+
+                this.addRoot(jca.getName(), applet.getClassname(), "install");
+
+                for (int token = 0; token < ((JCAClass) object).getPublicMethodsTable().size(); token++) {
+                    this.resolveVirtualCall(object, token);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the methods reachable from the root methods
+     */
+    public void computeReachableMethods() {
+        while (!this.pendingMethods.isEmpty()) {
+            JCAClassMethod method = this.pendingMethods.poll();
+            JCAFile jca = this.classPackages.get(this.methodClasses.get(method));
+
+            for (Instruction instruction : method.getMethodBytecodes().getInstructions()) {
+                switch (instruction.getOpcode()) {
+                    case INVOKESTATIC:
+                    case INVOKESPECIAL:
+                    case INVOKEVIRTUAL:
+                        this.resolveMethodRef(jca, getConstantPoolIndex(instruction, 0));
+                        break;
+                    case INVOKEINTERFACE:
+                        this.resolveInterfaceRef(jca, getConstantPoolIndex(instruction, 1),
+                                instruction.getParameters().get(3) & 0x00FF);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the body of each unreachable method by a stub. Abstract and native methods have no body and are kept.
+     *
+     * @return number of stubbed methods
+     */
+    public int eliminate() {
+        int count = 0;
+
+        for (JCAFile jca : this.packages) {
+            for (JCAObject object : jca.getClaz().getClasses()) {
+                for (JCAClassMethod method : object.getMethods()) {
+                    JCAMethodBytecodes bytecodes = method.getMethodBytecodes();
+
+                    if (this.reachableMethods.contains(method) || (bytecodes == null)
+                            || bytecodes.getInstructions().isEmpty()
+                            || method.getMethodSignature().isAbstract() || method.getMethodSignature().isNative()) {
+                        continue;
+                    }
+
+                    // aconst_null; athrow: a stubbed method raises a NullPointerException if it is ever called
+                    JCAMethodBytecodes stub = new JCAMethodBytecodes((byte) 1, bytecodes.getMethodLocals());
+                    stub.getLabels().add((short) 0);
+                    stub.addInstruction(new ACONST_NULL(new ArrayList<>()));
+                    stub.addInstruction(new ATHROW(new ArrayList<>()));
+
+                    method.setMethodBytecodes(stub);
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the number of reachable methods
+     *
+     * @return number of reachable methods
+     */
+    public int getReachableMethodsCount() {
+        return this.reachableMethods.size();
+    }
+
+    /**
+     * Marks a method as reachable
+     *
+     * @param method reachable method
+     */
+    private void markReachable(JCAClassMethod method) {
+        if (this.reachableMethods.add(method) && (method.getMethodBytecodes() != null)) {
+            this.pendingMethods.add(method);
+        }
+    }
+
+    /**
+     * Resolves a method reference of the constant pool
+     *
+     * @param jca   package where the reference is used
+     * @param index constant pool index
+     */
+    private void resolveMethodRef(JCAFile jca, int index) {
+        JCAConstantPoolEntry entry = getConstantPoolEntry(jca, index);
+        if (!(entry instanceof JCACPMethodSignature)) {
+            return;
+        }
+
+        JCACPMethodSignature ref = (JCACPMethodSignature) entry;
+        JCAObject object;
+        int token;
+
+        if (ref.hasToken()) {
+            object = this.packageSet.findClass(jca, new JCACPClassRef(ref.getPackageToken(), ref.getClassToken()));
+            token = ref.getMethodToken() & 0x00FF;
+        } else {
+            String name = ref.getMethodName();
+            object = (name.lastIndexOf('/') < 0) ? null
+                    : jca.getSymbolIndex().getObject(name.substring(0, name.lastIndexOf('/')));
+            token = -1;
+        }
+
+        if (object == null) {
+            return;
+        }
+
+        if (ref.getMethodType() == CPMethodSignatureType.STATIC_METHOD) {
+            for (JCAClassMethod method : object.getMethods()) {
+                if ((token == -1) ? method.getMethodSignature().getFullName().equals(ref.getMethodSignature())
+                        : (method.isHasToken() && (method.getMethodToken() == token))) {
+                    this.markReachable(method);
+                }
+            }
+            return;
+        }
+
+        if ((token == -1) && (object instanceof JCAClass)) {
+            token = JCAPackageSet.getVirtualToken((JCAClass) object, ref.getMethodSignature());
+        }
+
+        if (ref.getMethodType() == CPMethodSignatureType.SUPER_METHOD) {
+            this.resolveSuperCall(object, token, ref.getMethodSignature());
+            return;
+        }
+
+        if (token == -1) {
+            // The method is not in the method tables, the referenced method is kept
+            JCAClassMethod method = jca.getSymbolIndex().getMethod(object.getName(), ref.getMethodSignature());
+            if (method != null) {
+                this.markReachable(method);
+            }
+            return;
+        }
+
+        this.resolveVirtualCall(object, token);
+    }
+
+    /**
+     * Resolves an interface method reference
+     *
+     * @param jca   package where the reference is used
+     * @param index constant pool index of the interface
+     * @param token interface method token
+     */
+    private void resolveInterfaceRef(JCAFile jca, int index, int token) {
+        JCAConstantPoolEntry entry = getConstantPoolEntry(jca, index);
+        if (!(entry instanceof JCACPClassRef)) {
+            return;
+        }
+
+        JCAObject theInterface = this.packageSet.findClass(jca, (JCACPClassRef) entry);
+        if (theInterface == null) {
+            return;
+        }
+
+        for (JCAObject object : this.classPackages.keySet()) {
+            if (!(object instanceof JCAClass)) {
+                continue;
+            }
+
+            for (JCAImplementedInterfaceInfo info : ((JCAClass) object).getImplementedInterfaceInfoTable()) {
+                if ((this.packageSet.findClass(this.classPackages.get(object), info.getInterfaceName()) == theInterface)
+                        && (token < info.getImplementedMethods().size())) {
+                    this.resolveVirtualCall(object, info.getImplementedMethods().get(token) & 0x00FF);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves a virtual call: the method implementing the token in the class or its nearest super class, and the
+     * overriding methods of its sub classes are reachable. Package method tokens are only overridden in the same
+     * package.
+     *
+     * @param object class where the method is called
+     * @param token  virtual method token
+     */
+    private void resolveVirtualCall(JCAObject object, int token) {
+        if (!this.virtualCalls.add(Map.entry(object, token))) {
+            return;
+        }
+
+        boolean isPackageToken = (token & 0x80) != 0;
+
+        for (JCAObject superClass = object; superClass != null; superClass = this.superClasses.get(superClass)) {
+            if (isPackageToken && (this.classPackages.get(superClass) != this.classPackages.get(object))) {
+                break;
+            }
+
+            JCAClassMethod method = this.packageSet.getVirtualMethod(superClass, token);
+            if (method != null) {
+                this.markReachable(method);
+                break;
+            }
+        }
+
+        for (JCAObject subClass : this.classPackages.keySet()) {
+            if (isPackageToken && (this.classPackages.get(subClass) != this.classPackages.get(object))) {
+                continue;
+            }
+
+            if (this.isSubClass(subClass, object)) {
+                JCAClassMethod method = this.packageSet.getVirtualMethod(subClass, token);
+
+                if (method != null) {
+                    this.markReachable(method);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves a super call: the class of the reference is the calling class, so the method implementing the token
+     * in the nearest super class of the calling class is reachable. Without token, the methods of all the super
+     * classes having the same name and descriptor are kept.
+     *
+     * @param object    class where the method is called
+     * @param token     virtual method token, -1 if the method is not in the method tables
+     * @param signature full method signature of the reference
+     */
+    private void resolveSuperCall(JCAObject object, int token, String signature) {
+        String name = signature.substring(signature.lastIndexOf('/', signature.indexOf('(')) + 1);
+        boolean isPackageToken = (token != -1) && ((token & 0x80) != 0);
+
+        for (JCAObject superClass = this.superClasses.get(object); superClass != null;
+             superClass = this.superClasses.get(superClass)) {
+            if (isPackageToken && (this.classPackages.get(superClass) != this.classPackages.get(object))) {
+                break;
+            }
+
+            if (token == -1) {
+                for (JCAClassMethod method : superClass.getMethods()) {
+                    if (method.getMethodSignature().getFullName().endsWith("/" + name)) {
+                        this.markReachable(method);
+                    }
+                }
+                continue;
+            }
+
+            JCAClassMethod method = this.packageSet.getVirtualMethod(superClass, token);
+            if (method != null) {
+                this.markReachable(method);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Checks if a class is a sub class of another one
+     *
+     * @param object     class to check
+     * @param superClass super class
+     * @return <code>true</code> if the class extends, directly or not, the super class
+     */
+    private boolean isSubClass(JCAObject object, JCAObject superClass) {
+        for (JCAObject parent = this.superClasses.get(object); parent != null; parent = this.superClasses.get(parent)) {
+            if (parent == superClass) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets a constant pool entry
+     *
+     * @param jca   package of the constant pool
+     * @param index constant pool index
+     * @return the constant pool entry, <code>null</code> if there is no such entry
+     */
+    private static JCAConstantPoolEntry getConstantPoolEntry(JCAFile jca, int index) {
+        if ((jca.getConstantPool() == null) || (index >= jca.getConstantPool().getEntries().size())) {
+            return null;
+        }
+
+        return jca.getConstantPool().getEntries().get(index);
+    }
+
+    /**
+     * Gets the 2-byte constant pool index of an instruction
+     *
+     * @param instruction instruction referencing the constant pool
+     * @param offset      offset of the index in the instruction parameters
+     * @return constant pool index
+     */
+    private static int getConstantPoolIndex(Instruction instruction, int offset) {
+        return ((instruction.getParameters().get(offset) & 0x00FF) << 8)
+                | (instruction.getParameters().get(offset + 1) & 0x00FF);
+    }
+}
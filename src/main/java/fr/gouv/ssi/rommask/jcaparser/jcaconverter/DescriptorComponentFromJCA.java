@@ -27,9 +27,11 @@ package fr.gouv.ssi.rommask.jcaparser.jcaconverter;
  */
 
 import fr.gouv.ssi.rommask.jcaparser.*;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
 import fr.xlim.ssd.capmanipulator.library.*;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -170,6 +172,11 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
      */
     private ArrayList<MethodDescriptorInfo> methodDescriptorInfos;
 
+    /**
+     * Offsets of the type descriptors in the type_desc array, by nibble count and type value
+     */
+    private Map<ByteArray, Short> typeDescOffsets;
+
     /**
      * Class constructor
      *
@@ -196,6 +203,8 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
         types.setConstantPoolTypes(new ArrayList<>());
         types.setTypeDesc(new TreeMap<>());
         this.setTypes(types);
+
+        this.typeDescOffsets = new HashMap<>();
     }
 
     /**
@@ -222,21 +231,7 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
         } else /* if (object.hasToken()) {
             classDescriptorInfo.setToken((byte) object.getToken());
         } else */ {
-            byte token = 0;
-
-            for (JCAObject jcaObject : this.jca.getClaz().getClasses()) {
-                if (jcaObject.getAccessor() == JCAAccessor.PACKAGE) {
-                    continue;
-                }
-
-                if (jcaObject.getName().equals(object.getName())) {
-                    break;
-                }
-
-                token++;
-            }
-
-            classDescriptorInfo.setToken(token);
+            classDescriptorInfo.setToken(this.jca.getSymbolIndex().getClassToken(object.getName()));
         }
         // }}}
 
@@ -262,19 +257,11 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
 
         // {{{ Compute this_class_ref
         InternalClassRef classRef = new InternalClassRef();
-        short internal_class_ref_offset = 0;
-
-        for (JCAObject jcaObject : jca.getClaz().getClasses()) {
-            String classname = jcaObject.getName();
-
-            if (classname.equals(object.getName())) {
-                classRef.setInternalClassRef(internal_class_ref_offset);
-                classDescriptorInfo.setThisClassRef(classRef);
-                break;
-            }
-
-            internal_class_ref_offset += jcaObject.classSize();
+        JCASymbolIndex symbols = jca.getSymbolIndex();
 
+        if (symbols.getObject(object.getName()) != null) {
+            classRef.setInternalClassRef(symbols.getInternalClassRef(object.getName()));
+            classDescriptorInfo.setThisClassRef(classRef);
         }
         // }}}
 
@@ -293,14 +280,7 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
                 } else { // internal class ref
                     InternalClassRef internalClassRef = new InternalClassRef();
 
-                    short internal_class_ref_value = 0;
-                    for (JCAObject o : jca.getClaz().getClasses()) {
-                        if (o.getName().equals(jcaInterface.getName())) {
-                            break;
-                        }
-                        internal_class_ref_value += o.classSize();
-                    }
-                    internalClassRef.setInternalClassRef(internal_class_ref_value);
+                    internalClassRef.setInternalClassRef(symbols.getInternalClassRef(jcaInterface.getName()));
                     classDescriptorInfo.getInterfaces().add(internalClassRef);
                 }
             }
@@ -319,14 +299,7 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
                 } else { // internal class ref
                     InternalClassRef internalClassRef = new InternalClassRef();
 
-                    short internal_class_ref_value = 0;
-                    for (JCAObject o : jca.getClaz().getClasses()) {
-                        if (o.getName().equals(jcaClass.getName())) {
-                            break;
-                        }
-                        internal_class_ref_value += o.classSize();
-                    }
-                    internalClassRef.setInternalClassRef(internal_class_ref_value);
+                    internalClassRef.setInternalClassRef(symbols.getInternalClassRef(jcaClass.getName()));
                     classDescriptorInfo.getInterfaces().add(internalClassRef);
                 }
             }
@@ -389,8 +362,8 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
         // }}}
 
         /// {{{ Compute  methods
-        for (JCAClassMethod method : object.getMethods()) {
-            this.computeMethod(object, method);
+        for (int index = 0; index < object.getMethods().size(); index++) {
+            this.computeMethod(object, object.getMethods().get(index), index);
         }
         classDescriptorInfo.setMethods((ArrayList<MethodDescriptorInfo>) this.methodDescriptorInfos.clone());
         // }}}
@@ -518,15 +491,7 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
             InstanceField instanceField = new InstanceField();
             InternalClassRef classRef = new InternalClassRef();
 
-            short internal_class_ref_value = 0;
-            for (JCAObject o : jca.getClaz().getClasses()) {
-                if (o.getName().equals(object.getName())) {
-                    break;
-                }
-                internal_class_ref_value += o.classSize();
-            }
-
-            classRef.setInternalClassRef(internal_class_ref_value);
+            classRef.setInternalClassRef(jca.getSymbolIndex().getInternalClassRef(object.getName()));
             instanceField.setClass_(classRef);
 
             instanceField.setToken((byte) object.getFields().indexOf(field));
@@ -580,9 +545,10 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
      *
      * @param object object associated to the method to add
      * @param method method to add
+     * @param index  method index in the object methods list
      * @throws JCAConverterException Error during the JCA file analyze
      */
-    private void computeMethod(JCAObject object, JCAClassMethod method) throws JCAConverterException {
+    private void computeMethod(JCAObject object, JCAClassMethod method, int index) throws JCAConverterException {
         MethodDescriptorInfo methodDescriptorInfo = new MethodDescriptorInfo();
 
         // {{{ Compute token
@@ -596,18 +562,7 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
         } else if (method.isHasToken()) {
             methodDescriptorInfo.setToken((byte) method.getMethodToken());
         } else {
-            byte index = 0;
-            ArrayList<JCAClassMethod> methods = object.getMethods();
-            for (; index < methods.size(); index++) {
-                if (method == methods.get(index)) {
-                    methodDescriptorInfo.setToken(index);
-                    break;
-                }
-            }
-
-            if (index == methods.size()) {
-                throw new JCAConverterException("Method token value is unknown");
-            }
+            methodDescriptorInfo.setToken((byte) index);
         }
         // }}}
 
@@ -641,13 +596,14 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
         methodDescriptorInfo.setAccessFlags(method_access_flags);
         // }}}
 
+        String method_name = method.getMethodSignature().getFullName();
+        MethodComponentFromJCA methods = (MethodComponentFromJCA) this.cap.getMethodComponent();
+
         // {{{ Compute method_offset
         if (object instanceof JCAInterface) {
             short method_offset = 0;
             methodDescriptorInfo.setMethodOffset(method_offset);
         } else {
-            String method_name = method.getMethodSignature().getFullName();
-            MethodComponentFromJCA methods = (MethodComponentFromJCA) this.cap.getMethodComponent();
             Short method_offset = methods.getMethodsWithOffsets().get(method_name);
 
             if (method_offset == null) {
@@ -669,12 +625,9 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
         if (object instanceof JCAInterface) {
             methodDescriptorInfo.setBytecodeCount((short) 0);
         } else {
-            for (MethodInfo methodInfo : this.cap.getMethodComponent().getMethods()) {
-                MethodInfoFromJCA methodInfoFromJCA = (MethodInfoFromJCA) methodInfo;
-                if (methodInfoFromJCA.getFullMethodName().equals(method.getMethodSignature().getFullName())) {
-                    methodDescriptorInfo.setBytecodeCount((short) methodInfoFromJCA.getBytecodes().size());
-                    break;
-                }
+            MethodInfoFromJCA methodInfoFromJCA = methods.getConvertedMethod(method_name);
+            if (methodInfoFromJCA != null) {
+                methodDescriptorInfo.setBytecodeCount((short) methodInfoFromJCA.getBytecodes().size());
             }
         }
         // }}}
@@ -691,16 +644,9 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
         if (methodDescriptorInfo.getExceptionHandlerCount() == 0) {
             methodDescriptorInfo.setExceptionHandlerIndex((short) 0);
         } else {
-
-            for (short index = 0; index < this.cap.getMethodComponent().getExceptionHandlers().size(); index++) {
-                ExceptionHandlerInfoFromJCA exception
-                        = (ExceptionHandlerInfoFromJCA) this.cap.getMethodComponent().getExceptionHandlers().get(index);
-
-                String method_name = method.getMethodSignature().getFullName();
-                if (exception.getFullMethodName().equals(method_name)) {
-                    methodDescriptorInfo.setExceptionHandlerIndex(index);
-                    break;
-                }
+            Short handler_index = methods.getExceptionHandlerIndex(method_name);
+            if (handler_index != null) {
+                methodDescriptorInfo.setExceptionHandlerIndex(handler_index);
             }
         }
         // }}}
@@ -787,13 +733,7 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
             type_desc.getType().add((byte) ((package_token << 4) | ((referenceType.getClassToken() >> 4) & 0x0F)));
             type_desc.getType().add((byte) ((referenceType.getClassToken() << 4) | (TYPE_DESC_PADDING & 0x0F)));
         } else { // internal class ref
-            short internal_class_ref_value = 0;
-            for (JCAObject object2 : jca.getClaz().getClasses()) {
-                if (object2.getName().equals(referenceType.getName())) {
-                    break;
-                }
-                internal_class_ref_value += object2.classSize();
-            }
+            short internal_class_ref_value = jca.getSymbolIndex().getInternalClassRef(referenceType.getName());
             byte high = (byte) ((internal_class_ref_value >> 8) & 0x00FF);
             byte low = (byte) (internal_class_ref_value & 0x00FF);
 
@@ -812,17 +752,19 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
      * @return index in the type descriptor array of the type descriptor
      */
     public short addTypeDesc(TypeDescriptor typeDescriptor) {
-        Map<Short, TypeDescriptor> map = this.getTypes().getTypeDesc();
+        ByteArray key = new ByteArray(Byte.BYTES + typeDescriptor.getType().size());
+        key.add(typeDescriptor.getNibbleCount());
+        key.addAll(typeDescriptor.getType());
 
-        for (Map.Entry<Short, TypeDescriptor> it : map.entrySet()) {
-            if (it.getValue().equals(typeDescriptor)) {
-                return it.getKey();
-            }
+        Short known = this.typeDescOffsets.get(key);
+        if (known != null) {
+            return known;
         }
 
         // The type descriptor is not in the type_desc array
         short offset = this.offset_desc;
-        map.put(offset, typeDescriptor);
+        this.getTypes().getTypeDesc().put(offset, typeDescriptor);
+        this.typeDescOffsets.put(key, offset);
         this.offset_desc += Byte.BYTES + typeDescriptor.getType().size() * Byte.BYTES;
         return offset;
 
@@ -909,16 +851,10 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
                         }
 
                         if (!isFound) {
-                            short internal_class_ref_value = 0;
                             String name = type.getName();
                             int lastSlash = name.lastIndexOf("/");
                             String classname = name.substring(lastSlash + 1);
-                            for (JCAObject object2 : jca.getClaz().getClasses()) {
-                                if (object2.getName().equals(classname)) {
-                                    break;
-                                }
-                                internal_class_ref_value += object2.classSize();
-                            }
+                            short internal_class_ref_value = jca.getSymbolIndex().getInternalClassRef(classname);
                             byte high = (byte) ((internal_class_ref_value >> 8) & 0x00FF);
                             byte low = (byte) (internal_class_ref_value & 0x00FF);
 
@@ -1025,6 +961,7 @@ public class DescriptorComponentFromJCA extends DescriptorComponent implements C
         out.setClasses(classes);
 
         out.setTypes((TypeDescriptorInfo) this.getTypes().clone());
+        out.typeDescOffsets = new HashMap<>(this.typeDescOffsets);
 
         return out;
     }
@@ -182,59 +182,8 @@ public class HeaderComponentFromJCA extends HeaderComponent implements Component
      */
     private boolean methodBytecodeHasInt(JCAMethodBytecodes instructions) {
         for (Instruction instruction : instructions.getInstructions()) {
-            switch (instruction.getOpcode()) {
-                case I2B:
-                case I2S:
-                case S2I:
-                case IAND:
-                case IOR:
-                case IADD:
-                case IDIV:
-                case IMUL:
-                case IALOAD:
-                case IASTORE:
-                case ICMP:
-                case GETFIELD_I:
-                case GETFIELD_I_THIS:
-                case GETFIELD_I_W:
-                case PUTFIELD_I:
-                case PUTFIELD_I_THIS:
-                case PUTFIELD_I_W:
-                case GETSTATIC_I:
-                case PUTSTATIC_I:
-                case ICONST_M1:
-                case ICONST_0:
-                case ICONST_1:
-                case ICONST_2:
-                case ICONST_3:
-                case ICONST_4:
-                case ICONST_5:
-                case IIPUSH:
-                case BIPUSH:
-                case SIPUSH:
-                case ILOAD:
-                case ILOAD_0:
-                case ILOAD_1:
-                case ILOAD_2:
-                case ILOAD_3:
-                case ISTORE:
-                case ISTORE_0:
-                case ISTORE_1:
-                case ISTORE_2:
-                case ISTORE_3:
-                case IINC:
-                case IINC_W:
-                case INEG:
-                case IREM:
-                case IRETURN:
-                case ISHL:
-                case ISHR:
-                case ISUB:
-                case IUSHR:
-                case IXOR:
-                case ITABLESWITCH:
-                case ILOOKUPSWITCH:
-                    return true;
+            if (instruction.getOpcode().isIntInstruction()) {
+                return true;
             }
         }
         return false;
@@ -29,7 +29,6 @@ package fr.gouv.ssi.rommask.jcaparser.jcaconverter;
 import fr.gouv.ssi.rommask.jcaparser.JCACPClassRef;
 import fr.gouv.ssi.rommask.jcaparser.JCAFile;
 import fr.gouv.ssi.rommask.jcaparser.JCAInterface;
-import fr.gouv.ssi.rommask.jcaparser.JCAObject;
 import fr.xlim.ssd.capmanipulator.library.*;
 
 import java.util.ArrayList;
@@ -77,18 +76,8 @@ public class InterfaceInfoFromJCA extends InterfaceInfo implements ComponentUtil
 
                 superInterfaces.add(classRef);
             } else { // internal classref
-                short internal_class_ref_value = 0;
-
-                for (JCAObject object : jca.getClaz().getClasses()) {
-                    if (interfaz.getName().equals(object.getName())) {
-                        break;
-                    }
-
-                    internal_class_ref_value += object.classSize();
-                }
-
                 InternalClassRef classRef = new InternalClassRef();
-                classRef.setInternalClassRef(internal_class_ref_value);
+                classRef.setInternalClassRef(jca.getSymbolIndex().getInternalClassRef(interfaz.getName()));
 
                 superInterfaces.add(classRef);
             }
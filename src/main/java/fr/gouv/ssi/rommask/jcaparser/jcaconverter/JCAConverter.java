@@ -42,17 +42,25 @@ public class JCAConverter extends Throwable {
     /**
      * Convert a JCA file to a CAP file
      *
-     * @param jca JCA file to convert
+     * @param jca              JCA file to convert
+     * @param nativeMethodBase number of the first native method defined in the JCA file
+     * @param optimize         rewrite the method bytecodes into their shorter forms and compact the constant pool?
      * @return Converted CAP file
      * @throws JCAConverterException        Error during the JCA file analyzing
      * @throws ParseException               Error during the JCA file parsing
      * @throws UnableToReadCapFileException Unable to read the input JCA file
      */
-    public static CapFile converter(JCAFile jca) throws JCAConverterException, ParseException, UnableToReadCapFileException {
+    public static CapFile converter(JCAFile jca, short nativeMethodBase, boolean optimize) throws JCAConverterException, ParseException, UnableToReadCapFileException {
         CapFile cap = new CapFile();
 
         Component component;
 
+        // Optimizing the JCA file, the components are generated from the optimized bytecodes and constant pool
+        if (optimize) {
+            BytecodeOptimizer.optimize(jca);
+            ConstantPoolCompactor.compact(jca);
+        }
+
         // Generating the Static Field component [MANDATORY]
         component = new StaticFieldComponentFromJCA(jca);
         cap.getComponents().add(component);
@@ -67,7 +75,7 @@ public class JCAConverter extends Throwable {
         }
 
         // Generating the Method component [MANDATORY]
-        component = new MethodComponentFromJCA(jca);
+        component = new MethodComponentFromJCA(jca, nativeMethodBase);
         cap.getComponents().add(component);
 
         // Generating the Constant Pool component [MANDATORY]
@@ -29,8 +29,8 @@ package fr.gouv.ssi.rommask.jcaparser.jcaconverter;
 import fr.gouv.ssi.rommask.jcaparser.Instruction;
 import fr.gouv.ssi.rommask.jcaparser.*;
 import fr.gouv.ssi.rommask.jcaparser.bytecodes.InstructionWithLabelParameter;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
 import fr.xlim.ssd.capmanipulator.library.*;
-import fr.xlim.ssd.capmanipulator.library.read.MethodInfoRead;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -46,7 +46,12 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
     /**
      * List of package native methods
      */
-    private static ArrayList<JCANativeMethod> nativeMethods = new ArrayList<>();
+    private ArrayList<JCANativeMethod> nativeMethods;
+
+    /**
+     * Number of the first package native method. Native methods are numbered across all the packages of the mask.
+     */
+    private short nativeMethodBase;
 
     /**
      * Input JCA file used to generate CAP file
@@ -61,7 +66,7 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
     /**
      * Generated methods bytecodes
      */
-    private ArrayList<Byte> generatedMethodBytecodes;
+    private ByteArray generatedMethodBytecodes;
 
     /**
      * List of converted CAP file methods
@@ -73,37 +78,72 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
      */
     private ArrayList<ExceptionHandlerInfo> convertedExceptionsHandlers;
 
+    /**
+     * Converted methods by method full name
+     */
+    private Map<String, MethodInfoFromJCA> convertedMethodsByName;
+
+    /**
+     * Index of the first exception handler of each method, by method full name
+     */
+    private Map<String, Short> exceptionHandlerIndexes;
+
+    /**
+     * Offsets of the 1-byte constant pool indices in the method component, recorded while emitting bytecodes
+     */
+    private ArrayList<Short> byteIndices;
+
+    /**
+     * Offsets of the 2-byte constant pool indices in the method component, recorded while emitting bytecodes
+     */
+    private ArrayList<Short> byte2Indices;
+
     /**
      * Class constructor
      *
-     * @param jca JCA file used to generate method component
+     * @param jca              JCA file used to generate method component
+     * @param nativeMethodBase number of the first package native method
      */
-    public MethodComponentFromJCA(JCAFile jca) throws JCAConverterException {
+    public MethodComponentFromJCA(JCAFile jca, short nativeMethodBase) throws JCAConverterException {
         this.setTag((byte) ComponentEnum.METHOD_COMPONENT.getValue());
 
         this.jca = jca;
 
-        this.generatedMethodBytecodes = new ArrayList<>();
+        this.nativeMethods = new ArrayList<>();
+        this.nativeMethodBase = nativeMethodBase;
+
+        this.generatedMethodBytecodes = new ByteArray();
+        this.methodsWithOffsets = new HashMap<>();
+        this.convertedMethodsByName = new HashMap<>();
+        this.exceptionHandlerIndexes = new HashMap<>();
+        this.byteIndices = new ArrayList<>();
+        this.byte2Indices = new ArrayList<>();
 
         this.convertedMethods = new ArrayList<>();
         this.convertedExceptionsHandlers = new ArrayList<>();
 
+        // the exception handlers table precedes the methods: its size is needed to place them
         short exception_handler_count = 0;
         for (JCAObject object : jca.getClaz().getClasses()) {
             if (object instanceof JCAClass) {
                 for (JCAClassMethod method : object.getMethods()) {
-                    MethodInfo methodInfo = this.generateMethod(object.getName(), method);
-                    this.convertedMethods.add(methodInfo);
                     exception_handler_count += method.getMethodBytecodes().getExceptionsHandlers().size();
                 }
             }
         }
-        this.setMethods(this.convertedMethods);
 
         assert (exception_handler_count <= 255);
         this.setHandlerCount((byte) exception_handler_count);
 
-        this.generateMethodBytecodes();
+        for (JCAObject object : jca.getClaz().getClasses()) {
+            if (object instanceof JCAClass) {
+                for (JCAClassMethod method : object.getMethods()) {
+                    MethodInfo methodInfo = this.generateMethod(object.getName(), method);
+                    this.convertedMethods.add(methodInfo);
+                }
+            }
+        }
+        this.setMethods(this.convertedMethods);
 
         for (JCAObject object : jca.getClaz().getClasses()) {
             if (object instanceof JCAClass) {
@@ -112,6 +152,11 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
                         continue;
                     }
 
+                    if (!method.getMethodBytecodes().getExceptionsHandlers().isEmpty()) {
+                        this.exceptionHandlerIndexes.putIfAbsent(method.getMethodSignature().getFullName(),
+                                (short) this.convertedExceptionsHandlers.size());
+                    }
+
                     for (short index = 0; index < method.getMethodBytecodes().getExceptionsHandlers().size(); index++) {
                         convertedExceptionsHandlers.add(this.generateExceptionHandler(object.getName(), method, index));
                     }
@@ -132,16 +177,39 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
     }
 
     /**
-     * Get native methods to implement
+     * Get package native methods to implement
      *
-     * @return native methods to implement
+     * @return package native methods to implement
      */
-    public static ArrayList<JCANativeMethod> getNativeMethods() {
+    public ArrayList<JCANativeMethod> getNativeMethods() {
         return nativeMethods;
     }
 
     /**
-     * Generate method bytecode from JCA Classmethod
+     * Count the native methods defined in a JCA file
+     *
+     * @param jca JCA file to analyze
+     * @return number of native methods defined in the JCA file
+     */
+    public static short countNativeMethods(JCAFile jca) {
+        short count = 0;
+
+        for (JCAObject object : jca.getClaz().getClasses()) {
+            if (object instanceof JCAClass) {
+                for (JCAClassMethod method : object.getMethods()) {
+                    if (method.getMethodSignature().isNative()) {
+                        count++;
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Generate method bytecode from JCA Classmethod. The method header and bytecodes are appended to the generated
+     * method bytecodes and the constant pool indices locations are recorded while emitting.
      *
      * @param classname method class name
      * @param method    JCA method to convert
@@ -196,32 +264,69 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
         header.setMaxStack(max_stack);
         header.setNargs(nargs);
 
+        // Emit method header
+
+        short methodOffset = (short) (this.generatedMethodBytecodes.size()
+                + 4 * Short.BYTES * this.getHandlerCount() // exception_handlers
+                + Byte.BYTES // handler_count
+        );
+        short firstBytecodeOffset;
+
+        if (header instanceof ExtendedMethodHeaderInfo) {
+            this.generatedMethodBytecodes.add((byte) ((flags & 0x0F) << 4));
+            this.generatedMethodBytecodes.add(max_stack);
+            this.generatedMethodBytecodes.add(nargs);
+            this.generatedMethodBytecodes.add(max_locals);
+
+            firstBytecodeOffset = (short) (methodOffset + 4);
+        } else {
+            this.generatedMethodBytecodes.add((byte) (((flags & 0x0F) << 4) | (max_stack & 0x0F)));
+            this.generatedMethodBytecodes.add((byte) (((nargs & 0x0F) << 4) | (max_locals & 0x0F)));
+
+            firstBytecodeOffset = (short) (methodOffset + 2);
+        }
+
         // Generate method bytecodes
 
-        ArrayList<Short> jcaLabels = method.getMethodBytecodes().getLabels();
-        ArrayList<Byte> bytecodes = new ArrayList<>();
+        ByteArray bytecodes = new ByteArray();
 
         if (method.getMethodSignature().isNative()) { // native method
             JCANativeMethod nativeMethod = new JCANativeMethod(jca.getName(), method.getMethodSignature());
             nativeMethods.add(nativeMethod);
 
-            short native_method_number = (short) (nativeMethods.size() - 1);
+            short native_method_number = (short) (this.nativeMethodBase + nativeMethods.size() - 1);
             // SSPUSH <NATIVE METHOD NUMBER>
             bytecodes.add(Bytecode.SSPUSH.getValue());
             bytecodes.add((byte) (native_method_number >> 8));
             bytecodes.add((byte) (native_method_number & 0x00FF));
             bytecodes.add(Bytecode.IMPDEP1.getValue());
         } else {
+            // choosing the short or wide form of each branch before computing the label offsets
+            method.getMethodBytecodes().relaxBranches();
+
             short offset = 0;
             for (int index = 0; index < method.getMethodBytecodes().getInstructions().size(); index++) {
                 Instruction instruction = method.getMethodBytecodes().getInstructions().get(index);
+                Bytecode opcode = instruction.getOpcode();
+
+                // recording constant pool index location
+                switch (opcode.getRelocation()) {
+                    case BYTE_INDEX:
+                        this.byteIndices.add((short) (firstBytecodeOffset + offset + opcode.getRelocationOffset()));
+                        break;
+                    case BYTE2_INDEX:
+                        this.byte2Indices.add((short) (firstBytecodeOffset + offset + opcode.getRelocationOffset()));
+                        break;
+                    default:
+                        break;
+                }
 
-                bytecodes.add(instruction.getOpcode().getValue());
+                bytecodes.add(opcode.getValue());
 
                 // updating label offsets
                 if (instruction instanceof InstructionWithLabelParameter) {
                     InstructionWithLabelParameter instructionWLabels = (InstructionWithLabelParameter) instruction;
-                    instructionWLabels.updateLabels(jcaLabels, method.getMethodBytecodes().getInstructions(), offset);
+                    instructionWLabels.updateLabels(method.getMethodBytecodes(), offset);
                 }
 
                 bytecodes.addAll(instruction.getParameters());
@@ -229,7 +334,17 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
             }
         }
 
-        return new MethodInfoFromJCA(classname, method.getMethodSignature().getFullName(), header, bytecodes);
+        this.generatedMethodBytecodes.addAll(bytecodes);
+
+        MethodInfoFromJCA methodInfo =
+                new MethodInfoFromJCA(classname, method.getMethodSignature().getFullName(), header, bytecodes);
+
+        this.methodsWithOffsets.put(methodInfo.getFullMethodName(), methodOffset);
+        this.convertedMethodsByName.putIfAbsent(methodInfo.getFullMethodName(), methodInfo);
+        methodInfo.setMethodInfoOffset(methodOffset);
+        methodInfo.setFirstBytecodeOffset(firstBytecodeOffset);
+
+        return methodInfo;
     }
 
     /**
@@ -245,34 +360,24 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
 
         ExceptionHandlerInfoFromJCA exceptionHandlerInfo = new ExceptionHandlerInfoFromJCA(classname, method.getMethodSignature().getFullName());
 
-        ArrayList<Short> labels = method.getMethodBytecodes().getLabels();
-        short base;
-        try {
-            base = this.getMethodsWithOffsets().get(method.getMethodSignature().getFullName());
-        } catch (NullPointerException e) {
-            throw new NullPointerException("Unable to find method offset");
-        }
+        JCAMethodBytecodes bytecodes = method.getMethodBytecodes();
 
-        byte max_stack = method.getMethodBytecodes().getMethodStack();
-        byte max_locals = method.getMethodBytecodes().getMethodLocals();
-        if ((max_stack > 255) || (max_locals > 255)) {
-            base += 4;
-        } else {
-            base += 2;
+        // the offsets are relative to the first bytecode, after the method header emitted by generateMethod
+        MethodInfoFromJCA methodInfo = this.convertedMethodsByName.get(method.getMethodSignature().getFullName());
+        if (methodInfo == null) {
+            throw new NullPointerException("Unable to find method offset");
         }
+        short base = methodInfo.getFirstBytecodeOffset();
 
         short start_offset = base, stop_bit = 0, active_length = 0, handler_offset = base;
 
         // compute start_offset
-        for (int index = 0; index < labels.get(jcaExceptionHandler.getStartOffset()); index++) {
-            start_offset += method.getMethodBytecodes().getInstructions().get(index).getInstructionSize();
-        }
+        start_offset += bytecodes.getLabelOffset(jcaExceptionHandler.getStartOffset());
         exceptionHandlerInfo.setStartOffset(start_offset);
 
         // compute active length
-        for (int index = labels.get(jcaExceptionHandler.getStartOffset()); index < labels.get(jcaExceptionHandler.getEndOffset()); index++) {
-            active_length += method.getMethodBytecodes().getInstructions().get(index).getInstructionSize();
-        }
+        active_length = (short) (bytecodes.getLabelOffset(jcaExceptionHandler.getEndOffset())
+                - bytecodes.getLabelOffset(jcaExceptionHandler.getStartOffset()));
 
         // set stop bit
         stop_bit = 1;
@@ -289,9 +394,7 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
         exceptionHandlerInfo.setBitfield(bitfield);
 
         // compute handler_offset
-        for (int index = 0; index < labels.get(jcaExceptionHandler.getHandlerOffset()); index++) {
-            handler_offset += method.getMethodBytecodes().getInstructions().get(index).getInstructionSize();
-        }
+        handler_offset += bytecodes.getLabelOffset(jcaExceptionHandler.getHandlerOffset());
         exceptionHandlerInfo.setHandlerOffset(handler_offset);
 
         // compute catch type index
@@ -301,54 +404,32 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
     }
 
     /**
-     * Generation Method bytecodes array
+     * Get the methods name with offset in the generated method bytecodes byte-array
+     *
+     * @return the methods name with offset in the generated method bytecodes byte-array
      */
-    private void generateMethodBytecodes() {
-
-        this.methodsWithOffsets = new HashMap<>();
-        short convertedExceptionsHandleSize = (short) (4 * Short.BYTES * this.getHandlerCount());
-
-        for (MethodInfo method : this.convertedMethods) {
-            short offset = (short) (this.generatedMethodBytecodes.size()
-                    + convertedExceptionsHandleSize
-                    + Byte.BYTES // handler_count
-            );
-
-            this.methodsWithOffsets.put(((MethodInfoFromJCA) method).getFullMethodName(), offset);
-            method.setMethodInfoOffset(offset);
-
-            MethodHeaderInfo header = method.getMethodHeader();
-            if (header instanceof ExtendedMethodHeaderInfo) {
-                byte bitfield = (byte) ((header.getFlags() & 0x0F) << 4);
-                this.generatedMethodBytecodes.add(bitfield);
-                this.generatedMethodBytecodes.add(header.getMaxLocals());
-                this.generatedMethodBytecodes.add(header.getNargs());
-                this.generatedMethodBytecodes.add(header.getMaxLocals());
-
-                method.setFirstBytecodeOffset((short) (offset + 4));
-            } else {
-                byte bitfield1 = (byte) (((header.getFlags() & 0x0F) << 4) | (header.getMaxStack() & 0x0F));
-                this.generatedMethodBytecodes.add(bitfield1);
-                byte bitfield2 = (byte) (((header.getNargs() & 0x0F) << 4) | (header.getMaxLocals() & 0x0F));
-                this.generatedMethodBytecodes.add(bitfield2);
-
-                method.setFirstBytecodeOffset((short) (offset + 2));
-            }
-
-            MethodInfoRead methodInfoRead = new MethodInfoRead();
-            methodInfoRead.makeOpcodeArray(method);
+    public Map<String, Short> getMethodsWithOffsets() {
+        return methodsWithOffsets;
+    }
 
-            this.generatedMethodBytecodes.addAll(method.getBytecodes());
-        }
+    /**
+     * Get a converted method
+     *
+     * @param methodFullName method name with parameter and return type
+     * @return the converted method, null if it is not found
+     */
+    public MethodInfoFromJCA getConvertedMethod(String methodFullName) {
+        return this.convertedMethodsByName.get(methodFullName);
     }
 
     /**
-     * Get the methods name with offset in the generated method bytecodes byte-array
+     * Get the index of the first exception handler of a method
      *
-     * @return the methods name with offset in the generated method bytecodes byte-array
+     * @param methodFullName method name with parameter and return type
+     * @return index of the first method exception handler, null if the method has no exception handler
      */
-    public Map<String, Short> getMethodsWithOffsets() {
-        return methodsWithOffsets;
+    public Short getExceptionHandlerIndex(String methodFullName) {
+        return this.exceptionHandlerIndexes.get(methodFullName);
     }
 
     /**
@@ -356,7 +437,7 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
      *
      * @return all methods linked bytecodes in the byte array
      */
-    public ArrayList<Byte> getGeneratedMethodBytecodes() {
+    public ByteArray getGeneratedMethodBytecodes() {
         return generatedMethodBytecodes;
     }
 
@@ -365,73 +446,8 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
      *
      * @return position of the 1-byte token in the method component
      */
-    public ArrayList<Short> get1ByteIndices() throws JCAConverterException {
-        ArrayList<Short> offsetsToByteIndices = new ArrayList<>();
-
-        for (JCAObject object : this.jca.getClaz().getClasses()) {
-            if (object instanceof JCAClass) {
-                JCAClass claz = (JCAClass) object;
-                for (JCAClassMethod method : claz.getMethods()) {
-
-                    JCAClassMethodSignature signature = method.getMethodSignature();
-                    JCAMethodBytecodes methodBytecodes = method.getMethodBytecodes();
-                    short offset = this.getMethodsWithOffsets().get(signature.getFullName());
-
-                    byte nargs = 0;
-                    for (JCAType type : signature.getParameters()) {
-                        switch (type.getType()) {
-                            case BOOLEAN:
-                            case BYTE:
-                            case SHORT:
-                            case REFERENCE:
-                                nargs += 1 * Byte.BYTES;
-                                break;
-                            case INT:
-                                nargs += 2 * Byte.BYTES;
-                                break;
-                            default:
-                                throw new JCAConverterException("Method parameter type is unknown.");
-                        }
-                    }
-                    if (!method.isStatic()) {
-                        nargs += 1 * Byte.BYTES;
-                    }
-
-                    if ((methodBytecodes.getMethodLocals() > 255) || (methodBytecodes.getMethodStack() > 255) || (nargs > 255)) {
-                        offset += 4 * Byte.BYTES; // Extended method header
-                    } else {
-                        offset += 2 * Byte.BYTES; // method header
-                    }
-
-                    for (Instruction instruction : methodBytecodes.getInstructions()) {
-                        switch (instruction.getOpcode()) {
-                            case GETFIELD_A:
-                            case GETFIELD_B:
-                            case GETFIELD_S:
-                            case GETFIELD_I:
-                            case GETFIELD_A_THIS:
-                            case GETFIELD_B_THIS:
-                            case GETFIELD_S_THIS:
-                            case GETFIELD_I_THIS:
-
-                            case PUTFIELD_A:
-                            case PUTFIELD_B:
-                            case PUTFIELD_S:
-                            case PUTFIELD_I:
-                            case PUTFIELD_A_THIS:
-                            case PUTFIELD_B_THIS:
-                            case PUTFIELD_S_THIS:
-                            case PUTFIELD_I_THIS:
-                                offsetsToByteIndices.add((short) (offset + Byte.BYTES));
-                                break;
-                        }
-
-                        offset += instruction.getInstructionSize();
-                    }
-                }
-            }
-        }
-        return offsetsToByteIndices;
+    public ArrayList<Short> get1ByteIndices() {
+        return this.byteIndices;
     }
 
     /**
@@ -439,8 +455,8 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
      *
      * @return position of the 2-byte token in the method component
      */
-    public ArrayList<Short> get2ByteIndices() throws JCAConverterException {
-        ArrayList<Short> offsetsToByte2Indices = new ArrayList<>();
+    public ArrayList<Short> get2ByteIndices() {
+        ArrayList<Short> offsetsToByte2Indices = new ArrayList<>(this.convertedExceptionsHandlers.size() + this.byte2Indices.size());
 
         for (int index = 0; index < this.convertedExceptionsHandlers.size(); index++) {
             ExceptionHandlerInfoFromJCA exceptionHandlerInfo =
@@ -452,90 +468,8 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
             ));
         }
 
-        for (JCAObject object : this.jca.getClaz().getClasses()) {
-            if (object instanceof JCAClass) {
-                JCAClass claz = (JCAClass) object;
-                for (JCAClassMethod method : claz.getMethods()) {
-
-                    JCAClassMethodSignature signature = method.getMethodSignature();
-                    JCAMethodBytecodes methodBytecodes = method.getMethodBytecodes();
-                    short offset = this.getMethodsWithOffsets().get(signature.getFullName());
-
-                    byte nargs = 0;
-                    for (JCAType type : signature.getParameters()) {
-                        switch (type.getType()) {
-                            case BOOLEAN:
-                            case BYTE:
-                            case SHORT:
-                            case REFERENCE:
-                                nargs += 1 * Byte.BYTES;
-                                break;
-                            case INT:
-                                nargs += 2 * Byte.BYTES;
-                                break;
-                            default:
-                                throw new JCAConverterException("Method parameter type is unknown.");
-                        }
-                    }
-                    if (!method.isStatic()) {
-                        nargs += 1 * Byte.BYTES;
-                    }
-
-                    if ((methodBytecodes.getMethodLocals() > 255) || (methodBytecodes.getMethodStack() > 255) || (nargs > 255)) {
-                        offset += 4 * Byte.BYTES; // Extended method header
-                    } else {
-                        offset += 2 * Byte.BYTES; // method header
-                    }
+        offsetsToByte2Indices.addAll(this.byte2Indices);
 
-                    for (Instruction instruction : methodBytecodes.getInstructions()) {
-                        switch (instruction.getOpcode()) {
-                            case CHECKCAST:  // aType | 2-byte index
-                            case INSTANCEOF: // aType | 2-byte index
-                            case INVOKEINTERFACE: // nargs | 2-byte index | method
-                                offsetsToByte2Indices.add((short)
-                                        (offset + Byte.BYTES // instruction
-                                                + Byte.BYTES // 1st parameter
-                                        ));
-                                break;
-
-                            case ANEWARRAY:     // 2-byte index
-                            case NEW:           // 2-byte index
-
-                            case INVOKESPECIAL: // 2-byte index
-                            case INVOKESTATIC:  // 2-byte index
-                            case INVOKEVIRTUAL: // 2-byte index
-
-                            case GETFIELD_A_W:  // 2-byte index
-                            case GETFIELD_B_W:  // 2-byte index
-                            case GETFIELD_S_W:  // 2-byte index
-                            case GETFIELD_I_W:  // 2-byte index
-
-                            case PUTFIELD_A_W:  // 2-byte index
-                            case PUTFIELD_B_W:  // 2-byte index
-                            case PUTFIELD_S_W:  // 2-byte index
-                            case PUTFIELD_I_W:  // 2-byte index
-
-                            case GETSTATIC_A:   // 2-byte index
-                            case GETSTATIC_B:   // 2-byte index
-                            case GETSTATIC_S:   // 2-byte index
-                            case GETSTATIC_I:   // 2-byte index
-
-                            case PUTSTATIC_A:   // 2-byte index
-                            case PUTSTATIC_B:   // 2-byte index
-                            case PUTSTATIC_S:   // 2-byte index
-                            case PUTSTATIC_I:   // 2-byte index
-                                offsetsToByte2Indices.add((short)
-                                        (offset
-                                                + Byte.BYTES // instruction
-                                        ));
-                                break;
-                        }
-
-                        offset += instruction.getInstructionSize();
-                    }
-                }
-            }
-        }
         return offsetsToByte2Indices;
     }
 
@@ -566,6 +500,12 @@ public class MethodComponentFromJCA extends MethodComponent implements Component
 
         out.setHandlerCount(this.getHandlerCount());
 
+        out.nativeMethods = new ArrayList<>(this.nativeMethods);
+        out.nativeMethodBase = this.nativeMethodBase;
+
+        out.byteIndices = new ArrayList<>(this.byteIndices);
+        out.byte2Indices = new ArrayList<>(this.byte2Indices);
+
         ArrayList<ExceptionHandlerInfo> exceptionHandlers = new ArrayList<>();
         for (ExceptionHandlerInfo e : this.getExceptionHandlers()) {
             exceptionHandlers.add((ExceptionHandlerInfo) e.clone());
@@ -26,6 +26,7 @@ package fr.gouv.ssi.rommask.jcaparser.jcaconverter;
  * #L%
  */
 
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
 import fr.xlim.ssd.capmanipulator.library.ExtendedMethodHeaderInfo;
 import fr.xlim.ssd.capmanipulator.library.MethodHeaderInfo;
 import fr.xlim.ssd.capmanipulator.library.MethodInfo;
@@ -60,9 +61,9 @@ public class MethodInfoFromJCA extends MethodInfo implements ComponentUtils, Clo
      * @param header         method header
      * @param bytecode       method bytecode
      */
-    public MethodInfoFromJCA(String classname, String methodFullName, MethodHeaderInfo header, ArrayList<Byte> bytecode) {
+    public MethodInfoFromJCA(String classname, String methodFullName, MethodHeaderInfo header, ByteArray bytecode) {
         this.setMethodHeader(header);
-        this.setBytecodes(bytecode);
+        this.setBytecodes(bytecode.toArrayList());
         this.classname = classname;
         this.methodFullName = methodFullName;
     }
@@ -129,11 +130,13 @@ public class MethodInfoFromJCA extends MethodInfo implements ComponentUtils, Clo
         }
         out.setBytecodes(bytecodes);
 
-        TreeMap<Short, OpCode> opcodes = new TreeMap<>();
-        for (Map.Entry<Short, OpCode> entry : this.getOpcodeMap().entrySet()) {
-            opcodes.put(entry.getKey().shortValue(), (OpCode) entry.getValue().clone());
+        if (this.getOpcodeMap() != null) {
+            TreeMap<Short, OpCode> opcodes = new TreeMap<>();
+            for (Map.Entry<Short, OpCode> entry : this.getOpcodeMap().entrySet()) {
+                opcodes.put(entry.getKey().shortValue(), (OpCode) entry.getValue().clone());
+            }
+            out.setOpcodeMap(opcodes);
         }
-        out.setOpcodeMap(opcodes);
 
         out.classname = this.classname;
         out.methodFullName = this.methodFullName;
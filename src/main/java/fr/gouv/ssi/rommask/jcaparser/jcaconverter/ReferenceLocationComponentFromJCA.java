@@ -26,6 +26,7 @@ package fr.gouv.ssi.rommask.jcaparser.jcaconverter;
  * #L%
  */
 
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
 import fr.xlim.ssd.capmanipulator.library.CapFile;
 import fr.xlim.ssd.capmanipulator.library.ComponentEnum;
 import fr.xlim.ssd.capmanipulator.library.ReferenceLocationComponent;
@@ -49,13 +50,13 @@ public class ReferenceLocationComponentFromJCA extends ReferenceLocationComponen
 
         MethodComponentFromJCA methodComponent = (MethodComponentFromJCA) cap.getMethodComponent();
 
-        ArrayList<Byte> offsetsToByteIndices = this.shortArray2ByteArray(methodComponent.get1ByteIndices());
+        ByteArray offsetsToByteIndices = this.shortArray2ByteArray(methodComponent.get1ByteIndices());
         this.setByteIndexCount((short) offsetsToByteIndices.size());
-        this.setOffsetsToByteIndices(offsetsToByteIndices);
+        this.setOffsetsToByteIndices(offsetsToByteIndices.toArrayList());
 
-        ArrayList<Byte> offsetsToByte2Indices = this.shortArray2ByteArray(methodComponent.get2ByteIndices());
+        ByteArray offsetsToByte2Indices = this.shortArray2ByteArray(methodComponent.get2ByteIndices());
         this.setByte2IndexCount((short) offsetsToByte2Indices.size());
-        this.setOffsetsToByte2Indices(offsetsToByte2Indices);
+        this.setOffsetsToByte2Indices(offsetsToByte2Indices.toArrayList());
 
         this.setSize(this.computeComponentSize());
     }
@@ -66,8 +67,8 @@ public class ReferenceLocationComponentFromJCA extends ReferenceLocationComponen
      * @param in method component offsets short array
      * @return method component offsets byte array
      */
-    private ArrayList<Byte> shortArray2ByteArray(ArrayList<Short> in) {
-        ArrayList<Byte> out = new ArrayList<>();
+    private ByteArray shortArray2ByteArray(ArrayList<Short> in) {
+        ByteArray out = new ByteArray(in.size());
 
         for (int foo = 0; foo < in.size(); foo++) {
 
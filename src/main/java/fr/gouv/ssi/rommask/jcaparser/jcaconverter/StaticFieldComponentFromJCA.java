@@ -32,6 +32,7 @@ import fr.gouv.ssi.rommask.jcaparser.JCAClassField;
 import fr.gouv.ssi.rommask.jcaparser.JCAFile;
 import fr.gouv.ssi.rommask.jcaparser.JCAObject;
 import fr.gouv.ssi.rommask.jcaparser.Type;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
 import fr.xlim.ssd.capmanipulator.library.ArrayInitInfo;
 import fr.xlim.ssd.capmanipulator.library.ComponentEnum;
 import fr.xlim.ssd.capmanipulator.library.StaticFieldComponent;
@@ -253,7 +254,7 @@ public class StaticFieldComponentFromJCA extends StaticFieldComponent implements
                         {
                             ArrayInitInfo arrayInitInfo = new ArrayInitInfo();
 
-                            ArrayList<Byte> values = new ArrayList<>();
+                            ByteArray values = new ByteArray();
                             switch (field.getType().getType()) {
                                 case BOOLEAN:
                                     arrayInitInfo.setType(BOOLEAN_TYPE);
@@ -300,7 +301,7 @@ public class StaticFieldComponentFromJCA extends StaticFieldComponent implements
                                     this.setArrayInitCount((short) (this.getArrayInitCount() + 1));
                                     break;
                             }
-                            arrayInitInfo.setValues(values);
+                            arrayInitInfo.setValues(values.toArrayList());
 
                             this.getArrayInit().add(arrayInitInfo);
                         })
@@ -0,0 +1,130 @@
+package fr.gouv.ssi.rommask.jcaparser.mask;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.PrintWriter;
+
+/**
+ * Class to write the C-header of the static field decoder. The JCVM decodes with this routine the static fields
+ * written in flash with the encoded field type flag.
+ *
+ * @author Guillaume Bouffard
+ */
+public class JCStaticFieldDecoder {
+
+    /**
+     * Flag set on the type of encoded static fields
+     */
+    private final byte encodedFieldType;
+
+    /**
+     * Class constructor
+     *
+     * @param encodedFieldType flag set on the type of encoded static fields
+     */
+    public JCStaticFieldDecoder(byte encodedFieldType) {
+        this.encodedFieldType = encodedFieldType;
+    }
+
+    /**
+     * Writing C-Header file with:
+     * - The encoded field type flag
+     * - The static field decoder routine
+     *
+     * @param out stream to write the C-header
+     */
+    public void writeCHeader(PrintWriter out) {
+
+        out.write("/*\n");
+        out.write(" * This file was automatically generated.\n");
+        out.write(" *\n");
+        out.write(" * description: decoder of run-length encoded static fields.\n");
+        out.write("*/\n");
+
+        out.write("#ifndef JC_STATIC_FIELD_DECODER\n");
+        out.write("#define JC_STATIC_FIELD_DECODER\n\n");
+        // Includes
+        out.write("#include \"types.hpp\"\n");
+        out.write("\n");
+
+        out.write("/* ENCODED STATIC FIELD TYPE FLAG */\n");
+        out.write("#define FIELD_TYPE_ENCODED 0x" + String.format("%02X", this.encodedFieldType) + "\n\n");
+
+        // Writing namespace
+        out.write("namespace jcvm {\n\n");
+
+        out.write("/*\n");
+        out.write(" * Gets the decoded length of an encoded static field.\n");
+        out.write(" */\n");
+        out.write("static inline uint32_t jc_static_field_decoded_length(const uint8_t *in) {\n");
+        out.write("  return ((uint32_t) in[0] << 24) | ((uint32_t) in[1] << 16) | ((uint32_t) in[2] << 8) | in[3];\n");
+        out.write("}\n\n");
+
+        out.write("/*\n");
+        out.write(" * Decodes an encoded static field. Each run begins with a control byte:\n");
+        out.write(" *   0nnnnnnn: n + 1 literal bytes follow,\n");
+        out.write(" *   1nnnnnnn: the following byte is repeated n + 3 times.\n");
+        out.write(" * Returns the decoded length, or -1 if the encoded data are malformed.\n");
+        out.write(" */\n");
+        out.write("static inline int32_t jc_static_field_decode(const uint8_t *in, uint32_t in_len,\n");
+        out.write("                                             uint8_t *out, uint32_t out_len) {\n");
+        out.write("  if ((in_len < 4) || (jc_static_field_decoded_length(in) > out_len)) {\n");
+        out.write("    return -1;\n");
+        out.write("  }\n\n");
+        out.write("  uint32_t length = jc_static_field_decoded_length(in);\n");
+        out.write("  uint32_t i = 4;\n");
+        out.write("  uint32_t o = 0;\n\n");
+        out.write("  while (i < in_len) {\n");
+        out.write("    uint8_t control = in[i++];\n");
+        out.write("    uint32_t run;\n\n");
+        out.write("    if ((control & 0x80) == 0) {\n");
+        out.write("      run = control + 1;\n");
+        out.write("      if ((i + run > in_len) || (o + run > length)) {\n");
+        out.write("        return -1;\n");
+        out.write("      }\n");
+        out.write("      for (uint32_t k = 0; k < run; k++) {\n");
+        out.write("        out[o++] = in[i++];\n");
+        out.write("      }\n");
+        out.write("    } else {\n");
+        out.write("      run = (control & 0x7F) + 3;\n");
+        out.write("      if ((i >= in_len) || (o + run > length)) {\n");
+        out.write("        return -1;\n");
+        out.write("      }\n");
+        out.write("      for (uint32_t k = 0; k < run; k++) {\n");
+        out.write("        out[o++] = in[i];\n");
+        out.write("      }\n");
+        out.write("      i++;\n");
+        out.write("    }\n");
+        out.write("  }\n\n");
+        out.write("  return (o == length) ? (int32_t) length : -1;\n");
+        out.write("}\n\n");
+
+        out.write("} /* jcvm */\n");
+
+        out.write("\n#endif /* JC_STATIC_FIELD_DECODER */\n");
+    }
+}
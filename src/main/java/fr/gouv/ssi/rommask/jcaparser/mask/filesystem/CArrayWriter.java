@@ -0,0 +1,188 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * Class which writes the <code>flash_init</code> C declaration of binary data. Bytes are encoded through a lookup
+ * table into a reusable line buffer.
+ *
+ * @author Guillaume Bouffard
+ */
+public class CArrayWriter {
+
+    /**
+     * Amount of bytes per line
+     */
+    private static final int BYTES_PER_LINE = 0x10;
+
+    /**
+     * Out stream
+     */
+    private Writer out;
+
+    /**
+     * Shape of the written data
+     */
+    private CArrayFormat format;
+
+    /**
+     * Line buffer, large enough for the longest encoded byte
+     */
+    private char[] line;
+
+    /**
+     * Class constructor
+     *
+     * @param out    out stream
+     * @param format shape of the written data
+     */
+    public CArrayWriter(Writer out, CArrayFormat format) {
+        this.out = out;
+        this.format = format;
+        this.line = new char[BYTES_PER_LINE * "0xFF, ".length() + 4];
+    }
+
+    /**
+     * Writing the <code>flash_init</code> declaration
+     *
+     * @param data     data to write
+     * @param blobName name of the raw binary file included by the assembler stub
+     * @throws IOException
+     */
+    public void write(ByteBuffer data, String blobName) throws IOException {
+        switch (this.format) {
+            case ARRAY:
+                this.writeArray(data);
+                break;
+            case STRING:
+                this.writeString(data);
+                break;
+            case INCBIN:
+                this.writeIncbin(blobName);
+                break;
+            default:
+                throw new IOException("Wrong C array format");
+        }
+    }
+
+    /**
+     * Writing data as an initializer list
+     *
+     * @param data data to write
+     * @throws IOException
+     */
+    private void writeArray(ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        int position = data.position();
+
+        this.out.write("uint8_t __attribute__ ((packed)) flash_init[] = {\n");
+        for (int index = 0; index < length; ) {
+            int lineLength = 0;
+            int end = Math.min(index + BYTES_PER_LINE, length);
+
+            for (; index < end; index++) {
+                int value = data.get(position + index) & 0xFF;
+                this.line[lineLength++] = '0';
+                this.line[lineLength++] = 'x';
+                this.line[lineLength++] = HexRecordWriter.HEX_TABLE[2 * value];
+                this.line[lineLength++] = HexRecordWriter.HEX_TABLE[2 * value + 1];
+
+                if ((index + 1) < length) {
+                    this.line[lineLength++] = ',';
+                    this.line[lineLength++] = ' ';
+                }
+            }
+
+            if ((index % BYTES_PER_LINE) == 0) {
+                this.line[lineLength++] = '\n';
+            }
+
+            this.out.write(this.line, 0, lineLength);
+        }
+        this.out.write("};\n");
+    }
+
+    /**
+     * Writing data as a string literal. The compiler appends a NUL byte after the data.
+     *
+     * @param data data to write
+     * @throws IOException
+     */
+    private void writeString(ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        int position = data.position();
+
+        this.out.write("uint8_t __attribute__ ((packed)) flash_init[] =\n");
+        for (int index = 0; index < length; ) {
+            int lineLength = 0;
+            int end = Math.min(index + BYTES_PER_LINE, length);
+
+            this.line[lineLength++] = '"';
+            for (; index < end; index++) {
+                int value = data.get(position + index) & 0xFF;
+                this.line[lineLength++] = '\\';
+                this.line[lineLength++] = 'x';
+                this.line[lineLength++] = HexRecordWriter.HEX_TABLE[2 * value];
+                this.line[lineLength++] = HexRecordWriter.HEX_TABLE[2 * value + 1];
+            }
+            this.line[lineLength++] = '"';
+            this.line[lineLength++] = '\n';
+
+            this.out.write(this.line, 0, lineLength);
+        }
+
+        if (length == 0) {
+            this.out.write("\"\"\n");
+        }
+        this.out.write(";\n");
+    }
+
+    /**
+     * Writing an assembler stub which includes data from a raw binary file. The file is looked up by the assembler in
+     * its include path. As in the ELF object, the data size is the address of the absolute <code>flash_init_size</code>
+     * symbol.
+     *
+     * @param blobName name of the raw binary file
+     * @throws IOException
+     */
+    private void writeIncbin(String blobName) throws IOException {
+        this.out.write("extern uint8_t flash_init[];\n");
+        this.out.write("extern uint8_t flash_init_size[];\n");
+        this.out.write("__asm__(\n");
+        this.out.write("  \".pushsection .data.flash_init, \\\"aw\\\"\\n\"\n");
+        this.out.write("  \".global flash_init\\n\"\n");
+        this.out.write("  \"flash_init:\\n\"\n");
+        this.out.write("  \".incbin \\\"" + blobName.replace("\\", "\\\\\\\\").replace("\"", "\\\\\\\"") + "\\\"\\n\"\n");
+        this.out.write("  \".global flash_init_size\\n\"\n");
+        this.out.write("  \".set flash_init_size, . - flash_init\\n\"\n");
+        this.out.write("  \".popsection\\n\"\n");
+        this.out.write(");\n");
+    }
+}
@@ -0,0 +1,161 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.JCANativeMethod;
+import fr.xlim.ssd.capmanipulator.library.PackageInfo;
+
+import java.util.ArrayList;
+
+/**
+ * Package converted during a previous run and stored in the package cache
+ *
+ * @author Guillaume Bouffard
+ */
+public class CachedPackage {
+
+    /**
+     * Package name
+     */
+    private String name;
+
+    /**
+     * Package information (AID and version)
+     */
+    private PackageInfo packageInfo;
+
+    /**
+     * Packages imported by the package
+     */
+    private ArrayList<PackageInfo> importedPackages;
+
+    /**
+     * Number of the first package native method used to generate the CAP file
+     */
+    private short nativeMethodBase;
+
+    /**
+     * Package native methods
+     */
+    private ArrayList<JCANativeMethod> nativeMethods;
+
+    /**
+     * Package to write in flash
+     */
+    private FlashPackage flashPackage;
+
+    /**
+     * Package static fields to write in flash
+     */
+    private ArrayList<FlashStaticField> staticFields;
+
+    /**
+     * Class constructor
+     *
+     * @param name             package name
+     * @param packageInfo      package information
+     * @param importedPackages packages imported by the package
+     * @param nativeMethodBase number of the first package native method
+     * @param nativeMethods    package native methods
+     * @param flashPackage     package to write in flash
+     * @param staticFields     package static fields to write in flash
+     */
+    public CachedPackage(String name, PackageInfo packageInfo, ArrayList<PackageInfo> importedPackages,
+                         short nativeMethodBase, ArrayList<JCANativeMethod> nativeMethods,
+                         FlashPackage flashPackage, ArrayList<FlashStaticField> staticFields) {
+        this.name = name;
+        this.packageInfo = packageInfo;
+        this.importedPackages = importedPackages;
+        this.nativeMethodBase = nativeMethodBase;
+        this.nativeMethods = nativeMethods;
+        this.flashPackage = flashPackage;
+        this.staticFields = staticFields;
+    }
+
+    /**
+     * Gets package name
+     *
+     * @return package name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets package information
+     *
+     * @return package information
+     */
+    public PackageInfo getPackageInfo() {
+        return packageInfo;
+    }
+
+    /**
+     * Gets packages imported by the package
+     *
+     * @return packages imported by the package
+     */
+    public ArrayList<PackageInfo> getImportedPackages() {
+        return importedPackages;
+    }
+
+    /**
+     * Gets number of the first package native method
+     *
+     * @return number of the first package native method
+     */
+    public short getNativeMethodBase() {
+        return nativeMethodBase;
+    }
+
+    /**
+     * Gets package native methods
+     *
+     * @return package native methods
+     */
+    public ArrayList<JCANativeMethod> getNativeMethods() {
+        return nativeMethods;
+    }
+
+    /**
+     * Gets package to write in flash
+     *
+     * @return package to write in flash
+     */
+    public FlashPackage getFlashPackage() {
+        return flashPackage;
+    }
+
+    /**
+     * Gets package static fields to write in flash
+     *
+     * @return package static fields to write in flash
+     */
+    public ArrayList<FlashStaticField> getStaticFields() {
+        return staticFields;
+    }
+}
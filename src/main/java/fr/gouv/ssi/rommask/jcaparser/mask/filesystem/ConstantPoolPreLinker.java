@@ -0,0 +1,350 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.*;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.JCAConverterException;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class which pre-links the constant pools of the packages written in flash regarding the CHOUPI operating system.
+ * Since all the packages are known when the mask is built, each constant pool entry, internal or external, is
+ * resolved to the package index, the class offset and the method offset (or static field index) in the final image.
+ * The pre-linked constant pool has an entry for each entry of the CAP file constant pool, with the same index:
+ * <pre>
+ * u1 tag            constant pool entry tag, as in the CAP file
+ * u1 package        package index of the resolved class
+ * u2 class_offset   offset of the resolved class in the class component of the package
+ * u2 offset         method offset in the method component of the package for static, virtual and super
+ *                   methods, static field index for static fields, 0xFFFF otherwise
+ * u1 token          virtual method or instance field token, 0xFF otherwise
+ * u1 padding
+ * </pre>
+ * A virtual method entry is resolved to the method implementing the token in the referenced class or its nearest
+ * super class. The token is kept to dispatch the call on the class of the object, its offset is 0xFFFF if the
+ * method is abstract. The class of a super method entry is the class calling it, so the lookup starts at its super
+ * class.
+ *
+ * @author Guillaume Bouffard
+ */
+public class ConstantPoolPreLinker {
+
+    /**
+     * Size of a pre-linked constant pool entry
+     */
+    public static final int ENTRY_SIZE = 8;
+
+    /**
+     * Constant pool tag value for class references
+     */
+    private static final byte CONSTANT_CLASSREF = 1;
+
+    /**
+     * Constant pool tag value for instance field references
+     */
+    private static final byte CONSTANT_INSTANCEFIELDREF = 2;
+
+    /**
+     * Constant pool tag value for virtual method references
+     */
+    private static final byte CONSTANT_VIRTUALMETHODREF = 3;
+
+    /**
+     * Constant pool tag value for super method references
+     */
+    private static final byte CONSTANT_SUPERMETHODREF = 4;
+
+    /**
+     * Constant pool tag value for static field references
+     */
+    private static final byte CONSTANT_STATICFIELDREF = 5;
+
+    /**
+     * Constant pool tag value for static method references
+     */
+    private static final byte CONSTANT_STATICMETHODREF = 6;
+
+    /**
+     * Value of the unused offsets
+     */
+    private static final short NO_OFFSET = (short) 0xFFFF;
+
+    /**
+     * Value of the unused tokens
+     */
+    private static final byte NO_TOKEN = (byte) 0xFF;
+
+    /**
+     * Resolver of the classes and methods written in flash
+     */
+    private final PackageResolver resolver;
+
+    /**
+     * Flash static field index of each static field name, by package index
+     */
+    private final Map<Integer, Map<String, Integer>> staticFieldIndexes;
+
+    /**
+     * Class constructor
+     *
+     * @param resolver           resolver of the classes and methods written in flash
+     * @param staticFieldIndexes flash static field index of each static field name, by package index
+     */
+    public ConstantPoolPreLinker(PackageResolver resolver, Map<Integer, Map<String, Integer>> staticFieldIndexes) {
+        this.resolver = resolver;
+        this.staticFieldIndexes = staticFieldIndexes;
+    }
+
+    /**
+     * Pre-linking the constant pool of a package
+     *
+     * @param packageNumber package index
+     * @return pre-linked constant pool
+     * @throws JCAConverterException A constant pool entry can't be resolved in the packages written in flash
+     */
+    public byte[] preLink(int packageNumber) throws JCAConverterException {
+        JCAFile jca = this.resolver.getJCAFile(packageNumber);
+        ByteArray out = new ByteArray();
+
+        if (jca.getConstantPool() == null) {
+            return out.toByteArray();
+        }
+
+        for (JCAConstantPoolEntry entry : jca.getConstantPool().getEntries()) {
+            if (entry instanceof JCACPClassRef) {
+                JCAObject object = this.resolver.resolveClass(jca, (JCACPClassRef) entry);
+                this.addEntry(out, CONSTANT_CLASSREF, object, NO_OFFSET, NO_TOKEN);
+
+            } else if (entry instanceof JCACPInstanceFieldRef) {
+                JCACPInstanceFieldRef ref = (JCACPInstanceFieldRef) entry;
+                JCAObject object = this.resolver.resolveClass(jca, getClassRef(ref));
+                byte token = ref.hasToken() ? ref.getFieldToken()
+                        : (byte) this.getField(object, ref.getName()).getFieldToken();
+
+                this.addEntry(out, CONSTANT_INSTANCEFIELDREF, object, NO_OFFSET, token);
+
+            } else if (entry instanceof JCACPStaticFieldRef) {
+                JCACPStaticFieldRef ref = (JCACPStaticFieldRef) entry;
+                JCAObject object = this.resolver.resolveClass(jca, getClassRef(ref));
+                JCAClassField field = ref.hasToken() ? this.getStaticField(object, ref.getFieldToken() & 0x00FF)
+                        : this.getField(object, ref.getName());
+
+                Integer index = this.staticFieldIndexes.getOrDefault(this.resolver.getPackageNumber(object), new HashMap<>())
+                        .get(field.getName());
+                if (index == null) {
+                    throw new JCAConverterException("The static field " + field.getName() + " is not written in flash");
+                }
+
+                this.addEntry(out, CONSTANT_STATICFIELDREF, object, index.shortValue(), NO_TOKEN);
+
+            } else if (entry instanceof JCACPMethodSignature) {
+                JCACPMethodSignature ref = (JCACPMethodSignature) entry;
+                JCAObject object = this.resolver.resolveClass(jca, getClassRef(ref));
+
+                switch (ref.getMethodType()) {
+                    case STATIC_METHOD:
+                        JCAClassMethod method = this.getStaticMethod(object, ref);
+                        this.addEntry(out, CONSTANT_STATICMETHODREF, object, this.resolver.getMethodOffset(method),
+                                NO_TOKEN);
+                        break;
+                    case SUPER_METHOD:
+                        this.addVirtualEntry(out, CONSTANT_SUPERMETHODREF, object, ref);
+                        break;
+                    case VIRTUAL_METHOD:
+                        this.addVirtualEntry(out, CONSTANT_VIRTUALMETHODREF, object, ref);
+                        break;
+                }
+
+            } else { // default case => ERROR
+                throw new JCAConverterException("Constant pool type is unknown");
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Appends a pre-linked constant pool entry
+     *
+     * @param out    pre-linked constant pool
+     * @param tag    constant pool entry tag
+     * @param object resolved class
+     * @param offset method offset or static field index
+     * @param token  virtual method or instance field token
+     */
+    private void addEntry(ByteArray out, byte tag, JCAObject object, short offset, byte token) {
+        out.add(tag);
+        out.add((byte) this.resolver.getPackageNumber(object));
+        out.addShort(this.resolver.getClassOffset(object));
+        out.addShort(offset);
+        out.add(token);
+        out.add((byte) 0);
+    }
+
+    /**
+     * Appends a pre-linked virtual or super method entry. The method implementing the token is looked up from the
+     * referenced class, or its super class for a super method, to their super classes.
+     *
+     * @param out    pre-linked constant pool
+     * @param tag    constant pool entry tag
+     * @param object referenced class
+     * @param ref    method reference
+     * @throws JCAConverterException The method token is unknown or a super method is not implemented
+     */
+    private void addVirtualEntry(ByteArray out, byte tag, JCAObject object, JCACPMethodSignature ref)
+            throws JCAConverterException {
+        int token = -1;
+
+        if (ref.hasToken()) {
+            token = ref.getMethodToken() & 0x00FF;
+        } else if (object instanceof JCAClass) {
+            token = JCAPackageSet.getVirtualToken((JCAClass) object, ref.getMethodSignature());
+        }
+
+        if (token == -1) {
+            throw new JCAConverterException("Unable to find the token of " + ref.getMethodSignature());
+        }
+
+        JCAObject lookupClass = (tag == CONSTANT_SUPERMETHODREF) ? this.resolver.getSuperClass(object) : object;
+        JCAClassMethod method = (lookupClass == null) ? null
+                : this.resolver.getVirtualImplementation(lookupClass, token);
+        if (method != null) {
+            this.addEntry(out, tag, this.resolver.getMethodClass(method), this.resolver.getMethodOffset(method),
+                    (byte) token);
+            return;
+        }
+
+        if (tag == CONSTANT_SUPERMETHODREF) {
+            throw new JCAConverterException("Unable to find the implementation of " + ref.getMethodSignature());
+        }
+
+        this.addEntry(out, tag, object, NO_OFFSET, (byte) token);
+    }
+
+    /**
+     * Gets a field of a class
+     *
+     * @param object class
+     * @param name   full field name
+     * @return field
+     * @throws JCAConverterException The class does not define this field
+     */
+    private JCAClassField getField(JCAObject object, String name) throws JCAConverterException {
+        for (JCAClassField field : object.getFields()) {
+            if (field.getName().equals(name)) {
+                return field;
+            }
+        }
+
+        throw new JCAConverterException("Unable to find the field " + name);
+    }
+
+    /**
+     * Gets a static field of a class from its token
+     *
+     * @param object class
+     * @param token  static field token
+     * @return static field
+     * @throws JCAConverterException The class does not define this token
+     */
+    private JCAClassField getStaticField(JCAObject object, int token) throws JCAConverterException {
+        for (JCAClassField field : object.getFields()) {
+            if (field.isStatic() && field.isHasToken() && (field.getFieldToken() == token)) {
+                return field;
+            }
+        }
+
+        throw new JCAConverterException("Unable to find the static field " + token + " of " + object.getName());
+    }
+
+    /**
+     * Gets the static method (or constructor) of a class referenced by a static method reference
+     *
+     * @param object class
+     * @param ref    static method reference
+     * @return static method
+     * @throws JCAConverterException The class does not define this method
+     */
+    private JCAClassMethod getStaticMethod(JCAObject object, JCACPMethodSignature ref) throws JCAConverterException {
+        for (JCAClassMethod method : object.getMethods()) {
+            if (ref.hasToken()) {
+                boolean isStatic = method.isStatic() || method.getMethodSignature().getName().contains("<init>");
+
+                if (isStatic && method.isHasToken() && (method.getMethodToken() == (ref.getMethodToken() & 0x00FF))) {
+                    return method;
+                }
+            } else if (method.getMethodSignature().getFullName().equals(ref.getMethodSignature())) {
+                return method;
+            }
+        }
+
+        throw new JCAConverterException("Unable to find the static method " + ref);
+    }
+
+    /**
+     * Gets the class reference of a field reference
+     *
+     * @param ref field reference
+     * @return class reference
+     */
+    private static JCACPClassRef getClassRef(JCACPFieldRef ref) {
+        if (ref.hasToken()) {
+            return new JCACPClassRef(ref.getPackageToken(), ref.getClassToken());
+        }
+
+        return new JCACPClassRef(getClassName(ref.getName()));
+    }
+
+    /**
+     * Gets the class reference of a method reference
+     *
+     * @param ref method reference
+     * @return class reference
+     */
+    private static JCACPClassRef getClassRef(JCACPMethodSignature ref) {
+        if (ref.hasToken()) {
+            return new JCACPClassRef(ref.getPackageToken(), ref.getClassToken());
+        }
+
+        return new JCACPClassRef(getClassName(ref.getMethodName()));
+    }
+
+    /**
+     * Gets the class name of a full member name
+     *
+     * @param name full member name
+     * @return class name, the empty string if the name is not qualified
+     */
+    private static String getClassName(String name) {
+        int lastSlash = name.lastIndexOf('/');
+
+        return (lastSlash < 0) ? "" : name.substring(0, lastSlash);
+    }
+}
@@ -0,0 +1,314 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.util.ChannelUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class which writes binary data as an ELF32 relocatable object for ARM little-endian targets. Data are put in an
+ * allocated section with a global <code>flash_init</code> object symbol and an absolute
+ * <code>flash_init_size</code> symbol, so the linker places the image without compiling a C file.
+ *
+ * @author Guillaume Bouffard
+ */
+public class ElfObjectWriter {
+
+    /**
+     * Default name of the section where data are put
+     */
+    public static final String DEFAULT_SECTION_NAME = ".jcvm_flash";
+
+    /**
+     * ELF header size
+     */
+    private static final int ELF_HEADER_SIZE = 52;
+
+    /**
+     * Section header size
+     */
+    private static final int SECTION_HEADER_SIZE = 40;
+
+    /**
+     * Symbol table entry size
+     */
+    private static final int SYMBOL_SIZE = 16;
+
+    /**
+     * Relocatable file type
+     */
+    private static final short ET_REL = 1;
+
+    /**
+     * ARM machine
+     */
+    private static final short EM_ARM = 40;
+
+    /**
+     * ARM EABI version 5 flag
+     */
+    private static final int EF_ARM_EABI_VER5 = 0x05000000;
+
+    /**
+     * Program data section type
+     */
+    private static final int SHT_PROGBITS = 1;
+
+    /**
+     * Symbol table section type
+     */
+    private static final int SHT_SYMTAB = 2;
+
+    /**
+     * String table section type
+     */
+    private static final int SHT_STRTAB = 3;
+
+    /**
+     * Section occupying memory flag
+     */
+    private static final int SHF_ALLOC = 0x2;
+
+    /**
+     * Absolute symbol section index
+     */
+    private static final short SHN_ABS = (short) 0xFFF1;
+
+    /**
+     * Section index of data
+     */
+    private static final short DATA_SECTION = 1;
+
+    /**
+     * Section index of the symbol string table
+     */
+    private static final short STRTAB_SECTION = 3;
+
+    /**
+     * Section index of the section name string table
+     */
+    private static final short SHSTRTAB_SECTION = 5;
+
+    /**
+     * Amount of sections, the null one included
+     */
+    private static final short SECTION_COUNT = 6;
+
+    /**
+     * Name of the section where data are put
+     */
+    private String sectionName;
+
+    /**
+     * Class constructor
+     *
+     * @param sectionName name of the section where data are put
+     */
+    public ElfObjectWriter(String sectionName) {
+        this.sectionName = sectionName;
+    }
+
+    /**
+     * Writing data as an ELF relocatable object
+     *
+     * @param out  out channel
+     * @param data data to write
+     * @throws IOException
+     */
+    public void write(WritableByteChannel out, ByteBuffer data) throws IOException {
+        int length = data.remaining();
+
+        // String tables
+        StringTable strtab = new StringTable();
+        int flashInitName = strtab.add("flash_init");
+        int flashInitSizeName = strtab.add("flash_init_size");
+
+        StringTable shstrtab = new StringTable();
+        int dataName = shstrtab.add(this.sectionName);
+        int symtabName = shstrtab.add(".symtab");
+        int strtabName = shstrtab.add(".strtab");
+        int stackName = shstrtab.add(".note.GNU-stack");
+        int shstrtabName = shstrtab.add(".shstrtab");
+
+        // Symbol table: null symbol, section symbol, then global symbols
+        ByteBuffer symtab = ByteBuffer.allocate(4 * SYMBOL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.putSymbol(symtab, 0, 0, 0, (byte) 0, (short) 0);
+        this.putSymbol(symtab, 0, 0, 0, (byte) 0x03, DATA_SECTION);                         // LOCAL SECTION
+        this.putSymbol(symtab, flashInitName, 0, length, (byte) 0x11, DATA_SECTION);        // GLOBAL OBJECT
+        this.putSymbol(symtab, flashInitSizeName, length, 0, (byte) 0x10, SHN_ABS);         // GLOBAL NOTYPE
+        symtab.flip();
+
+        // File layout
+        int dataOffset = ELF_HEADER_SIZE;
+        int symtabOffset = align(dataOffset + length, 4);
+        int strtabOffset = symtabOffset + symtab.remaining();
+        int shstrtabOffset = strtabOffset + strtab.size();
+        int sectionsOffset = align(shstrtabOffset + shstrtab.size(), 4);
+
+        ByteBuffer header = ByteBuffer.allocate(ELF_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{0x7F, 'E', 'L', 'F', 1 /* 32-bit */, 1 /* little-endian */, 1 /* version */, 0});
+        header.put(new byte[8]);
+        header.putShort(ET_REL);
+        header.putShort(EM_ARM);
+        header.putInt(1);                    // version
+        header.putInt(0);                    // entry
+        header.putInt(0);                    // program headers offset
+        header.putInt(sectionsOffset);       // section headers offset
+        header.putInt(EF_ARM_EABI_VER5);
+        header.putShort((short) ELF_HEADER_SIZE);
+        header.putShort((short) 0);          // program header size
+        header.putShort((short) 0);          // program header count
+        header.putShort((short) SECTION_HEADER_SIZE);
+        header.putShort(SECTION_COUNT);
+        header.putShort(SHSTRTAB_SECTION);
+        header.flip();
+
+        ByteBuffer sections = ByteBuffer.allocate(SECTION_COUNT * SECTION_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.putSection(sections, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+        this.putSection(sections, dataName, SHT_PROGBITS, SHF_ALLOC, dataOffset, length, 0, 0, 4, 0);
+        this.putSection(sections, symtabName, SHT_SYMTAB, 0, symtabOffset, symtab.remaining(), STRTAB_SECTION, 2,
+                4, SYMBOL_SIZE);
+        this.putSection(sections, strtabName, SHT_STRTAB, 0, strtabOffset, strtab.size(), 0, 0, 1, 0);
+        this.putSection(sections, stackName, SHT_PROGBITS, 0, symtabOffset, 0, 0, 0, 1, 0);
+        this.putSection(sections, shstrtabName, SHT_STRTAB, 0, shstrtabOffset, shstrtab.size(), 0, 0, 1, 0);
+        sections.flip();
+
+        ChannelUtils.writeFully(out, header);
+        ChannelUtils.writeFully(out, data.duplicate());
+        ChannelUtils.writeFully(out, ByteBuffer.allocate(symtabOffset - (dataOffset + length)));
+        ChannelUtils.writeFully(out, symtab);
+        ChannelUtils.writeFully(out, strtab.toBuffer());
+        ChannelUtils.writeFully(out, shstrtab.toBuffer());
+        ChannelUtils.writeFully(out, ByteBuffer.allocate(sectionsOffset - (shstrtabOffset + shstrtab.size())));
+        ChannelUtils.writeFully(out, sections);
+    }
+
+    /**
+     * Putting a symbol table entry
+     *
+     * @param buffer  symbol table
+     * @param name    symbol name offset in the string table
+     * @param value   symbol value
+     * @param size    symbol size
+     * @param info    symbol binding and type
+     * @param section symbol section index
+     */
+    private void putSymbol(ByteBuffer buffer, int name, int value, int size, byte info, short section) {
+        buffer.putInt(name);
+        buffer.putInt(value);
+        buffer.putInt(size);
+        buffer.put(info);
+        buffer.put((byte) 0); // default visibility
+        buffer.putShort(section);
+    }
+
+    /**
+     * Putting a section header
+     *
+     * @param buffer    section headers
+     * @param name      section name offset in the section name string table
+     * @param type      section type
+     * @param flags     section flags
+     * @param offset    section offset in the file
+     * @param size      section size
+     * @param link      linked section index
+     * @param info      section extra information
+     * @param alignment section alignment
+     * @param entrySize section entry size
+     */
+    private void putSection(ByteBuffer buffer, int name, int type, int flags, int offset, int size, int link, int info,
+                            int alignment, int entrySize) {
+        buffer.putInt(name);
+        buffer.putInt(type);
+        buffer.putInt(flags);
+        buffer.putInt(0); // address
+        buffer.putInt(offset);
+        buffer.putInt(size);
+        buffer.putInt(link);
+        buffer.putInt(info);
+        buffer.putInt(alignment);
+        buffer.putInt(entrySize);
+    }
+
+    /**
+     * Aligning a value
+     *
+     * @param value     value to align
+     * @param alignment alignment, a power of two
+     * @return aligned value
+     */
+    private static int align(int value, int alignment) {
+        return (value + alignment - 1) & -alignment;
+    }
+
+    /**
+     * ELF string table, starting with an empty string
+     */
+    private static class StringTable {
+
+        /**
+         * String table content
+         */
+        private StringBuilder content = new StringBuilder("\0");
+
+        /**
+         * Adding a string
+         *
+         * @param value string to add
+         * @return string offset in the table
+         */
+        int add(String value) {
+            int offset = this.content.length();
+            this.content.append(value).append('\0');
+
+            return offset;
+        }
+
+        /**
+         * Gets the string table size
+         *
+         * @return string table size
+         */
+        int size() {
+            return this.content.length();
+        }
+
+        /**
+         * Gets the string table content
+         *
+         * @return string table content
+         */
+        ByteBuffer toBuffer() {
+            return ByteBuffer.wrap(this.content.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
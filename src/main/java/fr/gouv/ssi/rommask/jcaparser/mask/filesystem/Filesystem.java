@@ -29,6 +29,8 @@ package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
 import com.google.common.collect.Table;
 import fr.gouv.ssi.rommask.jcaparser.JCAClassField;
 import fr.gouv.ssi.rommask.jcaparser.jcaconverter.*;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
+import fr.gouv.ssi.rommask.jcaparser.util.ChannelUtils;
 import fr.gouv.ssi.rommask.jcaparser.util.Triplet;
 import fr.xlim.ssd.capmanipulator.library.*;
 import fr.xlim.ssd.capmanipulator.library.exceptions.UnableToWriteCapFileException;
@@ -36,7 +38,13 @@ import fr.xlim.ssd.capmanipulator.library.write.CapFileWrite;
 import fr.xlim.ssd.capmanipulator.library.write.CapOutputStream;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
@@ -68,6 +76,21 @@ public class Filesystem {
      */
     private final byte FILETYPE_APPLETFIELD = 0x03;
 
+    /**
+     * Filesystem tag value for package pre-linked constant pool
+     */
+    private final byte FILETYPE_PRELINKED_CP = 0x04;
+
+    /**
+     * Filesystem tag value for package interface tables
+     */
+    private final byte FILETYPE_ITABLE = 0x05;
+
+    /**
+     * Filesystem tag value for package subtype table
+     */
+    private final byte FILETYPE_SUBTYPES = 0x06;
+
     /**
      * Max amount of Java Card packages
      */
@@ -173,61 +196,75 @@ public class Filesystem {
      */
     private final byte FIELD_TYPE_TRANSIENT_ARRAY_OBJECT = (byte) ((1 << 6) | FIELD_TYPE_ARRAY_OBJECT);
 
+    /**
+     * Flag of Java Card array field whose values are run-length encoded
+     */
+    private final byte FIELD_TYPE_ENCODED = (byte) (1 << 5);
+
     /**
      * Type value of Java Card unintialized type
      */
     private final byte FIELD_TYPE_UNINITIALIZED = -1;
 
+    /**
+     * List of packages to write
+     */
+    private ArrayList<Triplet<String, PackageInfo, CapFile>> packages;
 
     /**
-     * Intel HEX data tag
+     * Computed packages to write in flash
      */
-    private final byte IHEX_DATA = 0x00;
+    private ArrayList<FlashPackage> flashPackages;
 
     /**
-     * Intel HEX end of file tag
+     * Computed static fields to write in flash
      */
-    private final byte IHEX_EOF = 0x01;
+    private Map<Integer, ArrayList<FlashStaticField>> flashStaticFields;
 
     /**
-     * Intel HEX extended segment address tag
+     * Packages loaded from the package cache, which are not converted again
      */
-    private final byte IHEX_EXTENDED_SEGMENT_ADDRESS = 0x02;
+    private Map<Integer, CachedPackage> cachedPackages;
 
     /**
-     * Intel HEX start segment address tag
+     * Flash layout where the filesystem is written
      */
-    private final byte IHEX_START_SEGMENT_ADDRESS = 0x03;
+    private FlashLayout layout;
 
     /**
-     * Intel HEX extended linear address tag
+     * Sectors used by the last written filesystem
      */
-    private final byte IHEX_EXTENDED_LINEAR_ADDRESS = 0x04;
+    private ArrayList<FlashSector> usedSectors;
 
     /**
-     * Intel HEX start linear address tag
+     * Are the constant pools pre-linked?
      */
-    private final byte IHEX_START_LINEAR_ADDRESS = 0x05;
+    private boolean preLinking;
 
     /**
-     * Intel HEX line length tag
+     * Computed pre-linked constant pools to write in flash
      */
-    private final byte IHEX_LINE_LENGTH = 0x10;
+    private Map<Integer, byte[]> preLinkedConstantPools;
 
     /**
-     * List of packages to write
+     * Are the interface tables generated?
      */
-    private ArrayList<Triplet<String, PackageInfo, CapFile>> packages;
+    private boolean generatingInterfaceTables;
 
     /**
-     * Computed packages to write in flash
+     * Computed interface tables to write in flash
      */
-    private ArrayList<FlashPackage> flashPackages;
+    private Map<Integer, byte[]> interfaceTables;
 
     /**
-     * Computed static fields to write in flash
+     * Are the subtype tables generated?
      */
-    private Map<Integer, ArrayList<FlashStaticField>> flashStaticFields;
+    private boolean generatingSubtypeTables;
+
+    /**
+     * Computed subtype tables to write in flash
+     */
+    private Map<Integer, byte[]> subtypeTables;
 
     /**
      * Class constructor
@@ -238,6 +275,152 @@ public class Filesystem {
         this.packages = packages;
         this.flashPackages = new ArrayList<>();
         this.flashStaticFields = new TreeMap<>();
+        this.cachedPackages = new HashMap<>();
+        this.usedSectors = new ArrayList<>();
+        this.preLinking = false;
+        this.preLinkedConstantPools = new TreeMap<>();
+        this.generatingInterfaceTables = false;
+        this.interfaceTables = new TreeMap<>();
+        this.generatingSubtypeTables = false;
+        this.subtypeTables = new TreeMap<>();
+        this.setLayout(FlashLayout.stm32());
+    }
+
+    /**
+     * Gets the flash layout where the filesystem is written
+     *
+     * @return flash layout
+     */
+    public FlashLayout getLayout() {
+        return this.layout;
+    }
+
+    /**
+     * Sets the flash layout where the filesystem is written
+     *
+     * @param layout flash layout
+     */
+    public void setLayout(FlashLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Gets sectors used by the last written filesystem. Other sectors do not have to be erased.
+     *
+     * @return used sectors sorted by address
+     */
+    public ArrayList<FlashSector> getUsedSectors() {
+        return this.usedSectors;
+    }
+
+    /**
+     * Gets the flag set on the type of run-length encoded static fields
+     *
+     * @return encoded field type flag
+     */
+    public byte getEncodedFieldType() {
+        return FIELD_TYPE_ENCODED;
+    }
+
+    /**
+     * Are the constant pools pre-linked?
+     *
+     * @return <code>true</code> if the constant pools are pre-linked
+     */
+    public boolean isPreLinking() {
+        return this.preLinking;
+    }
+
+    /**
+     * Sets if the constant pools are pre-linked. Each package is written with a pre-linked constant pool where the
+     * references are resolved to the package indexes and the offsets of the image, so the card does not resolve tokens.
+     *
+     * @param preLinking <code>true</code> to pre-link the constant pools
+     */
+    public void setPreLinking(boolean preLinking) {
+        this.preLinking = preLinking;
+    }
+
+    /**
+     * Are the interface tables generated?
+     *
+     * @return <code>true</code> if the interface tables are generated
+     */
+    public boolean isGeneratingInterfaceTables() {
+        return this.generatingInterfaceTables;
+    }
+
+    /**
+     * Sets if the interface tables are generated. Each package is written with the interface tables of its classes,
+     * so the card dispatches an interface call without looking for the method in the implemented interfaces.
+     *
+     * @param generatingInterfaceTables <code>true</code> to generate the interface tables
+     */
+    public void setGeneratingInterfaceTables(boolean generatingInterfaceTables) {
+        this.generatingInterfaceTables = generatingInterfaceTables;
+    }
+
+    /**
+     * Are the subtype tables generated?
+     *
+     * @return <code>true</code> if the subtype tables are generated
+     */
+    public boolean isGeneratingSubtypeTables() {
+        return this.generatingSubtypeTables;
+    }
+
+    /**
+     * Sets if the subtype tables are generated. Each package is written with the super types of its classes as
+     * bitsets, so the card checks a cast without walking the super class chain.
+     *
+     * @param generatingSubtypeTables <code>true</code> to generate the subtype tables
+     */
+    public void setGeneratingSubtypeTables(boolean generatingSubtypeTables) {
+        this.generatingSubtypeTables = generatingSubtypeTables;
+    }
+
+    /**
+     * Gets the size of the generated subtype tables
+     *
+     * @return subtype tables' size
+     */
+    public int getSubtypeTablesSize() {
+        int size = 0;
+        for (byte[] subtypeTable : this.subtypeTables.values()) {
+            size += subtypeTable.length;
+        }
+
+        return size;
+    }
+
+    /**
+     * Uses a cached package instead of converting the CAP file of the package
+     *
+     * @param packageNumber package index
+     * @param cachedPackage package loaded from the package cache
+     */
+    public void setCachedPackage(int packageNumber, CachedPackage cachedPackage) {
+        this.cachedPackages.put(packageNumber, cachedPackage);
+    }
+
+    /**
+     * Gets a package computed to write in flash
+     *
+     * @param packageNumber package index
+     * @return package to write in flash
+     */
+    public FlashPackage getFlashPackage(int packageNumber) {
+        return this.flashPackages.get(packageNumber);
+    }
+
+    /**
+     * Gets the static fields of a package computed to write in flash
+     *
+     * @param packageNumber package index
+     * @return package static fields to write in flash
+     */
+    public ArrayList<FlashStaticField> getFlashStaticFields(int packageNumber) {
+        return this.flashStaticFields.getOrDefault(packageNumber, new ArrayList<>());
     }
 
     /**
@@ -247,13 +430,31 @@ public class Filesystem {
      * @throws IOException
      */
     public void generating() throws UnableToWriteCapFileException, IOException, CloneNotSupportedException, JCAConverterException {
+        Map<Integer, Map<String, Integer>> staticFieldIndexes = new HashMap<>();
+
         for (int packageNumber = 0; packageNumber < this.packages.size(); packageNumber++) {
             Triplet<String, PackageInfo, CapFile> entry = this.packages.get(packageNumber);
 
+            CachedPackage cachedPackage = this.cachedPackages.get(packageNumber);
+            if (cachedPackage != null) {
+                if (this.preLinking || this.generatingInterfaceTables || this.generatingSubtypeTables) {
+                    throw new JCAConverterException("The cached package " + entry.getFirst() + " can't be linked");
+                }
+
+                this.flashPackages.add(cachedPackage.getFlashPackage());
+
+                if (!cachedPackage.getStaticFields().isEmpty()) {
+                    this.flashStaticFields.put(packageNumber, cachedPackage.getStaticFields());
+                }
+
+                continue;
+            }
+
             CapFile cap = entry.getThird();
             CapFile clonedCap = (CapFile) cap.clone();
 
             Map<String, Integer> fieldsName = new HashMap<>();
+            staticFieldIndexes.put(packageNumber, fieldsName);
 
             // Modifying CAP file to manage Choupi static FS.
             StaticFieldComponentFromJCA staticFieldComponentFromJCA = (StaticFieldComponentFromJCA) clonedCap.getStaticFieldComponent();
@@ -330,36 +531,80 @@ public class Filesystem {
             cos.close();
             out.close();
         }
+
+        if (!this.preLinking && !this.generatingInterfaceTables && !this.generatingSubtypeTables) {
+            return;
+        }
+
+        PackageResolver resolver = new PackageResolver(this.packages);
+
+        // Resolving the constant pools once the static fields of all the packages are numbered
+        if (this.preLinking) {
+            ConstantPoolPreLinker preLinker = new ConstantPoolPreLinker(resolver, staticFieldIndexes);
+
+            for (int packageNumber = 0; packageNumber < this.packages.size(); packageNumber++) {
+                this.preLinkedConstantPools.put(packageNumber, preLinker.preLink(packageNumber));
+            }
+        }
+
+        if (this.generatingInterfaceTables) {
+            InterfaceTableGenerator generator = new InterfaceTableGenerator(resolver);
+
+            for (int packageNumber = 0; packageNumber < this.packages.size(); packageNumber++) {
+                this.interfaceTables.put(packageNumber, generator.generate(packageNumber));
+            }
+        }
+
+        if (this.generatingSubtypeTables) {
+            SubtypeTableGenerator generator = new SubtypeTableGenerator(resolver);
+
+            for (int packageNumber = 0; packageNumber < this.packages.size(); packageNumber++) {
+                this.subtypeTables.put(packageNumber, generator.generate(packageNumber));
+            }
+
+            this.checkSubtypeTables(generator);
+        }
     }
 
     /**
-     * Writing filesystem into a binary file
+     * Checking the subtype tables fit in the apps sectors. Each class stores a bitset of all the types of the mask, so
+     * the tables grow with the square of the amount of types.
      *
-     * @param out        binary out file
-     * @param withApps   includes cap file?
-     * @param withStatic includes static fields?
-     * @return binary packages' size
+     * @param generator subtype table generator
+     * @throws JCAConverterException The subtype tables do not fit in the apps sectors
+     */
+    private void checkSubtypeTables(SubtypeTableGenerator generator) throws JCAConverterException {
+        int available = 0;
+        int sectorSize = 0;
+        for (FlashSector sector : this.layout.getSectors(SectorRole.APPS)) {
+            available += sector.getSize();
+            sectorSize = Math.max(sectorSize, sector.getSize());
+        }
+
+        int tableSize = 0;
+        for (byte[] subtypeTable : this.subtypeTables.values()) {
+            tableSize = Math.max(tableSize, subtypeTable.length);
+        }
+
+        if ((this.getSubtypeTablesSize() > available) || (tableSize > sectorSize)) {
+            throw new JCAConverterException("The subtype tables of " + generator.getTypeCount() + " types take "
+                    + this.getSubtypeTablesSize() + "B (" + generator.getSupertypesSize() + "B per class, "
+                    + tableSize + "B for the largest package) and do not fit in the apps sectors (" + available
+                    + "B, " + sectorSize + "B for the largest sector)");
+        }
+    }
+
+    /**
+     * Computing flash blocks of packages and static fields
+     *
+     * @param withApps      includes cap file?
+     * @param withStatic    includes static fields?
+     * @param appsToWrite   CAP file blocks
+     * @param staticToWrite static field blocks
      * @throws IOException
      */
-    public int writeBinary(DataOutputStream out, boolean withApps, boolean withStatic, boolean resetOtherSectors) throws IOException {
-
-        ByteArrayOutputStream appsToWrite = new ByteArrayOutputStream();
-        ByteArrayOutputStream staticToWrite = new ByteArrayOutputStream();
-
-        /**
-         * TODO: Should be adapted for different target
-         * In case of STM32 board
-         pub static SECTORS: [(usize, usize); 8] = [ // (begin, size)
-         (0, 0x4000),        // sector 0
-         (0x4000, 0x4000),   // sector 1
-         (0x8000, 0x4000),   // sector 2
-         (0xC000, 0x4000),   // sector 3
-         (0x10000, 0x10000), // sector 4
-         (0x20000, 0x20000), // sector 5 <- APPLET SECTOR
-         (0x40000, 0x20000), // sector 6 <- DEFRAG SECTOR
-         (0x60000, 0x20000), // sector 7
-         ];
-         */
+    private void computeBlocks(boolean withApps, boolean withStatic, ArrayList<FlashBlock> appsToWrite,
+                               ArrayList<FlashBlock> staticToWrite) throws IOException {
 
         if (this.flashPackages.size() > 255) {
             throw new IOException("There are more than 255 packages");
@@ -373,7 +618,31 @@ public class Filesystem {
                 tagCap[0] = FILETYPE_CAP;
                 tagCap[1] = (byte) pck_index;
                 FlashBlock flashBlock = new FlashBlock(tagCap, pckg.getCAP());
-                appsToWrite.write(flashBlock.write());
+                appsToWrite.add(flashBlock);
+
+                byte[] preLinkedConstantPool = this.preLinkedConstantPools.get(pck_index);
+                if (preLinkedConstantPool != null) {
+                    byte[] tagConstantPool = new byte[2];
+                    tagConstantPool[0] = FILETYPE_PRELINKED_CP;
+                    tagConstantPool[1] = (byte) pck_index;
+                    appsToWrite.add(new FlashBlock(tagConstantPool, preLinkedConstantPool));
+                }
+
+                byte[] interfaceTable = this.interfaceTables.get(pck_index);
+                if ((interfaceTable != null) && (interfaceTable.length != 0)) {
+                    byte[] tagInterfaceTable = new byte[2];
+                    tagInterfaceTable[0] = FILETYPE_ITABLE;
+                    tagInterfaceTable[1] = (byte) pck_index;
+                    appsToWrite.add(new FlashBlock(tagInterfaceTable, interfaceTable));
+                }
+
+                byte[] subtypeTable = this.subtypeTables.get(pck_index);
+                if (subtypeTable != null) {
+                    byte[] tagSubtypeTable = new byte[2];
+                    tagSubtypeTable[0] = FILETYPE_SUBTYPES;
+                    tagSubtypeTable[1] = (byte) pck_index;
+                    appsToWrite.add(new FlashBlock(tagSubtypeTable, subtypeTable));
+                }
             }
 
             ArrayList<FlashStaticField> statics = this.flashStaticFields.get(pck_index);
@@ -394,8 +663,8 @@ public class Filesystem {
                     staticNumb++;
 
                     System.err.print("Write static (" + s.getType().getType() + ") (isArray: " + s.isArray() + ") [" + pck_index + "," + (staticNumb - 1) + "] size: " + s.getValues().size() + " [");
-                    for (Byte value : s.getValues()) {
-                        System.err.print(value + ", ");
+                    for (int index = 0; index < s.getValues().size(); index++) {
+                        System.err.print(s.getValues().get(index) + ", ");
                     }
                     System.err.print("]\n");
 
@@ -464,12 +733,23 @@ public class Filesystem {
                                 throw new IOException("Wrong static field type;");
                         }
 
-                        for (int index = 0; index < s.getValues().size(); index++) {
-                            statidFieldData[index + 1] = s.getValues().get(index).byteValue();
+                        byte[] values = s.getValues().toByteArray();
+                        System.arraycopy(values, 0, statidFieldData, 1, values.length);
+
+                        // Encoding array values when it saves space
+                        if (s.isArray()) {
+                            byte[] encoded = StaticFieldEncoder.encode(values);
+
+                            if (encoded.length < values.length) {
+                                byte type = (byte) (statidFieldData[0] | FIELD_TYPE_ENCODED);
+                                statidFieldData = new byte[encoded.length + 1];
+                                statidFieldData[0] = type;
+                                System.arraycopy(encoded, 0, statidFieldData, 1, encoded.length);
+                            }
                         }
 
                         FlashBlock staticBlock = new FlashBlock(tagStaticField, statidFieldData);
-                        staticToWrite.write(staticBlock.write());
+                        staticToWrite.add(staticBlock);
 
                     } else {
                         // XXX: Not initialized field are not allocated in flash memory
@@ -478,68 +758,259 @@ public class Filesystem {
                 }
             }
         }
+    }
+
+    /**
+     * Computing the packages array flash block
+     *
+     * @return packages array block
+     */
+    private FlashBlock computePackageList() {
+        byte[] pkgs_array = new byte[JCVM_MAX_PACKAGES / 8];
+        int nbPkg = this.flashPackages.size();
+        for (int index = 0; index < nbPkg; index++) {
+            pkgs_array[(int) Math.ceil(index / 8)] |= 1 << (index % 8);
+        }
+
+        byte[] tag = new byte[1];
+        tag[0] = FILETYPE_PKGLIST;
+        return new FlashBlock(tag, pkgs_array);
+    }
 
-        if (resetOtherSectors) {
-            // resetting to sectors 0 to 3 included
-            for (int foo = 0; foo < 0x10000; foo++) {
-                out.writeByte((byte) 0x00);
+    /**
+     * Allocating flash blocks in the sectors of the flash layout. Static fields are allocated in static
+     * sectors, or after packages if the layout does not have static sectors.
+     *
+     * @param withApps   includes cap file?
+     * @param withStatic includes static fields?
+     * @return flash blocks sorted by address
+     * @throws IOException
+     */
+    private TreeMap<Integer, FlashBlock> allocateBlocks(boolean withApps, boolean withStatic) throws IOException {
+
+        ArrayList<FlashBlock> appsToWrite = new ArrayList<>();
+        ArrayList<FlashBlock> staticToWrite = new ArrayList<>();
+        this.computeBlocks(withApps, withStatic, appsToWrite, staticToWrite);
+
+        FlashAllocator allocator = new FlashAllocator(this.layout);
+        TreeMap<Integer, FlashBlock> blocks = new TreeMap<>();
+
+        if (withApps) {
+            for (FlashBlock block : appsToWrite) {
+                blocks.put(allocator.allocate(block.getSize(), SectorRole.APPS), block);
             }
 
-            // resetting to sectors 4
-            for (int foo = 0; foo < 0x10000; foo++) {
-                out.writeByte((byte) 0x00);
+            // writing packages array
+            FlashBlock pkgList = this.computePackageList();
+            blocks.put(allocator.allocate(pkgList.getSize(), SectorRole.APPS), pkgList);
+        }
+
+        if (withStatic) {
+            SectorRole staticRole = this.layout.getSectors(SectorRole.STATIC).isEmpty() ? SectorRole.APPS : SectorRole.STATIC;
+            for (FlashBlock block : staticToWrite) {
+                blocks.put(allocator.allocate(block.getSize(), staticRole), block);
             }
         }
 
-        if (withApps) {
-            if (appsToWrite.size() > 0x20000) {
-                throw new IOException("appsToWrite to write is more than 128k (" + appsToWrite.size() + "B)");
+        this.usedSectors = allocator.getUsedSectors();
+
+        return blocks;
+    }
+
+    /**
+     * Computing the binary packages' size of allocated blocks, the packages array excepted
+     *
+     * @param blocks   allocated flash blocks
+     * @param withApps includes cap file?
+     * @return binary packages' size
+     */
+    private int packagesSize(TreeMap<Integer, FlashBlock> blocks, boolean withApps) {
+        int size = 0;
+        for (FlashBlock block : blocks.values()) {
+            size += block.getSize();
+        }
+
+        return withApps ? size - this.computePackageList().getSize() : size;
+    }
+
+    /**
+     * Building the filesystem into a flash image. Flash blocks are written in place at their allocated address, other
+     * sectors being left erased.
+     *
+     * @param image      flash image to build
+     * @param withApps   includes cap file?
+     * @param withStatic includes static fields?
+     * @return binary packages' size
+     * @throws IOException
+     */
+    public int buildImage(FlashImage image, boolean withApps, boolean withStatic) throws IOException {
+
+        TreeMap<Integer, FlashBlock> blocks = this.allocateBlocks(withApps, withStatic);
+
+        for (Map.Entry<Integer, FlashBlock> block : blocks.entrySet()) {
+            image.place(block.getKey(), block.getValue());
+        }
+
+        return this.packagesSize(blocks, withApps);
+    }
+
+    /**
+     * Computing an update bundle to append after the blocks already written in a previous flash image. The bundle
+     * contains the blocks of changed packages and static fields and the updated packages array, appended blocks
+     * superseding the previous blocks having the same tag. The latest block of a tag is the one written at the highest
+     * address, so blocks are only appended after the last block written in the sectors of their role.
+     *
+     * @param previous   previous flash image, from address 0
+     * @param withApps   includes cap file?
+     * @param withStatic includes static fields?
+     * @return appended flash blocks sorted by address
+     * @throws IOException
+     */
+    public TreeMap<Integer, FlashBlock> computeUpdateBundle(ByteBuffer previous, boolean withApps, boolean withStatic) throws IOException {
+
+        FlashAllocator allocator = new FlashAllocator(this.layout);
+
+        // Reading the blocks written in the previous image
+        TreeMap<Integer, FlashBlock> previousBlocks = new TreeMap<>();
+        Map<SectorRole, Integer> lastAddresses = new HashMap<>();
+        for (FlashSector sector : this.layout.getSectors()) {
+            if (((sector.getRole() != SectorRole.APPS) && (sector.getRole() != SectorRole.STATIC))
+                    || (sector.getAddress() >= previous.limit())) {
+                continue;
             }
-            out.write(appsToWrite.toByteArray());
 
-            // writing packages array
-            byte[] pkgs_array = new byte[JCVM_MAX_PACKAGES / 8];
-            int nbPkg = this.flashPackages.size();
-            for (int index = 0; index < nbPkg; index++) {
-                pkgs_array[(int) Math.ceil(index / 8)] |= 1 << (index % 8);
+            ByteBuffer in = previous.duplicate();
+            in.limit(Math.min(previous.limit(), sector.getAddress() + sector.getSize()));
+            in.position(sector.getAddress());
+
+            int address = in.position();
+            FlashBlock block;
+            while ((block = FlashBlock.read(in)) != null) {
+                previousBlocks.put(address, block);
+                lastAddresses.merge(sector.getRole(), address, Math::max);
+                address = in.position();
             }
 
-            byte[] tag = new byte[1];
-            tag[0] = FILETYPE_PKGLIST;
-            FlashBlock flashBlock = new FlashBlock(tag, pkgs_array);
-            out.write(flashBlock.write());
+            allocator.reserve(sector, in.position() - sector.getAddress());
         }
 
-        if (withStatic) {
-            out.write(staticToWrite.toByteArray());
+        // The latest data of each tag is the one written at the highest address
+        Map<ByteArray, byte[]> written = new HashMap<>();
+        for (FlashBlock block : previousBlocks.values()) {
+            written.put(new ByteArray(block.getTag()), block.getData());
         }
 
-        if (resetOtherSectors) {
-            for (int foo = ((appsToWrite.toByteArray().length + staticToWrite.size()) % 0x20000); foo < 0x20000; foo++) {
-                out.writeByte((byte) 0x00);
+        // Sectors before the last written block of their role are not used anymore
+        for (FlashSector sector : this.layout.getSectors()) {
+            Integer lastAddress = lastAddresses.get(sector.getRole());
+            if ((lastAddress != null) && (sector.getAddress() + sector.getSize() <= lastAddress)) {
+                allocator.reserve(sector, sector.getSize());
             }
+        }
+
+        ArrayList<FlashBlock> appsToWrite = new ArrayList<>();
+        ArrayList<FlashBlock> staticToWrite = new ArrayList<>();
+        this.computeBlocks(withApps, withStatic, appsToWrite, staticToWrite);
+
+        TreeMap<Integer, FlashBlock> blocks = new TreeMap<>();
+        SectorRole staticRole = this.layout.getSectors(SectorRole.STATIC).isEmpty() ? SectorRole.APPS : SectorRole.STATIC;
 
-            // resetting to sectors 6 to 7
-            for (int foo = 0x40000; foo < (0x40000 + 0x20000 + 0x20000); foo++) {
-                out.writeByte((byte) 0x00);
+        for (FlashBlock block : appsToWrite) {
+            if (!Arrays.equals(block.getData(), written.get(new ByteArray(block.getTag())))) {
+                blocks.put(allocator.allocate(block.getSize(), SectorRole.APPS), block);
             }
         }
 
-        return appsToWrite.size() + staticToWrite.size();
+        for (FlashBlock block : staticToWrite) {
+            if (!Arrays.equals(block.getData(), written.get(new ByteArray(block.getTag())))) {
+                blocks.put(allocator.allocate(block.getSize(), staticRole), block);
+            }
+        }
+
+        if (withApps) {
+            FlashBlock pkgList = this.computePackageList();
+            if (!blocks.isEmpty() || !Arrays.equals(pkgList.getData(), written.get(new ByteArray(pkgList.getTag())))) {
+                blocks.put(allocator.allocate(pkgList.getSize(), SectorRole.APPS), pkgList);
+            }
+        }
+
+        return blocks;
     }
 
     /**
-     * Writing filesystem into a binary file
+     * Writing an update bundle into an Intel hex file. The updated flash image, the previous one with the bundle
+     * appended, is built to compute the next update bundle.
      *
-     * @param out        C out file
-     * @param withApps   includes cap file?
-     * @param withStatic includes static fields?
-     * @return binary packages' size
+     * @param out          Intel hex out file
+     * @param previous     previous binary image, from address 0
+     * @param updated      updated flash image to build
+     * @param withStatic   includes static fields, as in the previous image?
+     * @param baseAddress  address where the flash begins
+     * @param recordLength amount of data bytes per record
+     * @return update bundle size
+     * @throws IOException
+     */
+    public int writeUpdateBundleInIntelHexFile(PrintWriter out, Path previous, FlashImage updated, boolean withStatic,
+                                               int baseAddress, int recordLength) throws IOException {
+        TreeMap<Integer, FlashBlock> blocks;
+
+        try (FileChannel channel = FileChannel.open(previous, StandardOpenOption.READ)) {
+            ByteBuffer previousImage = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            blocks = this.computeUpdateBundle(previousImage, true, withStatic);
+
+            byte[] previousData = new byte[Math.min(previousImage.remaining(), updated.getSize())];
+            previousImage.get(previousData);
+            updated.place(0, previousData);
+        }
+
+        HexRecordWriter writer = new HexRecordWriter(out, recordLength);
+        int size = 0;
+        for (Map.Entry<Integer, FlashBlock> block : blocks.entrySet()) {
+            writer.writeIntelHexData(ByteBuffer.wrap(block.getValue().write()), baseAddress + block.getKey());
+            updated.place(block.getKey(), block.getValue());
+            size += block.getValue().getSize();
+        }
+        writer.writeIntelHexEnd();
+
+        return size;
+    }
+
+    /**
+     * Gets the written part of a flash image, from the beginning of the first used sector
+     *
+     * @param image built flash image
+     * @return read-only view on the written part of the flash image
+     */
+    public ByteBuffer getWrittenArea(FlashImage image) {
+        if (image.getEnd() == 0) {
+            return image.view(0, 0);
+        }
+
+        int begin = image.getLayout().getSector(image.getBegin()).getAddress();
+        return image.view(begin, image.getEnd() - begin);
+    }
+
+    /**
+     * Writing the written part of a flash image into a C file
+     *
+     * @param out      C out file
+     * @param image    built flash image
+     * @param format   shape of the flash image in the C file
+     * @param blobPath raw binary file included by the C file in case of {@link CArrayFormat#INCBIN} format
      * @throws IOException
      */
-    public int writeInCFile(PrintWriter out, boolean withApps, boolean withStatic) throws IOException {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        int length = this.writeBinary(new DataOutputStream(bout), withApps, withStatic, false);
+    public void writeInCFile(PrintWriter out, FlashImage image, CArrayFormat format, Path blobPath) throws IOException {
+        ByteBuffer data = this.getWrittenArea(image);
+        String blobName = null;
+
+        if (format == CArrayFormat.INCBIN) {
+            FileChannel blob = FileChannel.open(blobPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            ChannelUtils.writeFully(blob, data.duplicate());
+            blob.close();
+
+            blobName = blobPath.getFileName().toString();
+        }
 
         out.write("/* -*- Mode: C++; indent-tabs-mode: nil; c-basic-offset: 2 -*- */\n");
         out.write("/* vim: set sw=2 sts=2 expandtab: */\n");
@@ -557,78 +1028,56 @@ public class Filesystem {
         out.write("#include \"types.hpp\"\n");
         out.write("\n");
 
-        byte[] data = bout.toByteArray();
-        bout.close();
-
         out.write("#ifdef __cplusplus\n" + "\textern \"C\" {\n" + "#endif\n");
         out.write("#pragma GCC push_options\n" +
                 "#pragma GCC optimize(\"O0\")\n");
-        out.write("uint8_t __attribute__ ((packed)) flash_init[] = {\n");
-        for (int index = 0; index < data.length; index++) {
-
-            out.write(String.format("0x%02X", data[index]));
-
-            if ((index + 1) < data.length) {
-                out.write(", ");
-            }
-
-            if ((index != 0) & (((index + 1) % 0x10) == 0)) {
-                out.write("\n");
-            }
-        }
-        out.write("};\n");
+        CArrayWriter writer = new CArrayWriter(out, format);
+        writer.write(data, blobName);
         out.write("#pragma GCC pop_options\n");
         out.write("#ifdef __cplusplus\n" + "\t}\n" + "#endif\n");
 
         out.write("#endif /* JC_FLASH_INIT */\n");
-
-        return length;
     }
 
     /**
-     * Writing filesystem into an Intel hex file
+     * Writing the written part of a flash image into an Intel hex file
      *
      * @param out          Intel hex out file
+     * @param image        built flash image
      * @param beginAddress Begin address of the flash sector address
-     * @param withApps     includes cap file?
-     * @param withStatic   includes static fields?
-     * @return binary packages' size
+     * @param recordLength amount of data bytes per record
      * @throws IOException
      */
-    public int writeInIntelHexFile(PrintWriter out, int beginAddress, boolean withApps, boolean withStatic) throws IOException {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        int length = this.writeBinary(new DataOutputStream(bout), withApps, withStatic, false);
-
-        byte[] data = bout.toByteArray();
-        bout.close();
-
-        int addressLength = 2; //(int) (Math.log10(beginAddress) + 1);
-        byte sum_add = (byte) (addressLength + ((beginAddress >> 16) & 0x00FF) + ((beginAddress >> 24) & 0x00FF) + IHEX_EXTENDED_LINEAR_ADDRESS);
-        sum_add = (byte) (~sum_add + 1);
-        out.write(":" + String.format("%02X", addressLength) + String.format("%04X", 0)
-                + String.format("%02X", IHEX_EXTENDED_LINEAR_ADDRESS) + String.format("%04X", (beginAddress >> 16))
-                + String.format("%02X", sum_add) + '\n');
-
-        for (short startAddress = 0; startAddress < data.length; ) {
-            int lineLength = ((data.length - startAddress) > IHEX_LINE_LENGTH ? IHEX_LINE_LENGTH : data.length - startAddress);
-
-            byte sum = (byte) (lineLength + ((startAddress >> 8) & 0x00FF) + (startAddress & 0x00FF) + IHEX_DATA);
-            out.write(":" + String.format("%02X", lineLength) + String.format("%04X", startAddress) + String.format("%02X", IHEX_DATA));
-
-            for (int idx = 0; idx < lineLength; idx++) {
-                sum += data[startAddress + idx];
-                out.write(String.format("%02X", data[startAddress + idx]));
-            }
-
-            sum = (byte) (~sum + 1);
-            out.write(String.format("%02X", sum) + "\n");
-
-            startAddress += lineLength;
-        }
+    public void writeInIntelHexFile(PrintWriter out, FlashImage image, int beginAddress, int recordLength) throws IOException {
+        HexRecordWriter writer = new HexRecordWriter(out, recordLength);
+        writer.writeIntelHex(this.getWrittenArea(image), beginAddress);
+    }
 
-        out.write(":000000" + String.format("%02X", IHEX_EOF) + "FF");
+    /**
+     * Writing the written part of a flash image into a Motorola S-record file
+     *
+     * @param out          S-record out file
+     * @param image        built flash image
+     * @param beginAddress Begin address of the flash sector address
+     * @param recordLength amount of data bytes per record
+     * @throws IOException
+     */
+    public void writeInSRecordFile(PrintWriter out, FlashImage image, int beginAddress, int recordLength) throws IOException {
+        HexRecordWriter writer = new HexRecordWriter(out, recordLength);
+        writer.writeSRecord(this.getWrittenArea(image), beginAddress);
+    }
 
-        return length;
+    /**
+     * Writing the written part of a flash image into an ELF relocatable object
+     *
+     * @param out         ELF out channel
+     * @param image       built flash image
+     * @param sectionName name of the section where the flash image is put
+     * @throws IOException
+     */
+    public void writeInElfFile(WritableByteChannel out, FlashImage image, String sectionName) throws IOException {
+        ElfObjectWriter writer = new ElfObjectWriter(sectionName);
+        writer.write(out, this.getWrittenArea(image));
     }
 
     /**
@@ -645,6 +1094,11 @@ public class Filesystem {
 
         for (Triplet<String, PackageInfo, CapFile> entry : this.packages) {
 
+            // Packages loaded from the package cache have no CAP file
+            if (entry.getThird() == null) {
+                continue;
+            }
+
             // Creating CAP file folder recursively.
             String directory = entry.getFirst().substring(0, entry.getFirst().lastIndexOf("/"));
             directory = directorypath + File.separator + directory.replace("/", File.separator);
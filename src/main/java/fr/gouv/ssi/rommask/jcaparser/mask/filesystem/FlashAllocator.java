@@ -0,0 +1,112 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Class which allocates flash blocks in the sectors of a flash layout. Blocks never straddle two sectors and each one
+ * is put in the first sector having enough room, so the tail of a sector is filled by the following smaller blocks.
+ *
+ * @author Guillaume Bouffard
+ */
+public class FlashAllocator {
+
+    /**
+     * Flash layout where blocks are allocated
+     */
+    private FlashLayout layout;
+
+    /**
+     * Amount of bytes allocated in each sector
+     */
+    private int[] allocated;
+
+    /**
+     * Class constructor
+     *
+     * @param layout flash layout where blocks are allocated
+     */
+    public FlashAllocator(FlashLayout layout) {
+        this.layout = layout;
+        this.allocated = new int[layout.getSectors().size()];
+    }
+
+    /**
+     * Reserving the beginning of a sector, already used by existing data
+     *
+     * @param sector sector where data exist
+     * @param length length of existing data
+     */
+    public void reserve(FlashSector sector, int length) {
+        this.allocated[sector.getIndex()] = Math.max(this.allocated[sector.getIndex()], length);
+    }
+
+    /**
+     * Allocating a block in a sector having a role
+     *
+     * @param length block length
+     * @param role   role of the sector where the block is allocated
+     * @return block address
+     * @throws IOException
+     */
+    public int allocate(int length, SectorRole role) throws IOException {
+        ArrayList<FlashSector> sectors = this.layout.getSectors(role);
+
+        for (FlashSector sector : sectors) {
+            if (this.allocated[sector.getIndex()] + length <= sector.getSize()) {
+                int address = sector.getAddress() + this.allocated[sector.getIndex()];
+                this.allocated[sector.getIndex()] += length;
+                return address;
+            }
+        }
+
+        int available = 0;
+        for (FlashSector sector : sectors) {
+            available += sector.getSize() - this.allocated[sector.getIndex()];
+        }
+
+        throw new IOException("Unable to allocate " + length + "B in " + role + " sectors (" + available
+                + "B available in " + sectors.size() + " sectors)");
+    }
+
+    /**
+     * Gets sectors where at least one block is allocated
+     *
+     * @return used sectors sorted by address
+     */
+    public ArrayList<FlashSector> getUsedSectors() {
+        ArrayList<FlashSector> used = new ArrayList<>();
+        for (FlashSector sector : this.layout.getSectors()) {
+            if (this.allocated[sector.getIndex()] > 0) {
+                used.add(sector);
+            }
+        }
+
+        return used;
+    }
+}
@@ -26,9 +26,8 @@ package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
  * #L%
  */
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * Class which computes a block into the flash regarding the CHOUPI operating system
@@ -40,7 +39,7 @@ public class FlashBlock {
     /**
      * CRC pre-computed table
      */
-    private byte[] CRC_TABLE = {
+    private static final byte[] CRC_TABLE = {
             (byte) 0x00, (byte) 0xD5, (byte) 0x7F, (byte) 0xAA, (byte) 0xFE, (byte) 0x2B, (byte) 0x81,
             (byte) 0x54, (byte) 0x29, (byte) 0xFC, (byte) 0x56, (byte) 0x83, (byte) 0xD7, (byte) 0x02,
             (byte) 0xA8, (byte) 0x7D, (byte) 0x52, (byte) 0x87, (byte) 0x2D, (byte) 0xF8, (byte) 0xAC,
@@ -147,58 +146,156 @@ public class FlashBlock {
         return (data != null) && (data.length != 0) && (data[0] != 0);
     }
 
-    public byte[] write() throws IOException {
-        int size = 1 // block header
-                + (this.data.length > 255 ? 1 : 4) // data length
+    /**
+     * Reading a block serialized in a buffer, from its position. The buffer position is moved after the block if a
+     * block is read.
+     *
+     * @param in buffer where the block is serialized
+     * @return read block, <code>null</code> if there is no valid block at the buffer position
+     */
+    public static FlashBlock read(ByteBuffer in) {
+        int start = in.position();
+
+        if (!in.hasRemaining()) {
+            return null;
+        }
+
+        byte header = in.get();
+
+        // Erased flash or not a block
+        if ((header & (1 << 6)) == 0) {
+            in.position(start);
+            return null;
+        }
+
+        int tagLength = (header >> 1) & 0x1F;
+        int lengthSize = ((header & 0x01) == 1) ? 4 : 1;
+
+        if (in.remaining() < lengthSize) {
+            in.position(start);
+            return null;
+        }
+
+        long dataLength = 0;
+        for (int idx = 0; idx < lengthSize; idx++) {
+            dataLength = (dataLength << 8) | (in.get() & 0x00FF);
+        }
+
+        if (in.remaining() < tagLength + dataLength + 1) {
+            in.position(start);
+            return null;
+        }
+
+        byte[] tag = new byte[tagLength];
+        byte[] data = new byte[(int) dataLength];
+        in.get(tag);
+        in.get(data);
+
+        FlashBlock block = new FlashBlock(tag, data);
+
+        // Checking the CRC8 sum, validity bits excepted
+        ByteBuffer serialized = ByteBuffer.allocate(block.getSize());
+        block.write(serialized);
+        if ((block.getSize() != in.position() + 1 - start) || (serialized.get(block.getSize() - 1) != in.get())) {
+            in.position(start);
+            return null;
+        }
+
+        return block;
+    }
+
+    /**
+     * Gets the serialized block size
+     *
+     * @return serialized block size
+     */
+    public int getSize() {
+        return 1 // block header
+                + (this.data.length > 255 ? 4 : 1) // data length
                 + this.tag.length // tag value
                 + this.data.length // data value
                 + 1; // CRC-8
+    }
+
+    /**
+     * Serializing the block
+     *
+     * @return serialized block
+     * @throws IOException
+     */
+    public byte[] write() throws IOException {
+        byte[] block = new byte[this.getSize()];
+        this.write(ByteBuffer.wrap(block));
+
+        return block;
+    }
+
+    /**
+     * Serializing the block into a buffer, from its position
+     *
+     * @param out buffer where the block is serialized
+     */
+    public void write(ByteBuffer out) {
+        byte crc = this.writeHeader(out);
+
+        // Writing data value
+        out.put(this.data);
+        crc = this.updateCRC(crc, this.data);
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Writing CRC8 sum
+        out.put(crc);
+    }
 
+    /**
+     * Writing block header, data length and tag value
+     *
+     * @param out buffer where the header is written
+     * @return CRC8 sum of the written bytes
+     */
+    private byte writeHeader(ByteBuffer out) {
         // Writing header
-        out.write((byte) ((0 << 7) // Not yet valid bit
+        byte header = (byte) ((0 << 7) // Not yet valid bit
                 | (1 << 6) // Always valid bit
                 | ((this.tag.length & 0x1F) << 1) // tag length
                 | ((this.data.length > 255 ? 1 : 0) & 0x01) // data length 1 or 4 byte size length
-        ));
+        );
+        out.put(header);
+
+        // The CRC8 sum does not cover the validity bits
+        byte crc = CRC_TABLE[header & 0x3F];
 
         // Writing data length
         if (this.data.length > 255) {
-            out.write((byte) (this.data.length >> 24));
-            out.write((byte) (this.data.length >> 16));
-            out.write((byte) (this.data.length >> 8));
-            out.write((byte) (this.data.length & 0x0FF));
+            byte[] length = {
+                    (byte) (this.data.length >> 24),
+                    (byte) (this.data.length >> 16),
+                    (byte) (this.data.length >> 8),
+                    (byte) (this.data.length & 0x0FF)
+            };
+            out.put(length);
+            crc = this.updateCRC(crc, length);
         } else {
-            out.write((byte) this.data.length);
+            out.put((byte) this.data.length);
+            crc = this.updateCRC(crc, new byte[]{(byte) this.data.length});
         }
 
         // Writing tag value
-        out.write(this.tag);
-
-        // Writing data value
-        out.write(this.data);
-
-        // Computing and writing CRC8 sum
-        byte[] toComputeCRC = out.toByteArray();
-        out.write(this.computeCRC((byte) (toComputeCRC[0] & 0x3F), Arrays.copyOfRange(toComputeCRC, 1, toComputeCRC.length)));
+        out.put(this.tag);
 
-        return out.toByteArray();
+        return this.updateCRC(crc, this.tag);
     }
 
     /**
-     * Computing CRC 8 sum
+     * Updating CRC 8 sum
      *
-     * @param header part of the header where the CRC8 is computed
-     * @param data   block data
+     * @param crc  current CRC8 sum
+     * @param data bytes to add in the sum
      * @return CRC8 sum
      */
-    private byte computeCRC(byte header, byte[] data) {
-        byte crc = CRC_TABLE[header];
+    private byte updateCRC(byte crc, byte[] data) {
         for (byte b : data) {
             crc = CRC_TABLE[(crc ^ b) & 0x00FF];
         }
         return crc;
     }
 }
-
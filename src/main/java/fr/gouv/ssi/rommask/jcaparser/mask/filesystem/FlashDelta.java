@@ -0,0 +1,254 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class which computes the sectors of a flash image changed since a previous mask. The previous mask is either its
+ * binary image or the manifest of its sector hashes.
+ *
+ * @author Guillaume Bouffard
+ */
+public class FlashDelta {
+
+    /**
+     * First line of a sector manifest
+     */
+    private static final String MANIFEST_HEADER = "# rommask sector manifest";
+
+    /**
+     * New flash image
+     */
+    private FlashImage image;
+
+    /**
+     * SHA-256 hash of each sector of the new flash image, by sector index
+     */
+    private ArrayList<String> hashes;
+
+    /**
+     * Class constructor
+     *
+     * @param image new flash image
+     * @throws IOException
+     */
+    public FlashDelta(FlashImage image) throws IOException {
+        this.image = image;
+        this.hashes = new ArrayList<>();
+
+        for (FlashSector sector : image.getLayout().getSectors()) {
+            this.hashes.add(digest(image.view(sector.getAddress(), sector.getSize())));
+        }
+    }
+
+    /**
+     * Computes the sectors changed since a previous mask. Reserved sectors are never written. A sector missing from
+     * the previous mask is changed if it is an apps or static sector, and left unchanged otherwise.
+     *
+     * @param previous previous binary image or sector manifest
+     * @return changed sectors sorted by address
+     * @throws IOException
+     */
+    public ArrayList<FlashSector> getChangedSectors(Path previous) throws IOException {
+        Map<Integer, String> previousHashes = isManifest(previous) ? readManifest(previous) : this.hashImage(previous);
+
+        ArrayList<FlashSector> changed = new ArrayList<>();
+        for (FlashSector sector : this.image.getLayout().getSectors()) {
+            if (sector.getRole() == SectorRole.RESERVED) {
+                continue;
+            }
+
+            String previousHash = previousHashes.get(sector.getIndex());
+            if (previousHash == null) {
+                if ((sector.getRole() == SectorRole.APPS) || (sector.getRole() == SectorRole.STATIC)) {
+                    changed.add(sector);
+                }
+            } else if (!this.hashes.get(sector.getIndex()).equals(previousHash)) {
+                changed.add(sector);
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Writing changed sectors as a sparse Intel hex file
+     *
+     * @param out          Intel hex out file
+     * @param sectors      changed sectors
+     * @param baseAddress  address where the flash image begins
+     * @param recordLength amount of data bytes per record
+     * @throws IOException
+     */
+    public void writeInIntelHexFile(Writer out, ArrayList<FlashSector> sectors, int baseAddress, int recordLength) throws IOException {
+        HexRecordWriter writer = new HexRecordWriter(out, recordLength);
+
+        for (FlashSector sector : sectors) {
+            writer.writeIntelHexData(this.image.view(sector.getAddress(), sector.getSize()),
+                    baseAddress + sector.getAddress());
+        }
+
+        writer.writeIntelHexEnd();
+    }
+
+    /**
+     * Writing the sector manifest of the new flash image, to compute the next delta without its binary image
+     *
+     * @param out manifest out file
+     * @throws IOException
+     */
+    public void writeManifest(Writer out) throws IOException {
+        out.write(MANIFEST_HEADER + "\n");
+
+        for (FlashSector sector : this.image.getLayout().getSectors()) {
+            out.write("sector " + sector.getIndex() + " 0x" + String.format("%X", sector.getAddress()) + " 0x"
+                    + String.format("%X", sector.getSize()) + " " + this.hashes.get(sector.getIndex()) + "\n");
+        }
+    }
+
+    /**
+     * Computes sector hashes of a previous binary image. Sectors beyond the end of the image have no hash.
+     *
+     * @param previous previous binary image
+     * @return SHA-256 hash of each sector, by sector index
+     * @throws IOException
+     */
+    private Map<Integer, String> hashImage(Path previous) throws IOException {
+        Map<Integer, String> ret = new HashMap<>();
+
+        try (FileChannel channel = FileChannel.open(previous, StandardOpenOption.READ)) {
+            for (FlashSector sector : this.image.getLayout().getSectors()) {
+                if (sector.getAddress() + sector.getSize() <= channel.size()) {
+                    ret.put(sector.getIndex(), digest(channel.map(FileChannel.MapMode.READ_ONLY,
+                            sector.getAddress(), sector.getSize())));
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Is a file a sector manifest?
+     *
+     * @param path file to check
+     * @return true if the file begins with the manifest header
+     * @throws IOException
+     */
+    private static boolean isManifest(Path path) throws IOException {
+        byte[] header = MANIFEST_HEADER.getBytes("US-ASCII");
+        ByteBuffer buffer = ByteBuffer.allocate(header.length);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+        }
+
+        return buffer.flip().equals(ByteBuffer.wrap(header));
+    }
+
+    /**
+     * Reading sector hashes from a manifest
+     *
+     * @param path manifest file
+     * @return SHA-256 hash of each sector, by sector index
+     * @throws IOException
+     */
+    private Map<Integer, String> readManifest(Path path) throws IOException {
+        Map<Integer, String> ret = new HashMap<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] words = line.trim().split("\\s+");
+
+                if (!words[0].equals("sector")) {
+                    continue;
+                }
+
+                if (words.length != 5) {
+                    throw new IOException(path + ": wrong sector definition '" + line + "'");
+                }
+
+                // The sector hash is only used if the previous sector has the same geometry
+                int index = Integer.parseInt(words[1]);
+                if (index < this.image.getLayout().getSectors().size()) {
+                    FlashSector sector = this.image.getLayout().getSectors().get(index);
+                    if ((Integer.decode(words[2]) == sector.getAddress()) && (Integer.decode(words[3]) == sector.getSize())) {
+                        ret.put(index, words[4]);
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(path + ": wrong sector definition");
+        }
+
+        return ret;
+    }
+
+    /**
+     * Computes the SHA-256 hash of data
+     *
+     * @param data data to hash
+     * @return hexadecimal hash of the data
+     * @throws IOException SHA-256 is not available
+     */
+    private static String digest(ByteBuffer data) throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        digest.update(data);
+
+        StringBuilder out = new StringBuilder();
+        for (byte b : digest.digest()) {
+            out.append(String.format("%02x", b));
+        }
+
+        return out.toString();
+    }
+}
@@ -0,0 +1,202 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Class which builds the whole flash image regarding the CHOUPI operating system. The image is memory-mapped from a
+ * file and flash blocks are written in place at their absolute address.
+ *
+ * @author Guillaume Bouffard
+ */
+public class FlashImage {
+
+    /**
+     * Flash layout of the image
+     */
+    private FlashLayout layout;
+
+    /**
+     * Mapped flash image
+     */
+    private MappedByteBuffer image;
+
+    /**
+     * Flash image size
+     */
+    private int size;
+
+    /**
+     * Address of the first written byte
+     */
+    private int begin;
+
+    /**
+     * Address following the last written byte
+     */
+    private int end;
+
+    /**
+     * Class constructor. The file behind the channel is truncated then mapped at the flash size, the whole flash being
+     * erased.
+     *
+     * @param channel file channel opened in read-write mode
+     * @param layout  flash layout of the image
+     * @throws IOException
+     */
+    public FlashImage(FileChannel channel, FlashLayout layout) throws IOException {
+        this.layout = layout;
+        this.size = layout.getSize();
+        this.begin = this.size;
+        this.end = 0;
+
+        channel.truncate(0);
+        this.image = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.size);
+
+        // The new file content is zero-filled
+        if (layout.getErasedValue() != 0) {
+            byte[] erased = new byte[Math.min(this.size, 0x10000)];
+            Arrays.fill(erased, layout.getErasedValue());
+
+            ByteBuffer buffer = this.image.duplicate();
+            while (buffer.hasRemaining()) {
+                buffer.put(erased, 0, Math.min(erased.length, buffer.remaining()));
+            }
+        }
+    }
+
+    /**
+     * Gets the flash layout of the image
+     *
+     * @return flash layout
+     */
+    public FlashLayout getLayout() {
+        return this.layout;
+    }
+
+    /**
+     * Gets the flash image size
+     *
+     * @return flash image size
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Gets the address of the first written byte
+     *
+     * @return address of the first written byte
+     */
+    public int getBegin() {
+        return this.begin;
+    }
+
+    /**
+     * Gets the address following the last written byte
+     *
+     * @return address following the last written byte
+     */
+    public int getEnd() {
+        return this.end;
+    }
+
+    /**
+     * Writing data at an absolute address
+     *
+     * @param address where to write data
+     * @param data    data to write
+     * @return address following the written data
+     * @throws IOException
+     */
+    public int place(int address, byte[] data) throws IOException {
+        if ((address < 0) || (address + data.length > this.size)) {
+            throw new IOException("Cannot write " + data.length + "B at 0x" + String.format("%X", address)
+                    + " in a flash of " + this.size + "B");
+        }
+
+        ByteBuffer buffer = this.image.duplicate();
+        buffer.position(address);
+        buffer.put(data);
+
+        this.begin = Math.min(this.begin, address);
+        this.end = Math.max(this.end, address + data.length);
+
+        return address + data.length;
+    }
+
+    /**
+     * Writing a flash block at an absolute address, the block being serialized in place
+     *
+     * @param address where to write the block
+     * @param block   block to write
+     * @return address following the written block
+     * @throws IOException
+     */
+    public int place(int address, FlashBlock block) throws IOException {
+        if ((address < 0) || (address + block.getSize() > this.size)) {
+            throw new IOException("Cannot write " + block.getSize() + "B at 0x" + String.format("%X", address)
+                    + " in a flash of " + this.size + "B");
+        }
+
+        ByteBuffer buffer = this.image.duplicate();
+        buffer.position(address);
+        block.write(buffer);
+
+        this.begin = Math.min(this.begin, address);
+        this.end = Math.max(this.end, address + block.getSize());
+
+        return address + block.getSize();
+    }
+
+    /**
+     * Gets a read-only view on a part of the flash image
+     *
+     * @param address begin address
+     * @param length  view length
+     * @return read-only view on the flash image
+     */
+    public ByteBuffer view(int address, int length) {
+        ByteBuffer buffer = this.image.asReadOnlyBuffer();
+        buffer.position(address);
+        buffer.limit(address + length);
+
+        return buffer.slice();
+    }
+
+    /**
+     * Flushing the flash image into its file
+     */
+    public void force() {
+        this.image.force();
+    }
+}
@@ -0,0 +1,228 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Class which describes the flash geometry of a target: its sectors, their roles and the erased value.
+ * <p>
+ * A layout file contains one definition per line, <code>#</code> starting a comment:
+ * <pre>
+ * erased 0xFF
+ * sector 0x20000 0x20000 apps
+ * </pre>
+ * Sectors are declared in ascending address order and their role is one of <code>reserved</code>,
+ * <code>apps</code>, <code>static</code> or <code>defrag</code>.
+ *
+ * @author Guillaume Bouffard
+ */
+public class FlashLayout {
+
+    /**
+     * Flash sectors sorted by address
+     */
+    private ArrayList<FlashSector> sectors;
+
+    /**
+     * Value of an erased flash byte
+     */
+    private byte erasedValue;
+
+    /**
+     * Class constructor
+     *
+     * @param erasedValue value of an erased flash byte
+     */
+    public FlashLayout(byte erasedValue) {
+        this.sectors = new ArrayList<>();
+        this.erasedValue = erasedValue;
+    }
+
+    /**
+     * Gets the STM32 layout used by the CHOUPI operating system
+     *
+     * @return STM32 flash layout
+     */
+    public static FlashLayout stm32() {
+        FlashLayout layout = new FlashLayout((byte) 0x00);
+
+        layout.addSector(0x4000, SectorRole.RESERVED);  // sector 0
+        layout.addSector(0x4000, SectorRole.RESERVED);  // sector 1
+        layout.addSector(0x4000, SectorRole.RESERVED);  // sector 2
+        layout.addSector(0x4000, SectorRole.RESERVED);  // sector 3
+        layout.addSector(0x10000, SectorRole.RESERVED); // sector 4
+        layout.addSector(0x20000, SectorRole.APPS);     // sector 5 <- APPLET SECTOR
+        layout.addSector(0x20000, SectorRole.DEFRAG);   // sector 6 <- DEFRAG SECTOR
+        layout.addSector(0x20000, SectorRole.RESERVED); // sector 7
+
+        return layout;
+    }
+
+    /**
+     * Loading a flash layout from a layout file
+     *
+     * @param path layout file path
+     * @return loaded flash layout
+     * @throws IOException
+     */
+    public static FlashLayout load(Path path) throws IOException {
+        FlashLayout layout = new FlashLayout((byte) 0xFF);
+
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+
+                if (line.contains("#")) {
+                    line = line.substring(0, line.indexOf('#'));
+                }
+
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                String[] words = line.split("\\s+");
+                try {
+                    if (words[0].equals("erased") && (words.length == 2)) {
+                        layout.erasedValue = Integer.decode(words[1]).byteValue();
+                    } else if (words[0].equals("sector") && (words.length == 4)) {
+                        layout.addSector(Integer.decode(words[1]), Integer.decode(words[2]),
+                                SectorRole.valueOf(words[3].toUpperCase()));
+                    } else {
+                        throw new IOException(path + ":" + lineNumber + ": wrong definition '" + line + "'");
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(path + ":" + lineNumber + ": wrong value in '" + line + "'");
+                }
+            }
+        }
+
+        if (layout.sectors.isEmpty()) {
+            throw new IOException(path + ": no sector defined");
+        }
+
+        return layout;
+    }
+
+    /**
+     * Adding a sector following the last one
+     *
+     * @param size sector size
+     * @param role sector role
+     */
+    public void addSector(int size, SectorRole role) {
+        this.sectors.add(new FlashSector(this.sectors.size(), this.getSize(), size, role));
+    }
+
+    /**
+     * Adding a sector at an address
+     *
+     * @param address sector begin address
+     * @param size    sector size
+     * @param role    sector role
+     * @throws IOException
+     */
+    public void addSector(int address, int size, SectorRole role) throws IOException {
+        if ((size <= 0) || (address < this.getSize())) {
+            throw new IOException("Sector at 0x" + String.format("%X", address) + " overlaps the previous one");
+        }
+
+        this.sectors.add(new FlashSector(this.sectors.size(), address, size, role));
+    }
+
+    /**
+     * Gets flash sectors sorted by address
+     *
+     * @return flash sectors
+     */
+    public ArrayList<FlashSector> getSectors() {
+        return this.sectors;
+    }
+
+    /**
+     * Gets flash sectors having a role
+     *
+     * @param role sector role
+     * @return flash sectors having this role
+     */
+    public ArrayList<FlashSector> getSectors(SectorRole role) {
+        ArrayList<FlashSector> ret = new ArrayList<>();
+        for (FlashSector sector : this.sectors) {
+            if (sector.getRole() == role) {
+                ret.add(sector);
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Gets the sector which contains an address
+     *
+     * @param address address to look for
+     * @return sector which contains the address, <code>null</code> if the address is not in a sector
+     */
+    public FlashSector getSector(int address) {
+        for (FlashSector sector : this.sectors) {
+            if (sector.contains(address)) {
+                return sector;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the value of an erased flash byte
+     *
+     * @return value of an erased flash byte
+     */
+    public byte getErasedValue() {
+        return this.erasedValue;
+    }
+
+    /**
+     * Gets the flash size, from address 0 to the end of the last sector
+     *
+     * @return flash size
+     */
+    public int getSize() {
+        if (this.sectors.isEmpty()) {
+            return 0;
+        }
+
+        FlashSector last = this.sectors.get(this.sectors.size() - 1);
+        return last.getAddress() + last.getSize();
+    }
+}
@@ -75,6 +75,15 @@ public class FlashPackage {
         this.cap = cap;
     }
 
+    /**
+     * Gets package name
+     *
+     * @return package name
+     */
+    public String getName() {
+        return name;
+    }
+
     /**
      * Gets package AID
      *
@@ -0,0 +1,121 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+/**
+ * Class which describes a flash sector
+ *
+ * @author Guillaume Bouffard
+ */
+public class FlashSector {
+
+    /**
+     * Sector index in the flash layout
+     */
+    private final int index;
+
+    /**
+     * Sector begin address
+     */
+    private final int address;
+
+    /**
+     * Sector size
+     */
+    private final int size;
+
+    /**
+     * Sector role
+     */
+    private final SectorRole role;
+
+    /**
+     * Class constructor
+     *
+     * @param index   sector index in the flash layout
+     * @param address sector begin address
+     * @param size    sector size
+     * @param role    sector role
+     */
+    public FlashSector(int index, int address, int size, SectorRole role) {
+        this.index = index;
+        this.address = address;
+        this.size = size;
+        this.role = role;
+    }
+
+    /**
+     * Gets the sector index in the flash layout
+     *
+     * @return sector index
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Gets the sector begin address
+     *
+     * @return sector begin address
+     */
+    public int getAddress() {
+        return this.address;
+    }
+
+    /**
+     * Gets the sector size
+     *
+     * @return sector size
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Gets the sector role
+     *
+     * @return sector role
+     */
+    public SectorRole getRole() {
+        return this.role;
+    }
+
+    /**
+     * Does the sector contain an address?
+     *
+     * @param address address to check
+     * @return true if the address is in this sector
+     */
+    public boolean contains(int address) {
+        return (address >= this.address) && (address < this.address + this.size);
+    }
+
+    @Override
+    public String toString() {
+        return "sector " + this.index + " (0x" + String.format("%X", this.address) + ", 0x"
+                + String.format("%X", this.size) + ", " + this.role + ")";
+    }
+}
@@ -29,8 +29,7 @@ package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
 import fr.gouv.ssi.rommask.jcaparser.JCAClassField;
 import fr.gouv.ssi.rommask.jcaparser.JCAType;
 import fr.gouv.ssi.rommask.jcaparser.jcaconverter.JCAConverterException;
-
-import java.util.ArrayList;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
 
 /**
  * Class which computes a flash static field regarding the CHOUPI operating system
@@ -57,7 +56,7 @@ public class FlashStaticField {
     /**
      * Static field initialized vector
      */
-    private ArrayList<Byte> values;
+    private ByteArray values;
 
     /**
      * Static field name
@@ -76,7 +75,7 @@ public class FlashStaticField {
         this.isArray = this.type.isArray();
         this.isInit = !jcaField.getInitValues().isEmpty();
         this.name = jcaField.getName();
-        this.values = new ArrayList<>();
+        this.values = new ByteArray();
 
         switch (type.getType()) {
             case BYTE:
@@ -124,6 +123,23 @@ public class FlashStaticField {
         }
     }
 
+    /**
+     * Class constructor
+     *
+     * @param type    static field type
+     * @param isArray is static field is an array?
+     * @param isInit  is static field is initialized?
+     * @param values  static field initialized vector
+     * @param name    static field name
+     */
+    FlashStaticField(JCAType type, boolean isArray, boolean isInit, ByteArray values, String name) {
+        this.type = type;
+        this.isArray = isArray;
+        this.isInit = isInit;
+        this.values = values;
+        this.name = name;
+    }
+
     /**
      * Gets the static field type
      *
@@ -147,7 +163,7 @@ public class FlashStaticField {
      *
      * @return static field data initialized vector
      */
-    public ArrayList<Byte> getValues() {
+    public ByteArray getValues() {
         return this.values;
     }
 
@@ -156,7 +172,7 @@ public class FlashStaticField {
      *
      * @param values static field data initialized vector
      */
-    public void setValues(ArrayList<Byte> values) {
+    public void setValues(ByteArray values) {
         this.values = values;
     }
 
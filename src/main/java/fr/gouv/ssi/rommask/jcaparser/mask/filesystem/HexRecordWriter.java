@@ -0,0 +1,285 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * Class which encodes binary data as Intel HEX or Motorola S-record (S3) records. Bytes are encoded through a lookup
+ * table into a reusable line buffer.
+ *
+ * @author Guillaume Bouffard
+ */
+public class HexRecordWriter {
+
+    /**
+     * Intel HEX data tag
+     */
+    private static final byte IHEX_DATA = 0x00;
+
+    /**
+     * Intel HEX end of file tag
+     */
+    private static final byte IHEX_EOF = 0x01;
+
+    /**
+     * Intel HEX extended linear address tag
+     */
+    private static final byte IHEX_EXTENDED_LINEAR_ADDRESS = 0x04;
+
+    /**
+     * Default record length
+     */
+    public static final int DEFAULT_RECORD_LENGTH = 0x10;
+
+    /**
+     * Maximum record length, S3 records using 5 bytes for address and checksum
+     */
+    public static final int MAX_RECORD_LENGTH = 0xFF - 5;
+
+    /**
+     * Upper-case hexadecimal digits of each byte value, two chars per byte
+     */
+    static final char[] HEX_TABLE = new char[0x200];
+
+    static {
+        final char[] digits = "0123456789ABCDEF".toCharArray();
+        for (int value = 0; value < 0x100; value++) {
+            HEX_TABLE[2 * value] = digits[value >> 4];
+            HEX_TABLE[2 * value + 1] = digits[value & 0x0F];
+        }
+    }
+
+    /**
+     * Out stream
+     */
+    private Writer out;
+
+    /**
+     * Amount of data bytes per record
+     */
+    private int recordLength;
+
+    /**
+     * Line buffer
+     */
+    private char[] line;
+
+    /**
+     * Current length of the line buffer
+     */
+    private int lineLength;
+
+    /**
+     * Checksum of the current record
+     */
+    private int sum;
+
+    /**
+     * Upper 16 bits of the last Intel HEX extended linear address record, -1 if no record was written
+     */
+    private int upperAddress;
+
+    /**
+     * Class constructor
+     *
+     * @param out          out stream
+     * @param recordLength amount of data bytes per record
+     * @throws IOException
+     */
+    public HexRecordWriter(Writer out, int recordLength) throws IOException {
+        if ((recordLength < 1) || (recordLength > MAX_RECORD_LENGTH)) {
+            throw new IOException("Wrong record length " + recordLength + " (1 to " + MAX_RECORD_LENGTH + ")");
+        }
+
+        this.out = out;
+        this.recordLength = recordLength;
+        this.upperAddress = -1;
+        // type, count, 4-byte address, data, checksum and end of line
+        this.line = new char[2 + 2 * (1 + 4 + recordLength + 1) + 1];
+    }
+
+    /**
+     * Writing data as an Intel HEX file
+     *
+     * @param data         data to write
+     * @param beginAddress address of the first data byte
+     * @throws IOException
+     */
+    public void writeIntelHex(ByteBuffer data, int beginAddress) throws IOException {
+        this.writeIntelHexData(data, beginAddress);
+        this.writeIntelHexEnd();
+    }
+
+    /**
+     * Writing Intel HEX data records, several data areas being written into a sparse file. An extended linear address
+     * record is written each time a 64k boundary is crossed.
+     *
+     * @param data         data to write
+     * @param beginAddress address of the first data byte
+     * @throws IOException
+     */
+    public void writeIntelHexData(ByteBuffer data, int beginAddress) throws IOException {
+        int length = data.remaining();
+
+        for (int offset = 0; offset < length; ) {
+            int address = beginAddress + offset;
+
+            if ((address >>> 16) != this.upperAddress) {
+                this.upperAddress = address >>> 16;
+
+                this.beginRecord(':');
+                this.appendByte(2);
+                this.appendByte(0);
+                this.appendByte(0);
+                this.appendByte(IHEX_EXTENDED_LINEAR_ADDRESS);
+                this.appendByte(this.upperAddress >> 8);
+                this.appendByte(this.upperAddress);
+                this.endRecord(-this.sum);
+            }
+
+            // Records do not cross a 64k boundary
+            int recordLength = Math.min(Math.min(this.recordLength, length - offset), 0x10000 - (address & 0xFFFF));
+
+            this.beginRecord(':');
+            this.appendByte(recordLength);
+            this.appendByte(address >> 8);
+            this.appendByte(address);
+            this.appendByte(IHEX_DATA);
+            this.appendData(data, offset, recordLength);
+            this.endRecord(-this.sum);
+
+            offset += recordLength;
+        }
+    }
+
+    /**
+     * Writing the Intel HEX end of file record
+     *
+     * @throws IOException
+     */
+    public void writeIntelHexEnd() throws IOException {
+        this.out.write(":000000" + String.format("%02X", IHEX_EOF) + "FF");
+    }
+
+    /**
+     * Writing data as a Motorola S-record file with 32-bit addresses
+     *
+     * @param data         data to write
+     * @param beginAddress address of the first data byte
+     * @throws IOException
+     */
+    public void writeSRecord(ByteBuffer data, int beginAddress) throws IOException {
+        int length = data.remaining();
+
+        // Header record
+        this.beginRecord('S', '0');
+        this.appendByte(3);
+        this.appendByte(0);
+        this.appendByte(0);
+        this.endRecord(~this.sum);
+
+        for (int offset = 0; offset < length; ) {
+            int address = beginAddress + offset;
+            int recordLength = Math.min(this.recordLength, length - offset);
+
+            this.beginRecord('S', '3');
+            this.appendByte(4 + recordLength + 1);
+            this.appendByte(address >> 24);
+            this.appendByte(address >> 16);
+            this.appendByte(address >> 8);
+            this.appendByte(address);
+            this.appendData(data, offset, recordLength);
+            this.endRecord(~this.sum);
+
+            offset += recordLength;
+        }
+
+        // Termination record
+        this.beginRecord('S', '7');
+        this.appendByte(5);
+        this.appendByte(0);
+        this.appendByte(0);
+        this.appendByte(0);
+        this.appendByte(0);
+        this.endRecord(~this.sum);
+    }
+
+    /**
+     * Beginning a record in the line buffer
+     *
+     * @param start record start chars
+     */
+    private void beginRecord(char... start) {
+        System.arraycopy(start, 0, this.line, 0, start.length);
+        this.lineLength = start.length;
+        this.sum = 0;
+    }
+
+    /**
+     * Appending a byte to the current record
+     *
+     * @param value byte to append, only the lower 8 bits are used
+     */
+    private void appendByte(int value) {
+        value &= 0xFF;
+        this.line[this.lineLength++] = HEX_TABLE[2 * value];
+        this.line[this.lineLength++] = HEX_TABLE[2 * value + 1];
+        this.sum += value;
+    }
+
+    /**
+     * Appending data bytes to the current record
+     *
+     * @param data   data to append
+     * @param offset offset of the first byte to append, from the data position
+     * @param length amount of bytes to append
+     */
+    private void appendData(ByteBuffer data, int offset, int length) {
+        int position = data.position() + offset;
+        for (int idx = 0; idx < length; idx++) {
+            this.appendByte(data.get(position + idx));
+        }
+    }
+
+    /**
+     * Ending the current record with its checksum and writing it
+     *
+     * @param checksum record checksum, only the lower 8 bits are used
+     * @throws IOException
+     */
+    private void endRecord(int checksum) throws IOException {
+        checksum &= 0xFF;
+        this.line[this.lineLength++] = HEX_TABLE[2 * checksum];
+        this.line[this.lineLength++] = HEX_TABLE[2 * checksum + 1];
+        this.line[this.lineLength++] = '\n';
+
+        this.out.write(this.line, 0, this.lineLength);
+    }
+}
@@ -0,0 +1,165 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.*;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.JCAConverterException;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Class which computes the interface dispatch tables of the packages written in flash regarding the CHOUPI operating
+ * system. For each concrete class implementing interfaces, directly or through its super classes, the method
+ * implementing each interface method token is resolved, inherited methods included, whatever the package defining
+ * them is. An interface call is then dispatched by indexing the interface methods with the interface method token.
+ * <pre>
+ * class_itable {
+ *     u2 class_offset               offset of the class in the class component of the package
+ *     u1 interface_count
+ *     interfaces[interface_count] {
+ *         u1 package                package index of the interface
+ *         u2 interface_offset       offset of the interface in the class component of its package
+ *         u1 method_count
+ *         methods[method_count] {   indexed by the interface method token
+ *             u1 package            package index of the implementing method, 0xFF if not implemented
+ *             u2 method_offset      offset of the method in the method component of its package
+ *         }
+ *     }
+ * }
+ * </pre>
+ * The interface tables of a package are the tables of its concrete classes which implement interfaces, in the class
+ * component order.
+ *
+ * @author Guillaume Bouffard
+ */
+public class InterfaceTableGenerator {
+
+    /**
+     * Package index of the methods which are not implemented
+     */
+    private static final byte NO_PACKAGE = (byte) 0xFF;
+
+    /**
+     * Offset of the methods which are not implemented
+     */
+    private static final short NO_OFFSET = (short) 0xFFFF;
+
+    /**
+     * Resolver of the classes and methods written in flash
+     */
+    private final PackageResolver resolver;
+
+    /**
+     * Class constructor
+     *
+     * @param resolver resolver of the classes and methods written in flash
+     */
+    public InterfaceTableGenerator(PackageResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Computing the interface tables of a package
+     *
+     * @param packageNumber package index
+     * @return interface tables of the package
+     * @throws JCAConverterException An implemented interface can't be resolved in the packages written in flash
+     */
+    public byte[] generate(int packageNumber) throws JCAConverterException {
+        ByteArray out = new ByteArray();
+
+        for (JCAObject object : this.resolver.getJCAFile(packageNumber).getClaz().getClasses()) {
+            if (!(object instanceof JCAClass) || object.isAbstract()) {
+                continue;
+            }
+
+            ByteArray interfaces = new ByteArray();
+            int interfaceCount = 0;
+            Set<JCAObject> implemented = Collections.newSetFromMap(new IdentityHashMap<>());
+
+            // The interfaces implemented by the super classes are implemented by the class too
+            for (JCAObject superClass = object; superClass != null; superClass = this.resolver.getSuperClass(superClass)) {
+                JCAFile jca = this.resolver.getJCAFile(this.resolver.getPackageNumber(superClass));
+
+                for (JCAImplementedInterfaceInfo info : ((JCAClass) superClass).getImplementedInterfaceInfoTable()) {
+                    JCAObject theInterface = this.resolver.resolveClass(jca, info.getInterfaceName());
+
+                    if (implemented.add(theInterface)) {
+                        this.addInterface(interfaces, object, theInterface, info.getImplementedMethods());
+                        interfaceCount++;
+                    }
+                }
+            }
+
+            if (interfaceCount == 0) {
+                continue;
+            }
+
+            if (interfaceCount > 0xFF) {
+                throw new JCAConverterException(object.getName() + " implements more than 255 interfaces");
+            }
+
+            out.addShort(this.resolver.getClassOffset(object));
+            out.add((byte) interfaceCount);
+            out.addAll(interfaces);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Appends the methods of a class implementing an interface
+     *
+     * @param out          interface tables
+     * @param object       class implementing the interface
+     * @param theInterface implemented interface
+     * @param tokens       virtual method token implementing each interface method token
+     * @throws JCAConverterException A method is not in the method component
+     */
+    private void addInterface(ByteArray out, JCAObject object, JCAObject theInterface, ArrayList<Byte> tokens)
+            throws JCAConverterException {
+        out.add((byte) this.resolver.getPackageNumber(theInterface));
+        out.addShort(this.resolver.getClassOffset(theInterface));
+        out.add((byte) tokens.size());
+
+        for (byte token : tokens) {
+            JCAClassMethod method = this.resolver.getVirtualImplementation(object, token & 0x00FF);
+
+            if (method == null) {
+                out.add(NO_PACKAGE);
+                out.addShort(NO_OFFSET);
+            } else {
+                out.add((byte) this.resolver.getPackageNumber(this.resolver.getMethodClass(method)));
+                out.addShort(this.resolver.getMethodOffset(method));
+            }
+        }
+    }
+}
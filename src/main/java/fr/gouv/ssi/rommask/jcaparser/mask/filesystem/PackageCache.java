@@ -0,0 +1,482 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.JCAClassMethodSignature;
+import fr.gouv.ssi.rommask.jcaparser.JCAType;
+import fr.gouv.ssi.rommask.jcaparser.Type;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.JCANativeMethod;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
+import fr.xlim.ssd.capmanipulator.library.PackageInfo;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of converted packages. Each entry is keyed by a hash of the JCA file content and of the generator version,
+ * and stores everything the filesystem needs to skip the JCA file parsing and converting. Entries are kept in memory
+ * and, if a directory is given, on disk.
+ *
+ * @author Guillaume Bouffard
+ */
+public class PackageCache {
+
+    /**
+     * Cache entry magic number
+     */
+    private final int CACHE_MAGIC = 0x524D4331;
+
+    /**
+     * Cache entry file extension
+     */
+    private final String CACHE_EXTENSION = ".cache";
+
+    /**
+     * Directory where cache entries are stored, <code>null</code> if entries are only kept in memory
+     */
+    private final Path directory;
+
+    /**
+     * Cache entries kept in memory
+     */
+    private final Map<String, CachedPackage> entries;
+
+    /**
+     * Generator version, entries built by another version are never used
+     */
+    private final String version;
+
+    /**
+     * Class constructor
+     *
+     * @param directory directory where cache entries are stored
+     * @throws IOException Unable to create the cache directory
+     */
+    public PackageCache(String directory) throws IOException {
+        this.directory = Paths.get(directory);
+        Files.createDirectories(this.directory);
+
+        this.entries = new ConcurrentHashMap<>();
+        this.version = this.computeVersion();
+    }
+
+    /**
+     * Class constructor of a cache only kept in memory
+     *
+     * @throws IOException Unable to read the generator jar file
+     */
+    public PackageCache() throws IOException {
+        this.directory = null;
+
+        this.entries = new ConcurrentHashMap<>();
+        this.version = this.computeVersion();
+    }
+
+    /**
+     * Computes the generator version. Since the jar file version is not updated on each build, the hash of the jar
+     * file is added to the version.
+     *
+     * @return generator version
+     * @throws IOException Unable to read the generator jar file
+     */
+    private String computeVersion() throws IOException {
+        String implementationVersion = PackageCache.class.getPackage().getImplementationVersion();
+        StringBuilder out = new StringBuilder((implementationVersion == null) ? "dev" : implementationVersion);
+
+        Path jar;
+        try {
+            jar = Paths.get(PackageCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException | SecurityException | NullPointerException e) {
+            return out.toString();
+        }
+
+        if (Files.isRegularFile(jar)) {
+            out.append("-").append(this.digest(Files.readAllBytes(jar)));
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * Computes the SHA-256 hash of data
+     *
+     * @param data data to hash
+     * @return hexadecimal hash of the data
+     * @throws IOException SHA-256 is not available
+     */
+    private String digest(byte[]... data) throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        for (byte[] d : data) {
+            digest.update(d);
+        }
+
+        StringBuilder out = new StringBuilder();
+        for (byte b : digest.digest()) {
+            out.append(String.format("%02x", b));
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * Computes the cache key of a JCA file
+     *
+     * @param filename path to the JCA file
+     * @param options  conversion options, packages converted with other options are never used
+     * @return cache key of the JCA file
+     * @throws IOException Unable to read the JCA file
+     */
+    public String computeKey(String filename, String options) throws IOException {
+        return this.digest(this.version.getBytes("UTF-8"), new byte[]{0}, options.getBytes("UTF-8"), new byte[]{0},
+                Files.readAllBytes(Paths.get(filename)));
+    }
+
+    /**
+     * Loads a cache entry
+     *
+     * @param key cache key of the JCA file
+     * @return the cached package or <code>null</code> if there is no usable entry
+     */
+    public CachedPackage load(String key) {
+        CachedPackage entry = this.entries.get(key);
+
+        if (entry != null || this.directory == null) {
+            return entry;
+        }
+
+        entry = this.loadFromDisk(key);
+        if (entry != null) {
+            this.entries.put(key, entry);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Loads a cache entry stored on disk
+     *
+     * @param key cache key of the JCA file
+     * @return the cached package or <code>null</code> if there is no usable entry
+     */
+    private CachedPackage loadFromDisk(String key) {
+        Path path = this.directory.resolve(key + CACHE_EXTENSION);
+
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != CACHE_MAGIC || !in.readUTF().equals(this.version)) {
+                return null;
+            }
+
+            String name = in.readUTF();
+            PackageInfo packageInfo = this.readPackageInfo(in);
+
+            ArrayList<PackageInfo> importedPackages = new ArrayList<>();
+            for (int count = in.readUnsignedByte(); count > 0; count--) {
+                importedPackages.add(this.readPackageInfo(in));
+            }
+
+            short nativeMethodBase = in.readShort();
+            ArrayList<JCANativeMethod> nativeMethods = new ArrayList<>();
+            for (int count = in.readUnsignedShort(); count > 0; count--) {
+                nativeMethods.add(this.readNativeMethod(in));
+            }
+
+            byte[] cap = new byte[in.readInt()];
+            in.readFully(cap);
+
+            ArrayList<FlashStaticField> staticFields = new ArrayList<>();
+            for (int count = in.readUnsignedShort(); count > 0; count--) {
+                staticFields.add(this.readStaticField(in));
+            }
+
+            byte[] aid = new byte[packageInfo.getAID().size()];
+            for (int idx = 0; idx < aid.length; idx++) {
+                aid[idx] = packageInfo.getAID().get(idx);
+            }
+
+            FlashPackage flashPackage = new FlashPackage(name, aid, packageInfo.getMajorVersion(),
+                    packageInfo.getMinorVersion(), cap);
+
+            return new CachedPackage(name, packageInfo, importedPackages, nativeMethodBase, nativeMethods,
+                    flashPackage, staticFields);
+        } catch (IOException e) {
+            // A corrupted entry is handled as a missing one
+            return null;
+        }
+    }
+
+    /**
+     * Stores a cache entry
+     *
+     * @param key   cache key of the JCA file
+     * @param entry  converted package to store
+     * @throws IOException Unable to write the cache entry
+     */
+    public void store(String key, CachedPackage entry) throws IOException {
+        this.entries.put(key, entry);
+
+        if (this.directory == null) {
+            return;
+        }
+
+        Path path = this.directory.resolve(key + CACHE_EXTENSION);
+        Path tmp = Files.createTempFile(this.directory, key, ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(CACHE_MAGIC);
+            out.writeUTF(this.version);
+
+            out.writeUTF(entry.getName());
+            this.writePackageInfo(out, entry.getPackageInfo());
+
+            out.writeByte(entry.getImportedPackages().size());
+            for (PackageInfo packageInfo : entry.getImportedPackages()) {
+                this.writePackageInfo(out, packageInfo);
+            }
+
+            out.writeShort(entry.getNativeMethodBase());
+            out.writeShort(entry.getNativeMethods().size());
+            for (JCANativeMethod nativeMethod : entry.getNativeMethods()) {
+                this.writeNativeMethod(out, nativeMethod);
+            }
+
+            byte[] cap = entry.getFlashPackage().getCAP();
+            out.writeInt(cap.length);
+            out.write(cap);
+
+            out.writeShort(entry.getStaticFields().size());
+            for (FlashStaticField field : entry.getStaticFields()) {
+                this.writeStaticField(out, field);
+            }
+        }
+
+        // Concurrent runs sharing the same cache only see complete entries
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Drops from memory the entries which are not used anymore. Entries stored on disk are kept.
+     *
+     * @param keys cache keys of the used entries
+     */
+    public void retain(Collection<String> keys) {
+        this.entries.keySet().retainAll(keys);
+    }
+
+    /**
+     * Writes a package information
+     *
+     * @param out         stream to write
+     * @param packageInfo package information to write
+     * @throws IOException Writing error
+     */
+    private void writePackageInfo(DataOutputStream out, PackageInfo packageInfo) throws IOException {
+        out.writeByte(packageInfo.getAID().size());
+        for (byte b : packageInfo.getAID()) {
+            out.writeByte(b);
+        }
+        out.writeByte(packageInfo.getMajorVersion());
+        out.writeByte(packageInfo.getMinorVersion());
+    }
+
+    /**
+     * Reads a package information
+     *
+     * @param in stream to read
+     * @return read package information
+     * @throws IOException Reading error
+     */
+    private PackageInfo readPackageInfo(DataInputStream in) throws IOException {
+        PackageInfo packageInfo = new PackageInfo();
+
+        int length = in.readUnsignedByte();
+        ArrayList<Byte> aid = new ArrayList<>(length);
+        for (int idx = 0; idx < length; idx++) {
+            aid.add(in.readByte());
+        }
+
+        packageInfo.setAID(aid);
+        packageInfo.setAIDLength((byte) length);
+        packageInfo.setMajorVersion(in.readByte());
+        packageInfo.setMinorVersion(in.readByte());
+
+        return packageInfo;
+    }
+
+    /**
+     * Writes a JCA type
+     *
+     * @param out  stream to write
+     * @param type JCA type to write
+     * @throws IOException Writing error
+     */
+    private void writeType(DataOutputStream out, JCAType type) throws IOException {
+        out.writeByte(type.getType().ordinal());
+        out.writeBoolean(type.isArray());
+
+        if (type.getType() == Type.REFERENCE) {
+            out.writeBoolean(type.getName() != null);
+
+            if (type.getName() != null) {
+                out.writeUTF(type.getName());
+            } else {
+                out.writeByte(type.getPackageToken());
+                out.writeByte(type.getClassToken());
+            }
+        }
+    }
+
+    /**
+     * Reads a JCA type
+     *
+     * @param in stream to read
+     * @return read JCA type
+     * @throws IOException Reading error
+     */
+    private JCAType readType(DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+
+        if (ordinal >= Type.values().length) {
+            throw new IOException("Unknown type " + ordinal);
+        }
+
+        Type type = Type.values()[ordinal];
+        boolean isArray = in.readBoolean();
+
+        if (type != Type.REFERENCE) {
+            return new JCAType(type, isArray);
+        }
+
+        if (in.readBoolean()) {
+            return new JCAType(in.readUTF(), isArray);
+        }
+
+        byte packageToken = in.readByte();
+        byte classToken = in.readByte();
+
+        return new JCAType(packageToken, classToken, isArray);
+    }
+
+    /**
+     * Writes a native method
+     *
+     * @param out          stream to write
+     * @param nativeMethod native method to write
+     * @throws IOException Writing error
+     */
+    private void writeNativeMethod(DataOutputStream out, JCANativeMethod nativeMethod) throws IOException {
+        JCAClassMethodSignature signature = nativeMethod.getSignature();
+
+        out.writeUTF(nativeMethod.getPackageName());
+        out.writeUTF(signature.getName());
+        this.writeType(out, signature.getReturnType());
+
+        out.writeByte(signature.getParameters().size());
+        for (JCAType param : signature.getParameters()) {
+            this.writeType(out, param);
+        }
+    }
+
+    /**
+     * Reads a native method
+     *
+     * @param in stream to read
+     * @return read native method
+     * @throws IOException Reading error
+     */
+    private JCANativeMethod readNativeMethod(DataInputStream in) throws IOException {
+        String packageName = in.readUTF();
+        String name = in.readUTF();
+        JCAType returnType = this.readType(in);
+
+        ArrayList<JCAType> parameters = new ArrayList<>();
+        for (int count = in.readUnsignedByte(); count > 0; count--) {
+            parameters.add(this.readType(in));
+        }
+
+        JCAClassMethodSignature signature = new JCAClassMethodSignature(false, false, true, name,
+                parameters, new ArrayList<>(), returnType);
+
+        return new JCANativeMethod(packageName, signature);
+    }
+
+    /**
+     * Writes a flash static field
+     *
+     * @param out   stream to write
+     * @param field flash static field to write
+     * @throws IOException Writing error
+     */
+    private void writeStaticField(DataOutputStream out, FlashStaticField field) throws IOException {
+        out.writeUTF(field.getName());
+        this.writeType(out, field.getType());
+        out.writeBoolean(field.isArray());
+        out.writeBoolean(field.isInit());
+
+        out.writeInt(field.getValues().size());
+        out.write(field.getValues().toByteArray());
+    }
+
+    /**
+     * Reads a flash static field
+     *
+     * @param in stream to read
+     * @return read flash static field
+     * @throws IOException Reading error
+     */
+    private FlashStaticField readStaticField(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        JCAType type = this.readType(in);
+        boolean isArray = in.readBoolean();
+        boolean isInit = in.readBoolean();
+
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+
+        return new FlashStaticField(type, isArray, isInit, new ByteArray(data), name);
+    }
+}
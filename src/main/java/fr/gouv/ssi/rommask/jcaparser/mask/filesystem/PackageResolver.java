@@ -0,0 +1,223 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.*;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.ConstantPoolComponentFromJCA;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.JCAConverterException;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.MethodComponentFromJCA;
+import fr.gouv.ssi.rommask.jcaparser.util.Triplet;
+import fr.xlim.ssd.capmanipulator.library.CapFile;
+import fr.xlim.ssd.capmanipulator.library.PackageInfo;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Class which resolves classes and methods across the packages written in flash regarding the CHOUPI operating
+ * system. Classes are located by their package index and their offset in the class component of the package,
+ * methods by their offset in the method component of the package defining them.
+ *
+ * @author Guillaume Bouffard
+ */
+public class PackageResolver {
+
+    /**
+     * JCA file of each package
+     */
+    private final ArrayList<JCAFile> jcaFiles;
+
+    /**
+     * JCA files of the packages, resolving the references across them
+     */
+    private final JCAPackageSet packageSet;
+
+    /**
+     * Method component of each package
+     */
+    private final ArrayList<MethodComponentFromJCA> methodComponents;
+
+    /**
+     * Package index of each class
+     */
+    private final Map<JCAObject, Integer> packageNumbers;
+
+    /**
+     * Class where each method is defined
+     */
+    private final Map<JCAClassMethod, JCAObject> methodClasses;
+
+    /**
+     * Class constructor
+     *
+     * @param packages packages written in flash
+     */
+    public PackageResolver(ArrayList<Triplet<String, PackageInfo, CapFile>> packages) {
+        this.jcaFiles = new ArrayList<>();
+        this.methodComponents = new ArrayList<>();
+        this.packageNumbers = new IdentityHashMap<>();
+        this.methodClasses = new IdentityHashMap<>();
+
+        for (int packageNumber = 0; packageNumber < packages.size(); packageNumber++) {
+            CapFile cap = packages.get(packageNumber).getThird();
+            JCAFile jca = ((ConstantPoolComponentFromJCA) cap.getConstantPoolComponent()).getJCAFile();
+
+            this.jcaFiles.add(jca);
+            this.methodComponents.add((MethodComponentFromJCA) cap.getMethodComponent());
+
+            for (JCAObject object : jca.getClaz().getClasses()) {
+                this.packageNumbers.put(object, packageNumber);
+
+                for (JCAClassMethod method : object.getMethods()) {
+                    this.methodClasses.put(method, object);
+                }
+            }
+        }
+
+        this.packageSet = new JCAPackageSet(this.jcaFiles);
+    }
+
+    /**
+     * Gets the amount of packages written in flash
+     *
+     * @return amount of packages
+     */
+    public int getPackageCount() {
+        return this.jcaFiles.size();
+    }
+
+    /**
+     * Gets the JCA file of a package
+     *
+     * @param packageNumber package index
+     * @return JCA file of the package
+     */
+    public JCAFile getJCAFile(int packageNumber) {
+        return this.jcaFiles.get(packageNumber);
+    }
+
+    /**
+     * Gets the package index of a class
+     *
+     * @param object class
+     * @return package index of the class
+     */
+    public int getPackageNumber(JCAObject object) {
+        return this.packageNumbers.get(object);
+    }
+
+    /**
+     * Gets the offset of a class in the class component of its package
+     *
+     * @param object class
+     * @return class offset
+     */
+    public short getClassOffset(JCAObject object) {
+        return this.jcaFiles.get(this.getPackageNumber(object)).getSymbolIndex().getInternalClassRef(object.getName());
+    }
+
+    /**
+     * Gets the class where a method is defined
+     *
+     * @param method method
+     * @return class defining the method
+     */
+    public JCAObject getMethodClass(JCAClassMethod method) {
+        return this.methodClasses.get(method);
+    }
+
+    /**
+     * Gets the offset of a method in the method component of its package
+     *
+     * @param method method
+     * @return method offset
+     * @throws JCAConverterException The method is not in the method component
+     */
+    public short getMethodOffset(JCAClassMethod method) throws JCAConverterException {
+        String fullName = method.getMethodSignature().getFullName();
+        Short offset = this.methodComponents.get(this.getPackageNumber(this.getMethodClass(method)))
+                .getMethodsWithOffsets().get(fullName);
+
+        if (offset == null) {
+            throw new JCAConverterException("Unable to find the offset of " + fullName);
+        }
+
+        return offset;
+    }
+
+    /**
+     * Gets the method implementing a virtual method token in a class or its nearest super class. Package method
+     * tokens are only implemented in the same package.
+     *
+     * @param object class
+     * @param token  virtual method token
+     * @return implementing method, <code>null</code> if the method is abstract
+     */
+    public JCAClassMethod getVirtualImplementation(JCAObject object, int token) {
+        for (JCAObject superClass = object; superClass != null; superClass = this.getSuperClass(superClass)) {
+            if (((token & 0x80) != 0) && (this.getPackageNumber(superClass) != this.getPackageNumber(object))) {
+                break;
+            }
+
+            JCAClassMethod method = this.packageSet.getVirtualMethod(superClass, token);
+            if (method != null) {
+                return method;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the super class of a class
+     *
+     * @param object class
+     * @return super class, <code>null</code> if the class does not extend a class written in flash
+     */
+    public JCAObject getSuperClass(JCAObject object) {
+        return this.packageSet.getSuperClass(object);
+    }
+
+    /**
+     * Resolves a class reference
+     *
+     * @param jca package where the reference is used
+     * @param ref class reference
+     * @return referenced class
+     * @throws JCAConverterException The class is not written in flash
+     */
+    public JCAObject resolveClass(JCAFile jca, JCACPClassRef ref) throws JCAConverterException {
+        JCAObject object = this.packageSet.findClass(jca, ref);
+
+        if (object == null) {
+            throw new JCAConverterException("Unable to resolve the class " + ref + " used in " + jca.getName());
+        }
+
+        return object;
+    }
+}
@@ -0,0 +1,141 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
+
+/**
+ * Class which run-length encodes static field values. The encoded data begin with the decoded length on 4 bytes,
+ * followed by runs whose control byte is:
+ * - <code>0nnnnnnn</code>: n + 1 literal bytes follow,
+ * - <code>1nnnnnnn</code>: the following byte is repeated n + 3 times.
+ *
+ * @author Guillaume Bouffard
+ */
+public class StaticFieldEncoder {
+
+    /**
+     * Maximum amount of literal bytes in a run
+     */
+    private static final int MAX_LITERAL_RUN = 0x80;
+
+    /**
+     * Minimum amount of repeated bytes in a run
+     */
+    private static final int MIN_REPEAT_RUN = 3;
+
+    /**
+     * Maximum amount of repeated bytes in a run
+     */
+    private static final int MAX_REPEAT_RUN = 0x7F + MIN_REPEAT_RUN;
+
+    /**
+     * Encoding static field values
+     *
+     * @param values static field values
+     * @return encoded values
+     */
+    public static byte[] encode(byte[] values) {
+        ByteArray out = new ByteArray(values.length + 4);
+        out.addInt(values.length);
+
+        int literalStart = 0;
+        int index = 0;
+        while (index < values.length) {
+            int run = 1;
+            while ((index + run < values.length) && (run < MAX_REPEAT_RUN) && (values[index + run] == values[index])) {
+                run++;
+            }
+
+            if (run >= MIN_REPEAT_RUN) {
+                writeLiterals(out, values, literalStart, index);
+
+                out.add((byte) (0x80 | (run - MIN_REPEAT_RUN)));
+                out.add(values[index]);
+
+                index += run;
+                literalStart = index;
+            } else {
+                index++;
+            }
+        }
+        writeLiterals(out, values, literalStart, index);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decoding static field values
+     *
+     * @param encoded encoded values
+     * @return static field values
+     */
+    public static byte[] decode(byte[] encoded) {
+        int length = ((encoded[0] & 0xFF) << 24) | ((encoded[1] & 0xFF) << 16) | ((encoded[2] & 0xFF) << 8)
+                | (encoded[3] & 0xFF);
+        byte[] values = new byte[length];
+
+        int out = 0;
+        for (int index = 4; index < encoded.length; ) {
+            int control = encoded[index++] & 0xFF;
+
+            if ((control & 0x80) == 0) {
+                System.arraycopy(encoded, index, values, out, control + 1);
+                index += control + 1;
+                out += control + 1;
+            } else {
+                for (int idx = 0; idx < (control & 0x7F) + MIN_REPEAT_RUN; idx++) {
+                    values[out++] = encoded[index];
+                }
+                index++;
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Writing literal runs
+     *
+     * @param out    encoded values
+     * @param values static field values
+     * @param begin  first literal byte index
+     * @param end    index following the last literal byte
+     */
+    private static void writeLiterals(ByteArray out, byte[] values, int begin, int end) {
+        while (begin < end) {
+            int run = Math.min(end - begin, MAX_LITERAL_RUN);
+
+            out.add((byte) (run - 1));
+            for (int idx = begin; idx < begin + run; idx++) {
+                out.add(values[idx]);
+            }
+
+            begin += run;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.*;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.JCAConverterException;
+import fr.gouv.ssi.rommask.jcaparser.util.ByteArray;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class which computes the subtype tables of the packages written in flash regarding the CHOUPI operating system.
+ * The class hierarchy of all the packages is analyzed when the mask is built: each class and interface gets a type
+ * identifier, following the packages and the class component orders, and the set of its super types (itself, its
+ * super classes and all the interfaces they implement, super interfaces included) is written as a bitset. The
+ * <code>checkcast</code>, <code>instanceof</code> and <code>aastore</code> checks then test a single bit instead of
+ * walking the super class chain across the packages.
+ * <pre>
+ * subtype_table {
+ *     u2 type_count                   amount of types in the mask
+ *     u2 class_count
+ *     classes[class_count] {          in the class component order
+ *         u2 class_offset             offset of the class in the class component of the package
+ *         u2 type_id                  type identifier of the class
+ *         u1 supertypes[(type_count + 7) / 8]
+ *     }
+ * }
+ * </pre>
+ * The bit <code>(supertypes[id / 8] &gt;&gt; (id % 8)) &amp; 1</code> is set when the type identifier <code>id</code> is
+ * a super type of the class.
+ *
+ * @author Guillaume Bouffard
+ */
+public class SubtypeTableGenerator {
+
+    /**
+     * Resolver of the classes and methods written in flash
+     */
+    private final PackageResolver resolver;
+
+    /**
+     * Type identifier of each class and interface
+     */
+    private final Map<JCAObject, Integer> typeIds;
+
+    /**
+     * Class constructor
+     *
+     * @param resolver resolver of the classes and methods written in flash
+     * @throws JCAConverterException There are too many types in the mask
+     */
+    public SubtypeTableGenerator(PackageResolver resolver) throws JCAConverterException {
+        this.resolver = resolver;
+        this.typeIds = new IdentityHashMap<>();
+
+        for (int packageNumber = 0; packageNumber < resolver.getPackageCount(); packageNumber++) {
+            for (JCAObject object : resolver.getJCAFile(packageNumber).getClaz().getClasses()) {
+                this.typeIds.put(object, this.typeIds.size());
+            }
+        }
+
+        if (this.typeIds.size() > 0xFFFF) {
+            throw new JCAConverterException("There are more than 65535 classes and interfaces");
+        }
+    }
+
+    /**
+     * Gets the amount of types in the mask
+     *
+     * @return amount of classes and interfaces
+     */
+    public int getTypeCount() {
+        return this.typeIds.size();
+    }
+
+    /**
+     * Gets the size of the super types bitset of each class
+     *
+     * @return bitset size
+     */
+    public int getSupertypesSize() {
+        return (this.typeIds.size() + 7) / 8;
+    }
+
+    /**
+     * Gets the type identifier of a class or an interface
+     *
+     * @param object class or interface
+     * @return type identifier
+     */
+    public int getTypeId(JCAObject object) {
+        return this.typeIds.get(object);
+    }
+
+    /**
+     * Computing the subtype table of a package
+     *
+     * @param packageNumber package index
+     * @return subtype table of the package
+     * @throws JCAConverterException A super type can't be resolved in the packages written in flash
+     */
+    public byte[] generate(int packageNumber) throws JCAConverterException {
+        ByteArray out = new ByteArray();
+        JCAFile jca = this.resolver.getJCAFile(packageNumber);
+
+        out.addShort((short) this.getTypeCount());
+        out.addShort((short) jca.getClaz().getClasses().size());
+
+        for (JCAObject object : jca.getClaz().getClasses()) {
+            byte[] supertypes = new byte[this.getSupertypesSize()];
+
+            for (JCAObject supertype : this.getSupertypes(object)) {
+                int typeId = this.getTypeId(supertype);
+                supertypes[typeId / 8] |= 1 << (typeId % 8);
+            }
+
+            out.addShort(this.resolver.getClassOffset(object));
+            out.addShort((short) this.getTypeId(object));
+            out.addAll(new ByteArray(supertypes));
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Gets the super types of a class or an interface
+     *
+     * @param object class or interface
+     * @return the class or interface, its super classes and the interfaces they implement
+     * @throws JCAConverterException A super type can't be resolved in the packages written in flash
+     */
+    private Set<JCAObject> getSupertypes(JCAObject object) throws JCAConverterException {
+        Set<JCAObject> supertypes = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (JCAObject superClass = object; superClass != null; superClass = this.resolver.getSuperClass(superClass)) {
+            if (superClass instanceof JCAInterface) {
+                this.addInterface(supertypes, superClass);
+                continue;
+            }
+
+            supertypes.add(superClass);
+
+            JCAFile jca = this.resolver.getJCAFile(this.resolver.getPackageNumber(superClass));
+            for (JCAImplementedInterfaceInfo info : ((JCAClass) superClass).getImplementedInterfaceInfoTable()) {
+                this.addInterface(supertypes, this.resolver.resolveClass(jca, info.getInterfaceName()));
+            }
+        }
+
+        return supertypes;
+    }
+
+    /**
+     * Adds an interface and its super interfaces to a set of super types
+     *
+     * @param supertypes   super types
+     * @param theInterface interface
+     * @throws JCAConverterException A super interface can't be resolved in the packages written in flash
+     */
+    private void addInterface(Set<JCAObject> supertypes, JCAObject theInterface) throws JCAConverterException {
+        if (!supertypes.add(theInterface) || !(theInterface instanceof JCAInterface)) {
+            return;
+        }
+
+        JCAFile jca = this.resolver.getJCAFile(this.resolver.getPackageNumber(theInterface));
+        for (JCACPClassRef superInterface : ((JCAInterface) theInterface).getSuperInterfaces()) {
+            this.addInterface(supertypes, this.resolver.resolveClass(jca, superInterface));
+        }
+    }
+}
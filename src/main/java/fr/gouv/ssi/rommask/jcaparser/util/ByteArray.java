@@ -0,0 +1,273 @@
+package fr.gouv.ssi.rommask.jcaparser.util;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Growable array of primitive bytes, used instead of <code>ArrayList&lt;Byte&gt;</code> to store generated data
+ * without boxing each byte.
+ *
+ * @author Guillaume Bouffard
+ */
+public class ByteArray {
+
+    /**
+     * Default capacity of an empty array
+     */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Stored bytes
+     */
+    private byte[] data;
+
+    /**
+     * Number of stored bytes
+     */
+    private int size;
+
+    /**
+     * Class constructor
+     */
+    public ByteArray() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param capacity initial capacity
+     */
+    public ByteArray(int capacity) {
+        this.data = new byte[Math.max(capacity, 1)];
+        this.size = 0;
+    }
+
+    /**
+     * Class constructor from a byte array
+     *
+     * @param values bytes to copy
+     */
+    public ByteArray(byte[] values) {
+        this.data = Arrays.copyOf(values, Math.max(values.length, 1));
+        this.size = values.length;
+    }
+
+    /**
+     * Ensures the array can store an amount of bytes without growing
+     *
+     * @param capacity amount of bytes to store
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > this.data.length) {
+            this.data = Arrays.copyOf(this.data, Math.max(capacity, this.data.length * 2));
+        }
+    }
+
+    /**
+     * Appends a byte
+     *
+     * @param value byte to append
+     */
+    public void add(byte value) {
+        this.ensureCapacity(this.size + 1);
+        this.data[this.size++] = value;
+    }
+
+    /**
+     * Appends a big-endian short
+     *
+     * @param value short to append
+     */
+    public void addShort(short value) {
+        this.ensureCapacity(this.size + Short.BYTES);
+        this.data[this.size++] = (byte) (value >> 8);
+        this.data[this.size++] = (byte) (value & 0x00FF);
+    }
+
+    /**
+     * Appends a big-endian int
+     *
+     * @param value int to append
+     */
+    public void addInt(int value) {
+        this.ensureCapacity(this.size + Integer.BYTES);
+        this.data[this.size++] = (byte) (value >> 24);
+        this.data[this.size++] = (byte) (value >> 16);
+        this.data[this.size++] = (byte) (value >> 8);
+        this.data[this.size++] = (byte) (value & 0x00FF);
+    }
+
+    /**
+     * Appends all the bytes of another array
+     *
+     * @param values bytes to append
+     */
+    public void addAll(ByteArray values) {
+        this.ensureCapacity(this.size + values.size);
+        System.arraycopy(values.data, 0, this.data, this.size, values.size);
+        this.size += values.size;
+    }
+
+    /**
+     * Appends all the bytes of a byte list
+     *
+     * @param values bytes to append
+     */
+    public void addAll(List<Byte> values) {
+        this.ensureCapacity(this.size + values.size());
+        for (int index = 0; index < values.size(); index++) {
+            this.data[this.size++] = values.get(index);
+        }
+    }
+
+    /**
+     * Gets a byte
+     *
+     * @param index byte index
+     * @return byte value
+     */
+    public byte get(int index) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+
+        return this.data[index];
+    }
+
+    /**
+     * Sets a byte
+     *
+     * @param index byte index
+     * @param value new byte value
+     */
+    public void set(int index, byte value) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+
+        this.data[index] = value;
+    }
+
+    /**
+     * Sets a big-endian short
+     *
+     * @param index index of the short first byte
+     * @param value new short value
+     */
+    public void setShort(int index, short value) {
+        this.set(index, (byte) (value >> 8));
+        this.set(index + 1, (byte) (value & 0x00FF));
+    }
+
+    /**
+     * Gets the number of stored bytes
+     *
+     * @return number of stored bytes
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Is the array empty?
+     *
+     * @return true if there is no stored byte
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Removes all the stored bytes
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Copies the stored bytes into a byte array
+     *
+     * @return copy of the stored bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.data, this.size);
+    }
+
+    /**
+     * Copies the stored bytes into a byte list, as required by the CAP file library
+     *
+     * @return copy of the stored bytes
+     */
+    public ArrayList<Byte> toArrayList() {
+        ArrayList<Byte> out = new ArrayList<>(this.size);
+
+        for (int index = 0; index < this.size; index++) {
+            out.add(this.data[index]);
+        }
+
+        return out;
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        // null check
+        if (that == null) {
+            return false;
+        }
+
+        // this instance check
+        if (this == that) {
+            return true;
+        }
+
+        if (!(that instanceof ByteArray)) {
+            return false;
+        }
+
+        return Arrays.equals(this.data, 0, this.size, ((ByteArray) that).data, 0, ((ByteArray) that).size);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+
+        for (int index = 0; index < this.size; index++) {
+            hash = 31 * hash + this.data[index];
+        }
+
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(this.toByteArray());
+    }
+}
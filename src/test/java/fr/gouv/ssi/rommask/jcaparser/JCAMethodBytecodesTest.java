@@ -0,0 +1,108 @@
+package fr.gouv.ssi.rommask.jcaparser;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.ACONST_NULL;
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.ATHROW;
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.GOTO;
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.GOTO_W;
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.IFEQ;
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.NOP;
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.RETURN;
+import fr.gouv.ssi.rommask.jcaparser.bytecodes.SSPUSH;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the JCA method bytecode
+ *
+ * @author Guillaume Bouffard
+ */
+public class JCAMethodBytecodesTest {
+
+    /**
+     * Instruction offsets follow each instruction update, even if the amount of instructions does not change
+     */
+    @Test
+    public void instructionOffsetsFollowInstructionUpdates() {
+        JCAMethodBytecodes bytecodes = new JCAMethodBytecodes((byte) 1, (byte) 0);
+        bytecodes.addInstruction(new ACONST_NULL(new ArrayList<>()));
+        bytecodes.addInstruction(new ATHROW(new ArrayList<>()));
+        assertEquals(1, bytecodes.getInstructionOffset(1));
+
+        bytecodes.setInstruction(0, new SSPUSH(new ArrayList<>(Arrays.asList("1"))));
+        assertEquals(3, bytecodes.getInstructionOffset(1));
+        assertEquals(4, bytecodes.getInstructionOffset(2));
+    }
+
+    /**
+     * Method instructions cannot be updated without the method bytecode knowing it
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void instructionsAreReadOnly() {
+        new JCAMethodBytecodes((byte) 1, (byte) 0).getInstructions().add(new ATHROW(new ArrayList<>()));
+    }
+
+    /**
+     * Branches use their 1-byte offset form when their label is in range and their wide form otherwise, forward and
+     * backward, and labels follow the new instruction sizes
+     *
+     * @throws Exception Unable to build a branch instruction
+     */
+    @Test
+    public void branchesAreRelaxed() throws Exception {
+        JCAMethodBytecodes bytecodes = new JCAMethodBytecodes((byte) 1, (byte) 0);
+
+        // L0: goto_w L1; ifeq L2; L1: nop * 130; goto L0; L2: return
+        bytecodes.getLabels().add((short) 0);
+        bytecodes.addInstruction(new GOTO_W(new ArrayList<>(Arrays.asList("L1"))));
+        bytecodes.addInstruction(new IFEQ(new ArrayList<>(Arrays.asList("L2"))));
+        bytecodes.getLabels().add((short) bytecodes.getInstructions().size());
+        for (int idx = 0; idx < 130; idx++) {
+            bytecodes.addInstruction(new NOP(new ArrayList<>()));
+        }
+        bytecodes.addInstruction(new GOTO(new ArrayList<>(Arrays.asList("L0"))));
+        bytecodes.getLabels().add((short) bytecodes.getInstructions().size());
+        bytecodes.addInstruction(new RETURN(new ArrayList<>()));
+
+        bytecodes.relaxBranches();
+
+        List<Instruction> instructions = bytecodes.getInstructions();
+        assertEquals(Bytecode.GOTO, instructions.get(0).getOpcode());
+        assertEquals(Bytecode.IFEQ_W, instructions.get(1).getOpcode());
+        assertEquals(Bytecode.GOTO_W, instructions.get(132).getOpcode());
+
+        assertEquals(5, bytecodes.getLabelOffset((short) 1));
+        assertEquals(135, bytecodes.getInstructionOffset(132));
+        assertEquals(138, bytecodes.getLabelOffset((short) 2));
+    }
+}
@@ -0,0 +1,75 @@
+package fr.gouv.ssi.rommask.jcaparser.jcaconverter;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.Bytecode;
+import fr.gouv.ssi.rommask.jcaparser.Instruction;
+import fr.gouv.ssi.rommask.jcaparser.JCAClassMethod;
+import fr.gouv.ssi.rommask.jcaparser.JCAFile;
+import fr.gouv.ssi.rommask.jcaparser.JCAParser;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the peephole optimizer
+ *
+ * @author Guillaume Bouffard
+ */
+public class BytecodeOptimizerTest {
+
+    /**
+     * A local increment out of the byte range is fused into <code>sinc_w</code>, which keeps its 16-bit value
+     *
+     * @throws Exception Error during the JCA file parsing
+     */
+    @Test
+    public void wideIncrementKeepsItsShortValue() throws Exception {
+        String path = Paths.get(BytecodeOptimizerTest.class.getResource("optimizer.jca").toURI()).toString();
+        JCAFile jca = JCAParser.parseFile(path);
+        JCAClassMethod method = jca.getSymbolIndex().getMethod("Counter", "Counter/count(S)V");
+
+        BytecodeOptimizer.optimize(method);
+
+        List<Instruction> instructions = method.getMethodBytecodes().getInstructions();
+        assertEquals(3, instructions.size());
+
+        // sinc_w 0 1000
+        assertEquals(Bytecode.SINC_W, instructions.get(0).getOpcode());
+        assertEquals(0, instructions.get(0).getParameters().get(0));
+        assertEquals((byte) 0x03, instructions.get(0).getParameters().get(1));
+        assertEquals((byte) 0xE8, instructions.get(0).getParameters().get(2));
+
+        // sinc_w 0 -1000
+        assertEquals(Bytecode.SINC_W, instructions.get(1).getOpcode());
+        assertEquals((byte) 0xFC, instructions.get(1).getParameters().get(1));
+        assertEquals((byte) 0x18, instructions.get(1).getParameters().get(2));
+    }
+}
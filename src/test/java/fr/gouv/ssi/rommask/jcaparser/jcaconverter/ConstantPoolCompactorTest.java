@@ -0,0 +1,102 @@
+package fr.gouv.ssi.rommask.jcaparser.jcaconverter;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.Bytecode;
+import fr.gouv.ssi.rommask.jcaparser.Instruction;
+import fr.gouv.ssi.rommask.jcaparser.JCAExceptionHandler;
+import fr.gouv.ssi.rommask.jcaparser.JCAFile;
+import fr.gouv.ssi.rommask.jcaparser.JCAMethodBytecodes;
+import fr.gouv.ssi.rommask.jcaparser.JCAParser;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the constant pool compaction
+ *
+ * @author Guillaume Bouffard
+ */
+public class ConstantPoolCompactorTest {
+
+    /**
+     * Compacted JCA file
+     */
+    private JCAFile jca;
+
+    /**
+     * Bytecode of the method referencing the constant pool
+     */
+    private JCAMethodBytecodes bytecodes;
+
+    /**
+     * Parsing and compacting the JCA file
+     *
+     * @throws Exception Error during the JCA file parsing or compacting
+     */
+    @Before
+    public void setUp() throws Exception {
+        String path = Paths.get(ConstantPoolCompactorTest.class.getResource("compactor.jca").toURI()).toString();
+        this.jca = JCAParser.parseFile(path);
+        this.bytecodes = this.jca.getSymbolIndex().getMethod("Start", "Start/foo()V").getMethodBytecodes();
+
+        ConstantPoolCompactor.compact(this.jca);
+    }
+
+    /**
+     * The most referenced entry is a catch type, it is not renumbered to the index 0 which catches all the exceptions
+     */
+    @Test
+    public void catchTypeIsNeverAtIndexZero() {
+        assertEquals(2, this.jca.getConstantPool().getEntries().size());
+
+        for (JCAExceptionHandler handler : this.bytecodes.getExceptionsHandlers()) {
+            assertEquals(1, handler.getCatchTypeIndex());
+        }
+
+        // invokestatic Start/other()V
+        assertEquals(0, this.bytecodes.getInstructions().get(0).getParameters().get(1));
+    }
+
+    /**
+     * A <code>checkcast</code> on a primitive array type keeps its null index, which does not keep the entry 0
+     */
+    @Test
+    public void primitiveArrayCheckcastKeepsItsNullIndex() {
+        Instruction checkcast = this.bytecodes.getInstructions().get(2);
+
+        assertEquals(Bytecode.CHECKCAST, checkcast.getOpcode());
+        assertEquals(10, checkcast.getParameters().get(0));
+        assertEquals(0, checkcast.getParameters().get(1));
+        assertEquals(0, checkcast.getParameters().get(2));
+
+        assertEquals(2, this.jca.getConstantPool().getEntries().size());
+    }
+}
@@ -0,0 +1,81 @@
+package fr.gouv.ssi.rommask.jcaparser.jcaconverter;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.Bytecode;
+import fr.gouv.ssi.rommask.jcaparser.JCAClassMethod;
+import fr.gouv.ssi.rommask.jcaparser.JCAFile;
+import fr.gouv.ssi.rommask.jcaparser.JCAParser;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the dead code elimination
+ *
+ * @author Guillaume Bouffard
+ */
+public class DeadCodeEliminatorTest {
+
+    /**
+     * Checks if a method body was replaced by the stub throwing an exception
+     *
+     * @param method method to check
+     * @return <code>true</code> if the method is stubbed
+     */
+    private static boolean isStubbed(JCAClassMethod method) {
+        return method.getMethodBytecodes().getInstructions().get(0).getOpcode() == Bytecode.ACONST_NULL;
+    }
+
+    /**
+     * The method of the super class called through <code>super.run()</code> in an override is reachable
+     *
+     * @throws Exception Error during the JCA file parsing
+     */
+    @Test
+    public void superCallKeepsTheSuperClassMethod() throws Exception {
+        String path = Paths.get(DeadCodeEliminatorTest.class.getResource("super.jca").toURI()).toString();
+        JCAFile jca = JCAParser.parseFile(path);
+
+        ArrayList<JCAFile> packages = new ArrayList<>();
+        packages.add(jca);
+
+        DeadCodeEliminator eliminator = new DeadCodeEliminator(packages);
+        eliminator.addRoot("sup", "Start", "start");
+        eliminator.computeReachableMethods();
+
+        assertEquals(1, eliminator.eliminate());
+        assertFalse(isStubbed(jca.getSymbolIndex().getMethod("Start", "Start/run()V")));
+        assertFalse(isStubbed(jca.getSymbolIndex().getMethod("Base", "Base/run()V")));
+        assertTrue(isStubbed(jca.getSymbolIndex().getMethod("Base", "Base/unused()V")));
+    }
+}
@@ -0,0 +1,105 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.JCAClassMethod;
+import fr.gouv.ssi.rommask.jcaparser.JCAFile;
+import fr.gouv.ssi.rommask.jcaparser.JCAObject;
+import fr.gouv.ssi.rommask.jcaparser.JCAParser;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.ConstantPoolComponentFromJCA;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.DescriptorComponentFromJCA;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.MethodComponentFromJCA;
+import fr.gouv.ssi.rommask.jcaparser.util.Triplet;
+import fr.xlim.ssd.capmanipulator.library.CapFile;
+import fr.xlim.ssd.capmanipulator.library.PackageInfo;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the constant pool pre-linking
+ *
+ * @author Guillaume Bouffard
+ */
+public class ConstantPoolPreLinkerTest {
+
+    /**
+     * Parsing a JCA file of the test resources and generating the CAP file components used to resolve its classes
+     * and methods
+     *
+     * @param name JCA file name
+     * @return package written in flash
+     * @throws Exception Error during the JCA file parsing or converting
+     */
+    private static Triplet<String, PackageInfo, CapFile> loadPackage(String name) throws Exception {
+        String path = Paths.get(ConstantPoolPreLinkerTest.class.getResource(name).toURI()).toString();
+        JCAFile jca = JCAParser.parseFile(path);
+
+        CapFile cap = new CapFile();
+        cap.setDescriptorComponent(new DescriptorComponentFromJCA(cap, jca));
+        cap.setMethodComponent(new MethodComponentFromJCA(jca, (short) 0));
+        cap.setConstantPoolComponent(new ConstantPoolComponentFromJCA(cap, jca));
+
+        return new Triplet<>(jca.getName(), new PackageInfo(), cap);
+    }
+
+    /**
+     * A super method call in an override is pre-linked to the method of the super class, not to the override
+     *
+     * @throws Exception Error during the JCA file parsing or pre-linking
+     */
+    @Test
+    public void superMethodIsLookedUpFromTheSuperClass() throws Exception {
+        ArrayList<Triplet<String, PackageInfo, CapFile>> packages = new ArrayList<>();
+        packages.add(loadPackage("super.jca"));
+
+        PackageResolver resolver = new PackageResolver(packages);
+        ByteBuffer preLinked = ByteBuffer.wrap(new ConstantPoolPreLinker(resolver, new HashMap<>()).preLink(0));
+
+        JCAFile jca = resolver.getJCAFile(0);
+        JCAObject base = jca.getSymbolIndex().getObject("Base");
+        JCAObject start = jca.getSymbolIndex().getObject("Start");
+        JCAClassMethod baseRun = jca.getSymbolIndex().getMethod("Base", "Base/run()V");
+        JCAClassMethod startRun = jca.getSymbolIndex().getMethod("Start", "Start/run()V");
+
+        // superMethodRef Start/run()V
+        assertEquals(4, preLinked.get(0));
+        assertEquals(resolver.getClassOffset(base), preLinked.getShort(2));
+        assertEquals(resolver.getMethodOffset(baseRun), preLinked.getShort(4));
+        assertEquals(0, preLinked.get(6));
+
+        // virtualMethodRef Start/run()V
+        assertEquals(3, preLinked.get(ConstantPoolPreLinker.ENTRY_SIZE));
+        assertEquals(resolver.getClassOffset(start), preLinked.getShort(ConstantPoolPreLinker.ENTRY_SIZE + 2));
+        assertEquals(resolver.getMethodOffset(startRun), preLinked.getShort(ConstantPoolPreLinker.ENTRY_SIZE + 4));
+    }
+}
@@ -0,0 +1,156 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the sector-level delta against a previous mask
+ *
+ * @author Guillaume Bouffard
+ */
+public class FlashDeltaTest {
+
+    /**
+     * Sector size of the test layout
+     */
+    private static final int SECTOR_SIZE = 0x100;
+
+    /**
+     * Flash layout: a reserved sector, two apps sectors and a defragmentation sector
+     */
+    private FlashLayout layout;
+
+    /**
+     * File of the new flash image
+     */
+    private Path imagePath;
+
+    /**
+     * File of the previous flash image
+     */
+    private Path previousPath;
+
+    /**
+     * Channel of the new flash image
+     */
+    private FileChannel channel;
+
+    /**
+     * New flash image, with data in the first apps sector
+     */
+    private FlashImage image;
+
+    /**
+     * Building the new flash image
+     *
+     * @throws IOException
+     */
+    @Before
+    public void setUp() throws IOException {
+        this.layout = new FlashLayout((byte) 0xFF);
+        this.layout.addSector(SECTOR_SIZE, SectorRole.RESERVED);
+        this.layout.addSector(SECTOR_SIZE, SectorRole.APPS);
+        this.layout.addSector(SECTOR_SIZE, SectorRole.APPS);
+        this.layout.addSector(SECTOR_SIZE, SectorRole.DEFRAG);
+
+        this.imagePath = Files.createTempFile("rommask", ".img");
+        this.previousPath = Files.createTempFile("rommask", ".img");
+
+        this.channel = FileChannel.open(this.imagePath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.image = new FlashImage(this.channel, this.layout);
+        this.image.place(SECTOR_SIZE, new byte[]{1, 2, 3});
+    }
+
+    /**
+     * Deleting the flash image files
+     *
+     * @throws IOException
+     */
+    @After
+    public void tearDown() throws IOException {
+        this.channel.close();
+        Files.deleteIfExists(this.imagePath);
+        Files.deleteIfExists(this.previousPath);
+    }
+
+    /**
+     * Writing a previous image whose reserved sector differs from the new image
+     *
+     * @param length previous image length
+     * @throws IOException
+     */
+    private void writePrevious(int length) throws IOException {
+        byte[] previous = new byte[length];
+        ByteBuffer data = this.image.view(0, Math.min(length, this.layout.getSize()));
+        data.get(previous, 0, data.remaining());
+        Arrays.fill(previous, 0, SECTOR_SIZE, (byte) 0x55);
+
+        Files.write(this.previousPath, previous);
+    }
+
+    /**
+     * A reserved sector which differs from the previous image, e.g. a bootloader in a device dump, is not changed
+     *
+     * @throws IOException
+     */
+    @Test
+    public void reservedSectorsAreNeverChanged() throws IOException {
+        this.writePrevious(this.layout.getSize());
+
+        assertEquals(new ArrayList<>(), new FlashDelta(this.image).getChangedSectors(this.previousPath));
+    }
+
+    /**
+     * Apps sectors missing from a short previous image are changed, the defragmentation sector is not
+     *
+     * @throws IOException
+     */
+    @Test
+    public void missingSectorsAreOnlyChangedForTheFilesystem() throws IOException {
+        this.writePrevious(SECTOR_SIZE);
+
+        ArrayList<FlashSector> changed = new FlashDelta(this.image).getChangedSectors(this.previousPath);
+
+        assertEquals(2, changed.size());
+        assertEquals(SectorRole.APPS, changed.get(0).getRole());
+        assertEquals(SectorRole.APPS, changed.get(1).getRole());
+    }
+}
@@ -0,0 +1,143 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.JCAClassMethod;
+import fr.gouv.ssi.rommask.jcaparser.JCAFile;
+import fr.gouv.ssi.rommask.jcaparser.JCAObject;
+import fr.gouv.ssi.rommask.jcaparser.JCAParser;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.ConstantPoolComponentFromJCA;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.DescriptorComponentFromJCA;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.JCAConverterException;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.MethodComponentFromJCA;
+import fr.gouv.ssi.rommask.jcaparser.util.Triplet;
+import fr.xlim.ssd.capmanipulator.library.CapFile;
+import fr.xlim.ssd.capmanipulator.library.PackageInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the interface dispatch tables
+ *
+ * @author Guillaume Bouffard
+ */
+public class InterfaceTableGeneratorTest {
+
+    /**
+     * Package resolver of the package implementing an interface
+     */
+    private PackageResolver resolver;
+
+    /**
+     * Interface tables of the package
+     */
+    private ByteBuffer table;
+
+    /**
+     * Parsing the JCA file and generating its interface tables
+     *
+     * @throws Exception Error during the JCA file parsing or the interface table generation
+     */
+    @Before
+    public void setUp() throws Exception {
+        String path = Paths.get(InterfaceTableGeneratorTest.class.getResource("itable.jca").toURI()).toString();
+        JCAFile jca = JCAParser.parseFile(path);
+
+        CapFile cap = new CapFile();
+        cap.setDescriptorComponent(new DescriptorComponentFromJCA(cap, jca));
+        cap.setMethodComponent(new MethodComponentFromJCA(jca, (short) 0));
+        cap.setConstantPoolComponent(new ConstantPoolComponentFromJCA(cap, jca));
+
+        ArrayList<Triplet<String, PackageInfo, CapFile>> packages = new ArrayList<>();
+        packages.add(new Triplet<>(jca.getName(), new PackageInfo(), cap));
+
+        this.resolver = new PackageResolver(packages);
+        this.table = ByteBuffer.wrap(new InterfaceTableGenerator(this.resolver).generate(0));
+    }
+
+    /**
+     * Checks the interface table of a class implementing <code>Runner</code>
+     *
+     * @param position position of the class table
+     * @param object   class implementing the interface
+     * @param method0  method implementing the interface method token 0
+     * @param method1  method implementing the interface method token 1
+     * @throws JCAConverterException A method is not in the method component
+     */
+    private void assertRunnerTable(int position, JCAObject object, JCAClassMethod method0, JCAClassMethod method1)
+            throws JCAConverterException {
+        JCAObject runner = this.resolver.getJCAFile(0).getSymbolIndex().getObject("Runner");
+
+        assertEquals(this.resolver.getClassOffset(object), this.table.getShort(position));
+        assertEquals(1, this.table.get(position + 2));
+
+        assertEquals(0, this.table.get(position + 3));
+        assertEquals(this.resolver.getClassOffset(runner), this.table.getShort(position + 4));
+        assertEquals(2, this.table.get(position + 6));
+
+        assertEquals(0, this.table.get(position + 7));
+        assertEquals(this.resolver.getMethodOffset(method0), this.table.getShort(position + 8));
+        assertEquals(0, this.table.get(position + 10));
+        assertEquals(this.resolver.getMethodOffset(method1), this.table.getShort(position + 11));
+    }
+
+    /**
+     * Concrete classes get a table, the interface does not, and the interface method tokens are mapped through the
+     * virtual method tokens of the class
+     *
+     * @throws JCAConverterException A method is not in the method component
+     */
+    @Test
+    public void classImplementingAnInterfaceHasATable() throws JCAConverterException {
+        JCAFile jca = this.resolver.getJCAFile(0);
+
+        assertEquals(2 * 13, this.table.capacity());
+        this.assertRunnerTable(0, jca.getSymbolIndex().getObject("Base"),
+                jca.getSymbolIndex().getMethod("Base", "Base/bar()V"),
+                jca.getSymbolIndex().getMethod("Base", "Base/foo()V"));
+    }
+
+    /**
+     * A sub class implements the interfaces of its super class, with its overrides and the inherited methods
+     *
+     * @throws JCAConverterException A method is not in the method component
+     */
+    @Test
+    public void subClassInheritsTheInterfaces() throws JCAConverterException {
+        JCAFile jca = this.resolver.getJCAFile(0);
+
+        this.assertRunnerTable(13, jca.getSymbolIndex().getObject("Sub"),
+                jca.getSymbolIndex().getMethod("Sub", "Sub/bar()V"),
+                jca.getSymbolIndex().getMethod("Base", "Base/foo()V"));
+    }
+}
@@ -0,0 +1,99 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the run-length encoding of static field values
+ *
+ * @author Guillaume Bouffard
+ */
+public class StaticFieldEncoderTest {
+
+    /**
+     * Encoding then decoding static field values gives the values back
+     *
+     * @param values static field values
+     */
+    private void assertRoundTrip(byte[] values) {
+        assertArrayEquals(values, StaticFieldEncoder.decode(StaticFieldEncoder.encode(values)));
+    }
+
+    /**
+     * Empty values are encoded as their length only
+     */
+    @Test
+    public void emptyValues() {
+        assertEquals(4, StaticFieldEncoder.encode(new byte[0]).length);
+        this.assertRoundTrip(new byte[0]);
+    }
+
+    /**
+     * A zero-filled buffer is encoded as repeated runs
+     */
+    @Test
+    public void zeroFilledValues() {
+        byte[] values = new byte[0x200];
+
+        assertEquals(4 + 8, StaticFieldEncoder.encode(values).length);
+        this.assertRoundTrip(values);
+    }
+
+    /**
+     * Values without repetition are encoded as literal runs longer than a single control byte can hold
+     */
+    @Test
+    public void literalValues() {
+        byte[] values = new byte[0x101];
+        for (int idx = 0; idx < values.length; idx++) {
+            values[idx] = (byte) idx;
+        }
+
+        assertEquals(4 + 3 + values.length, StaticFieldEncoder.encode(values).length);
+        this.assertRoundTrip(values);
+    }
+
+    /**
+     * Repeated runs are mixed with literals, including runs too short to be repeated
+     */
+    @Test
+    public void mixedValues() {
+        byte[] values = new byte[0x90];
+        Arrays.fill(values, 0x10, 0x12, (byte) 0xAA);
+        Arrays.fill(values, 0x20, 0x90, (byte) 0x55);
+        values[0x05] = 1;
+        values[0x40] = 2;
+
+        this.assertRoundTrip(values);
+    }
+}
@@ -0,0 +1,95 @@
+package fr.gouv.ssi.rommask.jcaparser.mask.filesystem;
+
+/*-
+ * #%L
+ * Java Card RomMask Generator
+ * %%
+ * Copyright (C) 2020 National Cybersecurity Agency of France (ANSSI)
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import fr.gouv.ssi.rommask.jcaparser.JCAFile;
+import fr.gouv.ssi.rommask.jcaparser.JCAObject;
+import fr.gouv.ssi.rommask.jcaparser.JCAParser;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.ConstantPoolComponentFromJCA;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.DescriptorComponentFromJCA;
+import fr.gouv.ssi.rommask.jcaparser.jcaconverter.MethodComponentFromJCA;
+import fr.gouv.ssi.rommask.jcaparser.util.Triplet;
+import fr.xlim.ssd.capmanipulator.library.CapFile;
+import fr.xlim.ssd.capmanipulator.library.PackageInfo;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the subtype tables
+ *
+ * @author Guillaume Bouffard
+ */
+public class SubtypeTableGeneratorTest {
+
+    /**
+     * Each class of a package is written with the bitset of its super types, itself and its super classes
+     *
+     * @throws Exception Error during the JCA file parsing or the subtype table generation
+     */
+    @Test
+    public void classesHaveTheirSuperClassesAsSupertypes() throws Exception {
+        String path = Paths.get(SubtypeTableGeneratorTest.class.getResource("super.jca").toURI()).toString();
+        JCAFile jca = JCAParser.parseFile(path);
+
+        CapFile cap = new CapFile();
+        cap.setDescriptorComponent(new DescriptorComponentFromJCA(cap, jca));
+        cap.setMethodComponent(new MethodComponentFromJCA(jca, (short) 0));
+        cap.setConstantPoolComponent(new ConstantPoolComponentFromJCA(cap, jca));
+
+        ArrayList<Triplet<String, PackageInfo, CapFile>> packages = new ArrayList<>();
+        packages.add(new Triplet<>(jca.getName(), new PackageInfo(), cap));
+
+        PackageResolver resolver = new PackageResolver(packages);
+        SubtypeTableGenerator generator = new SubtypeTableGenerator(resolver);
+        ByteBuffer table = ByteBuffer.wrap(generator.generate(0));
+
+        JCAObject base = resolver.getJCAFile(0).getSymbolIndex().getObject("Base");
+        JCAObject start = resolver.getJCAFile(0).getSymbolIndex().getObject("Start");
+
+        assertEquals(2, generator.getTypeCount());
+        assertEquals(1, generator.getSupertypesSize());
+        assertEquals(4 + 2 * (4 + generator.getSupertypesSize()), table.capacity());
+
+        assertEquals(2, table.getShort(0));
+        assertEquals(2, table.getShort(2));
+
+        // Base: itself
+        assertEquals(resolver.getClassOffset(base), table.getShort(4));
+        assertEquals(generator.getTypeId(base), table.getShort(6));
+        assertEquals(1 << generator.getTypeId(base), table.get(8));
+
+        // Start: itself and Base
+        assertEquals(resolver.getClassOffset(start), table.getShort(9));
+        assertEquals(generator.getTypeId(start), table.getShort(11));
+        assertEquals((1 << generator.getTypeId(base)) | (1 << generator.getTypeId(start)), table.get(13));
+    }
+}